@@ -0,0 +1,133 @@
+package com.zetaplugins.netwatchz.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * An IP address packed into two longs, used as a cache key.
+ * IPv4 addresses are stored as IPv4-mapped IPv6 addresses (::ffff:a.b.c.d), so both families share one key space.
+ * @param hi the upper 64 bits of the IPv6 address
+ * @param lo the lower 64 bits of the IPv6 address
+ */
+public record AddressKey(long hi, long lo) {
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+    /**
+     * Parses an IP address literal with {@link IpLiteral}. Host names are never resolved.
+     * @param ip the IP address, e.g. "203.0.113.7" or "2001:db8::1"
+     * @return the key, or null if the string is not an IP address literal
+     */
+    public static @Nullable AddressKey parse(String ip) {
+        if (ip == null || ip.isEmpty()) return null;
+        if (ip.indexOf(':') < 0) {
+            long v4 = IpLiteral.parseIpv4(ip, 0, ip.length());
+            return v4 < 0 ? null : ofIpv4((int) v4);
+        }
+
+        byte[] bytes = IpLiteral.parse(ip);
+        return bytes == null ? null : of(bytes);
+    }
+
+    /**
+     * @param address the address
+     * @return the key of the address
+     */
+    public static @NotNull AddressKey of(@NotNull InetAddress address) {
+        return of(address.getAddress());
+    }
+
+    /**
+     * @param bytes the address in network byte order, 4 bytes for IPv4 or 16 bytes for IPv6
+     * @return the key of the address
+     */
+    public static @NotNull AddressKey of(byte @NotNull [] bytes) {
+        if (bytes.length == 4) {
+            return ofIpv4(((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+        }
+        return new AddressKey(toLong(bytes, 0), toLong(bytes, 8));
+    }
+
+    /**
+     * @param address the IPv4 address as an int, most significant byte first
+     * @return the key of the address
+     */
+    public static @NotNull AddressKey ofIpv4(int address) {
+        return new AddressKey(0, IPV4_MAPPED_PREFIX | (address & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @return true if the key is an IPv4 address
+     */
+    public boolean isIpv4() {
+        return hi == 0 && (lo & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX;
+    }
+
+    /**
+     * @return the IPv4 address as an int, only meaningful if {@link #isIpv4()} is true
+     */
+    public int ipv4() {
+        return (int) lo;
+    }
+
+    /**
+     * Masks the key down to the network it belongs to.
+     * @param ipv4Bits prefix length used for IPv4 addresses (0 - 32)
+     * @param ipv6Bits prefix length used for IPv6 addresses (0 - 128)
+     * @return the key of the network, or this key if the prefix covers the whole address
+     */
+    public @NotNull AddressKey prefix(int ipv4Bits, int ipv6Bits) {
+        if (isIpv4()) {
+            if (ipv4Bits >= 32) return this;
+            int mask = ipv4Bits <= 0 ? 0 : -1 << (32 - ipv4Bits);
+            return ofIpv4(ipv4() & mask);
+        }
+        if (ipv6Bits >= 128) return this;
+        if (ipv6Bits <= 0) return new AddressKey(0, 0);
+        if (ipv6Bits <= 64) return new AddressKey(hi & (ipv6Bits == 64 ? -1L : ~(-1L >>> ipv6Bits)), 0);
+        return new AddressKey(hi, lo & ~(-1L >>> (ipv6Bits - 64)));
+    }
+
+    /**
+     * @return the address this key represents
+     */
+    public @NotNull InetAddress toInetAddress() {
+        try {
+            if (isIpv4()) {
+                int v4 = ipv4();
+                return InetAddress.getByAddress(new byte[]{(byte) (v4 >>> 24), (byte) (v4 >>> 16), (byte) (v4 >>> 8), (byte) v4});
+            }
+            byte[] bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (hi >>> (56 - 8 * i));
+                bytes[8 + i] = (byte) (lo >>> (56 - 8 * i));
+            }
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Only thrown for byte arrays of an illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the address in its textual form, e.g. "203.0.113.7"
+     */
+    @Override
+    public @NotNull String toString() {
+        if (isIpv4()) {
+            int v4 = ipv4();
+            return (v4 >>> 24) + "." + ((v4 >>> 16) & 0xFF) + "." + ((v4 >>> 8) & 0xFF) + "." + (v4 & 0xFF);
+        }
+        return toInetAddress().getHostAddress();
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,47 @@
+package com.zetaplugins.netwatchz.common;
+
+/**
+ * A point-in-time snapshot of the statistics of a cache.
+ * @param name the name of the cache
+ * @param size the approximate number of entries
+ * @param statsEnabled whether the cache records statistics; if false, all counters are 0
+ * @param hitRate the ratio of lookups that were served from the cache (0.0 - 1.0)
+ * @param hitCount the number of lookups served from the cache
+ * @param missCount the number of lookups that had to ask the provider
+ * @param evictionCount the number of entries removed because of the size or memory bound
+ * @param averageLoadMillis the average time a provider lookup took, in milliseconds
+ */
+public record CacheMetrics(
+        String name,
+        long size,
+        boolean statsEnabled,
+        double hitRate,
+        long hitCount,
+        long missCount,
+        long evictionCount,
+        double averageLoadMillis
+) {
+    /**
+     * @return the hit rate grouped into a coarse bucket, for charts
+     */
+    public String hitRateBucket() {
+        if (!statsEnabled || hitCount + missCount == 0) return "no data";
+        if (hitRate < 0.25) return "0-25%";
+        if (hitRate < 0.5) return "25-50%";
+        if (hitRate < 0.75) return "50-75%";
+        if (hitRate < 0.9) return "75-90%";
+        return "90-100%";
+    }
+
+    /**
+     * @return the average load time grouped into a coarse bucket, for charts
+     */
+    public String loadTimeBucket() {
+        if (!statsEnabled || missCount == 0) return "no data";
+        if (averageLoadMillis < 10) return "<10ms";
+        if (averageLoadMillis < 50) return "10-50ms";
+        if (averageLoadMillis < 200) return "50-200ms";
+        if (averageLoadMillis < 1000) return "200-1000ms";
+        return ">1s";
+    }
+}
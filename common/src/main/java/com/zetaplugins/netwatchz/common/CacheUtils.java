@@ -1,27 +1,148 @@
 package com.zetaplugins.netwatchz.common;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
+import com.zetaplugins.netwatchz.common.ipapi.CompactIpData;
 import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CacheUtils {
+    /** How long an IP the provider had no data for is remembered */
+    public static final Duration NOT_FOUND_TTL = Duration.ofMinutes(10);
+    /** How long a failed lookup is remembered before the provider is asked again */
+    public static final Duration FAILED_TTL = Duration.ofSeconds(30);
+    /** Maximum number of negative entries per cache */
+    public static final int NEGATIVE_CACHE_SIZE = 500;
+
+    /** Rough per-entry overhead of a Caffeine node, used by the weighers */
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    /** Size of an AddressKey: object header and two longs */
+    private static final int ADDRESS_KEY_BYTES = 32;
+
+    /**
+     * Runs provider lookups and background refreshes, so a slow provider never blocks
+     * the common pool or holds a lock inside the cache while it is being waited on. Lookups of logins are bounded
+     * by the lookup pool of the connection check, which waits for them, so this pool does not grow with joins.
+     */
+    private static final ExecutorService LOOKUP_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "NetwatchZ-Lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private CacheUtils() {}
 
-    public static Cache<@NotNull String, IpData> createIpApiCache() {
-        return Caffeine.newBuilder()
-                .expireAfterWrite(1, TimeUnit.HOURS)
-                .maximumSize(1000)
-                .build();
+    /**
+     * @return the executor that runs provider lookups, for lookups that have to be started outside a cache
+     */
+    public static ExecutorService lookupExecutor() {
+        return LOOKUP_EXECUTOR;
+    }
+
+    /**
+     * Creates the cache for IP data.
+     * @param settings the cache settings
+     * @param loader loads the compacted IP data from the provider, may return null if the provider has no data
+     * @return the cache
+     */
+    public static AsyncLoadingCache<@NotNull AddressKey, CompactIpData> createIpApiCache(
+            CacheConfig.CacheSettings settings,
+            CacheLoader<@NotNull AddressKey, CompactIpData> loader
+    ) {
+        // Text fields live in a shared dictionary, so every entry has the same size
+        return build(settings, (AddressKey key, CompactIpData data) ->
+                ENTRY_OVERHEAD_BYTES + ADDRESS_KEY_BYTES + CompactIpData.SIZE_BYTES, loader);
+    }
+
+    /**
+     * Creates the cache for VPN info.
+     * @param settings the cache settings
+     * @param loader loads the VPN info from the provider, may return null if the provider has no data
+     * @return the cache
+     */
+    public static AsyncLoadingCache<@NotNull AddressKey, VpnInfoData> createVpnInfoCache(
+            CacheConfig.CacheSettings settings,
+            CacheLoader<@NotNull AddressKey, VpnInfoData> loader
+    ) {
+        // VpnInfoData is five booleans, so the record itself is a constant 24 bytes
+        return build(settings, (AddressKey key, VpnInfoData data) ->
+                ENTRY_OVERHEAD_BYTES + ADDRESS_KEY_BYTES + 24, loader);
+    }
+
+    /**
+     * Checks whether a cached entry outlived its ttl and is only kept for stale-while-revalidate.
+     * @param cache the cache
+     * @param key the key of the entry
+     * @param ttl the ttl the cache was configured with
+     * @return true if the entry is older than the ttl
+     */
+    public static <K> boolean isStale(AsyncLoadingCache<K, ?> cache, K key, Duration ttl) {
+        return cache.synchronous().policy().expireAfterWrite()
+                .flatMap(expiration -> expiration.ageOf(key))
+                .map(age -> age.compareTo(ttl) > 0)
+                .orElse(false);
     }
 
-    public static Cache<@NotNull String, VpnInfoData> createVpnInfoCache() {
+    /**
+     * Creates a cache for lookups that did not return data.
+     * Each entry expires according to its status, so failures are retried sooner than misses.
+     * @return the negative cache
+     */
+    public static <K> Cache<K, LookupResult.Status> createNegativeCache() {
         return Caffeine.newBuilder()
-                .expireAfterWrite(1, TimeUnit.HOURS)
-                .maximumSize(1000)
+                .expireAfter(Expiry.creating((K key, LookupResult.Status status) ->
+                        status == LookupResult.Status.NOT_FOUND ? NOT_FOUND_TTL : FAILED_TTL))
+                .maximumSize(NEGATIVE_CACHE_SIZE)
                 .build();
     }
+
+    /**
+     * Takes a snapshot of the statistics of a cache.
+     * @param name the name to report the cache under
+     * @param cache the cache
+     * @return the snapshot
+     */
+    public static CacheMetrics snapshot(String name, Cache<?, ?> cache) {
+        boolean statsEnabled = cache.policy().isRecordingStats();
+        CacheStats stats = cache.stats();
+        return new CacheMetrics(
+                name,
+                cache.estimatedSize(),
+                statsEnabled,
+                stats.hitRate(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount(),
+                stats.averageLoadPenalty() / 1_000_000.0
+        );
+    }
+
+    private static <K, V> AsyncLoadingCache<K, V> build(
+            CacheConfig.CacheSettings settings,
+            Weigher<K, V> weigher,
+            CacheLoader<K, V> loader
+    ) {
+        // Entries are kept for the stale window past their ttl, and refreshed in the background
+        // once they reach the refresh-ahead point. A failed refresh keeps the old value.
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .executor(LOOKUP_EXECUTOR)
+                .expireAfterWrite(settings.ttl().plus(settings.maxStale()));
+        if (settings.refreshEnabled()) builder.refreshAfterWrite(settings.refreshAfter());
+        if (settings.recordStats()) builder.recordStats();
+
+        if (settings.maxWeightBytes() > 0) {
+            return builder.maximumWeight(settings.maxWeightBytes()).weigher(weigher).buildAsync(loader);
+        }
+        return builder.maximumSize(settings.maxSize()).buildAsync(loader);
+    }
 }
@@ -0,0 +1,163 @@
+package com.zetaplugins.netwatchz.common;
+
+import com.zetaplugins.netwatchz.common.config.CircuitBreakerConfig;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the outcome of the most recent calls to a provider and stops calling it while it is failing or slow.
+ * <ul>
+ *     <li>CLOSED: calls go through. Once enough calls in the window failed or were slow, the breaker opens.</li>
+ *     <li>OPEN: calls are rejected right away. After the open duration the breaker half-opens.</li>
+ *     <li>HALF_OPEN: a limited number of probe calls go through. If all of them succeed in time the breaker closes,
+ *     otherwise it opens again.</li>
+ * </ul>
+ * Every call that was allowed by {@link #tryAcquire()} has to be reported with {@link #onSuccess(long)},
+ * {@link #onFailure(long)} or {@link #release()}.
+ */
+public final class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final CircuitBreakerConfig config;
+    private final @Nullable Logger logger;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slow;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    public CircuitBreaker(String name, CircuitBreakerConfig config, @Nullable Logger logger) {
+        this.name = name;
+        this.config = config;
+        this.logger = logger;
+        this.slowCallNanos = config.slowCallThreshold().toNanos();
+        this.openNanos = config.openDuration().toNanos();
+        this.failedCalls = new boolean[config.windowSize()];
+        this.slowCalls = new boolean[config.windowSize()];
+    }
+
+    /**
+     * @return the name of the provider this breaker guards
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current state of the breaker
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) return State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * Checks whether a call may go through.
+     * @return true if the call may be made, false if the provider should be skipped
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) return true;
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) return false;
+            transition(State.HALF_OPEN);
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+        if (probesInFlight >= config.halfOpenProbes()) return false;
+        probesInFlight++;
+        return true;
+    }
+
+    /**
+     * Records a call that returned an answer.
+     * @param elapsedNanos how long the call took
+     */
+    public synchronized void onSuccess(long elapsedNanos) {
+        boolean isSlow = elapsedNanos > slowCallNanos;
+        switch (state) {
+            case CLOSED -> record(false, isSlow);
+            case HALF_OPEN -> {
+                probesInFlight = Math.max(0, probesInFlight - 1);
+                if (isSlow) {
+                    open();
+                } else if (++probeSuccesses >= config.halfOpenProbes()) {
+                    close();
+                }
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * Records a call that failed.
+     * @param elapsedNanos how long the call took
+     */
+    public synchronized void onFailure(long elapsedNanos) {
+        switch (state) {
+            case CLOSED -> record(true, elapsedNanos > slowCallNanos);
+            case HALF_OPEN -> open();
+            default -> {}
+        }
+    }
+
+    /**
+     * Gives back a call that was allowed but abandoned before it had an outcome, e.g. the slower half of a hedged lookup.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) probesInFlight = Math.max(0, probesInFlight - 1);
+    }
+
+    private void record(boolean failed, boolean isSlow) {
+        if (recorded == failedCalls.length) {
+            if (failedCalls[next]) failures--;
+            if (slowCalls[next]) slow--;
+        } else {
+            recorded++;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = isSlow;
+        if (failed) failures++;
+        if (isSlow) slow++;
+        next = (next + 1) % failedCalls.length;
+
+        if (recorded < config.minimumCalls()) return;
+        if (failures >= config.failureRate() * recorded || slow >= config.slowCallRate() * recorded) open();
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        transition(State.OPEN);
+    }
+
+    private void close() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slow = 0;
+        transition(State.CLOSED);
+    }
+
+    private void transition(State to) {
+        if (state == to) return;
+        if (logger != null) {
+            if (to == State.OPEN) {
+                logger.warning("Provider " + name + " is failing or slow, skipping it for "
+                        + config.openDuration().toSeconds() + " seconds.");
+            } else if (to == State.CLOSED) {
+                logger.info("Provider " + name + " has recovered.");
+            }
+        }
+        state = to;
+    }
+}
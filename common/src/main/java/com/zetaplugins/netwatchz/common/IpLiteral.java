@@ -0,0 +1,196 @@
+package com.zetaplugins.netwatchz.common;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Strict parser for IPv4 and IPv6 address literals. Unlike {@link InetAddress#getByName(String)} it never
+ * asks the resolver, so a host name or a malformed address is rejected right away instead of causing a
+ * blocking DNS lookup.
+ * <ul>
+ *     <li>IPv4: dotted quad, e.g. "203.0.113.7". Octets are decimal, at most 255.</li>
+ *     <li>IPv6: RFC 4291 text form, e.g. "2001:db8::1" or "::ffff:203.0.113.7", with an optional zone id ("%eth0")
+ *     that is ignored. IPv4-mapped addresses are returned as IPv4, like {@link InetAddress} does.</li>
+ * </ul>
+ */
+public final class IpLiteral {
+    private IpLiteral() {}
+
+    /**
+     * @param ip the string to parse
+     * @return the address in network byte order, 4 bytes for IPv4 and 16 bytes for IPv6,
+     *         or null if the string is not an IP address literal
+     */
+    public static byte @Nullable [] parse(String ip) {
+        if (ip == null || ip.isEmpty()) return null;
+        if (ip.indexOf(':') < 0) {
+            long v4 = parseIpv4(ip, 0, ip.length());
+            return v4 < 0 ? null : ipv4Bytes(v4);
+        }
+
+        int end = ip.indexOf('%');
+        if (end < 0) {
+            end = ip.length();
+        } else if (end == ip.length() - 1) {
+            return null; // empty zone id
+        }
+
+        byte[] bytes = new byte[16];
+        if (!parseIpv6(ip, 0, end, bytes)) return null;
+        if (isIpv4Mapped(bytes)) return new byte[] {bytes[12], bytes[13], bytes[14], bytes[15]};
+        return bytes;
+    }
+
+    /**
+     * @param ip the string to parse
+     * @return the address, or null if the string is not an IP address literal
+     */
+    public static @Nullable InetAddress toInetAddress(String ip) {
+        byte[] bytes = parse(ip);
+        if (bytes == null) return null;
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Only thrown for byte arrays of an illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param ip the string to check
+     * @return true if the string is an IPv4 or IPv6 address literal
+     */
+    public static boolean isLiteral(String ip) {
+        return parse(ip) != null;
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address without allocating.
+     * @param s the string containing the address
+     * @param start index of the first character of the address
+     * @param end index after the last character of the address
+     * @return the address as an unsigned int, or -1 if the characters are not a valid IPv4 address
+     */
+    public static long parseIpv4(CharSequence s, int start, int end) {
+        long result = 0;
+        int octet = -1;
+        int digits = 0;
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet < 0 ? c - '0' : octet * 10 + (c - '0');
+                if (octet > 255 || ++digits > 3) return -1;
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) return -1;
+        return (result << 8) | octet;
+    }
+
+    /**
+     * Parses an IPv6 address without a zone id.
+     * @param s the string containing the address
+     * @param start index of the first character of the address
+     * @param end index after the last character of the address
+     * @param out receives the 16 bytes of the address
+     * @return true if the characters are a valid IPv6 address
+     */
+    public static boolean parseIpv6(CharSequence s, int start, int end, byte[] out) {
+        if (end - start < 2) return false;
+
+        int groups = 0;
+        int compressAt = -1;
+        int i = start;
+        if (s.charAt(i) == ':') {
+            // A leading colon is only allowed as part of "::"
+            if (s.charAt(i + 1) != ':') return false;
+            compressAt = 0;
+            i += 2;
+        }
+
+        while (i < end) {
+            if (groups == 8) return false;
+
+            int groupStart = i;
+            int value = 0;
+            while (i < end && i - groupStart < 5) {
+                int digit = hexDigit(s.charAt(i));
+                if (digit < 0) break;
+                value = (value << 4) | digit;
+                i++;
+            }
+
+            if (i < end && s.charAt(i) == '.') {
+                // Embedded IPv4 address in the last two groups
+                if (groups > 6) return false;
+                long v4 = parseIpv4(s, groupStart, end);
+                if (v4 < 0) return false;
+                out[groups * 2] = (byte) (v4 >>> 24);
+                out[groups * 2 + 1] = (byte) (v4 >>> 16);
+                out[groups * 2 + 2] = (byte) (v4 >>> 8);
+                out[groups * 2 + 3] = (byte) v4;
+                groups += 2;
+                break;
+            }
+
+            int length = i - groupStart;
+            if (length == 0 || length > 4) return false;
+            out[groups * 2] = (byte) (value >>> 8);
+            out[groups * 2 + 1] = (byte) value;
+            groups++;
+
+            if (i == end) break;
+            if (s.charAt(i) != ':') return false;
+            i++;
+            if (i < end && s.charAt(i) == ':') {
+                if (compressAt >= 0) return false;
+                compressAt = groups;
+                i++;
+            } else if (i == end) {
+                return false; // trailing single colon
+            }
+        }
+
+        if (compressAt < 0) return groups == 8;
+        if (groups == 8) return false;
+
+        // Move the groups after "::" to the end and zero the gap
+        int tailBytes = (groups - compressAt) * 2;
+        System.arraycopy(out, compressAt * 2, out, 16 - tailBytes, tailBytes);
+        for (int b = compressAt * 2; b < 16 - tailBytes; b++) {
+            out[b] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of an ASCII hex digit, or -1. Unlike {@link Character#digit(char, int)} other
+     *         Unicode digits are not accepted.
+     */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isIpv4Mapped(byte[] bytes) {
+        for (int i = 0; i < 10; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return bytes[10] == (byte) 0xFF && bytes[11] == (byte) 0xFF;
+    }
+
+    private static byte[] ipv4Bytes(long v4) {
+        return new byte[] {(byte) (v4 >>> 24), (byte) (v4 >>> 16), (byte) (v4 >>> 8), (byte) v4};
+    }
+}
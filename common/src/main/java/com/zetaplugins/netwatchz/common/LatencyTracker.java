@@ -0,0 +1,52 @@
+package com.zetaplugins.netwatchz.common;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the durations of the most recent calls to a provider to estimate how long a call usually takes.
+ */
+public final class LatencyTracker {
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    /**
+     * @param capacity number of most recent calls to keep
+     */
+    public LatencyTracker(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Records the duration of a call.
+     * @param elapsedNanos how long the call took
+     */
+    public synchronized void record(long elapsedNanos) {
+        samples[next] = elapsedNanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    /**
+     * @return the number of calls recorded, up to the capacity
+     */
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile (0.0 - 1.0), e.g. 0.9 for the p90
+     * @return the duration in nanoseconds that the given share of the recent calls stayed below,
+     *         or -1 if no calls were recorded yet
+     */
+    public long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) return -1;
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(Math.max(0, Math.min(1, percentile)) * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
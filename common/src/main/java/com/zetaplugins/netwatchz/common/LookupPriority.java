@@ -0,0 +1,11 @@
+package com.zetaplugins.netwatchz.common;
+
+/**
+ * Why a provider is asked, so lookups can be prioritised when requests are scarce.
+ */
+public enum LookupPriority {
+    /** A lookup a connection is waiting for, because the IP is not cached */
+    FIRST_SEEN,
+    /** A background refresh of a cached entry, which keeps being served while the refresh is skipped */
+    REVALIDATION
+}
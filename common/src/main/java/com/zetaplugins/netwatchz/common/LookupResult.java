@@ -0,0 +1,61 @@
+package com.zetaplugins.netwatchz.common;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The outcome of an IP data or VPN info lookup.
+ * Unlike a plain nullable value, it tells the caller why no data is available,
+ * so a fail-open or fail-closed policy can be applied.
+ * @param status the outcome of the lookup
+ * @param data the fetched data, only present if the status is {@link Status#FOUND}
+ * @param stale true if the data outlived its ttl and is served while it is being refreshed
+ * @param cause the error that made the lookup fail, if known
+ */
+public record LookupResult<T>(Status status, @Nullable T data, boolean stale, @Nullable Throwable cause) {
+    public enum Status {
+        /** The provider returned data for the IP */
+        FOUND,
+        /** The provider answered, but had no data for the IP */
+        NOT_FOUND,
+        /** The provider could not be reached or returned an unusable response */
+        FAILED
+    }
+
+    public static <T> LookupResult<T> found(T data) {
+        return new LookupResult<>(Status.FOUND, data, false, null);
+    }
+
+    /**
+     * Creates a result for data that outlived its ttl, but is still served because
+     * a refresh is in flight or the provider is failing.
+     * @param data the stale data
+     * @return the result
+     */
+    public static <T> LookupResult<T> stale(T data) {
+        return new LookupResult<>(Status.FOUND, data, true, null);
+    }
+
+    public static <T> LookupResult<T> notFound() {
+        return new LookupResult<>(Status.NOT_FOUND, null, false, null);
+    }
+
+    public static <T> LookupResult<T> failed(@Nullable Throwable cause) {
+        return new LookupResult<>(Status.FAILED, null, false, cause);
+    }
+
+    /**
+     * Creates a result for a negatively cached lookup.
+     * @param status the cached status, either NOT_FOUND or FAILED
+     * @return the result
+     */
+    public static <T> LookupResult<T> unknown(Status status) {
+        return new LookupResult<>(status, null, false, null);
+    }
+
+    /**
+     * @return true if the lookup returned data, false if the verdict is unknown
+     */
+    public boolean isKnown() {
+        return status == Status.FOUND;
+    }
+}
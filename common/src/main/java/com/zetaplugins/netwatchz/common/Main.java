@@ -1,23 +1,19 @@
 package com.zetaplugins.netwatchz.common;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
 import com.zetaplugins.netwatchz.common.ipapi.fetchers.CustomIpDataFetcher;
 import com.zetaplugins.netwatchz.common.ipapi.fetchers.IpDataFetcher;
-import org.jetbrains.annotations.NotNull;
 
+import java.time.Duration;
 import java.util.HashMap;
-import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static void main(String[] args) {
-        Cache<@NotNull String, IpData> cache = Caffeine.newBuilder()
-                .expireAfterWrite(1, TimeUnit.MINUTES)
-                .maximumSize(100)
-                .build();
+        CacheConfig.CacheSettings cacheSettings = new CacheConfig.CacheSettings(
+                100, 0, Duration.ofMinutes(1), 0.8, Duration.ZERO, 32, 128, false
+        );
 
-        IpDataFetcher ipDataFetcher = new CustomIpDataFetcher(cache, "http://ip-api.com/json/", null, new HashMap<>() {{
+        IpDataFetcher ipDataFetcher = new IpDataFetcher(cacheSettings, new CustomIpDataFetcher("http://ip-api.com/json/", null, new HashMap<>() {{
             put("country", "country");
             put("countryCode", "countryCode");
             put("regionName", "region");
@@ -27,7 +23,7 @@ public class Main {
             put("lon", "lon");
             put("isp", "isp");
             put("org", "org");
-        }});
+        }}));
         try {
             String ip = "146.70.231.25"; // Example IP address
             var ipData = ipDataFetcher.fetchIpData(ip);
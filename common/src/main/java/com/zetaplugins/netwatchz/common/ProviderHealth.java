@@ -0,0 +1,71 @@
+package com.zetaplugins.netwatchz.common;
+
+/**
+ * Exponentially weighted moving averages of the latency and error rate of a provider.
+ * Recent lookups weigh the most, so the score follows a provider that gets slower or recovers.
+ */
+public final class ProviderHealth {
+    /** Error rates are capped below 1 so a failing provider still has a (very bad) finite score */
+    private static final double MAX_ERROR_RATE = 0.99;
+
+    private final double smoothing;
+    private double latencyMillis;
+    private double errorRate;
+    private long samples;
+
+    /**
+     * @param smoothing weight (0.0 - 1.0) of the newest lookup in the averages
+     */
+    public ProviderHealth(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Records the outcome of a lookup.
+     * @param elapsedNanos how long the lookup took
+     * @param failed whether the lookup failed
+     */
+    public synchronized void record(long elapsedNanos, boolean failed) {
+        double millis = elapsedNanos / 1_000_000.0;
+        double error = failed ? 1 : 0;
+        if (samples == 0) {
+            latencyMillis = millis;
+            errorRate = error;
+        } else {
+            latencyMillis += smoothing * (millis - latencyMillis);
+            errorRate += smoothing * (error - errorRate);
+        }
+        samples++;
+    }
+
+    /**
+     * @return the number of lookups recorded
+     */
+    public synchronized long samples() {
+        return samples;
+    }
+
+    /**
+     * @return the average latency in milliseconds, 0 if nothing was recorded yet
+     */
+    public synchronized double latencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return the average error rate (0.0 - 1.0)
+     */
+    public synchronized double errorRate() {
+        return errorRate;
+    }
+
+    /**
+     * The expected time until a lookup at this provider succeeds, lower is better.
+     * Providers without any recorded lookups score 0, so they are tried and measured first.
+     * @return the score
+     */
+    public synchronized double score() {
+        if (samples == 0) return 0;
+        return latencyMillis / (1 - Math.min(MAX_ERROR_RATE, errorRate));
+    }
+}
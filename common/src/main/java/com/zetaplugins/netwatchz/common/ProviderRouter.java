@@ -0,0 +1,54 @@
+package com.zetaplugins.netwatchz.common;
+
+import com.zetaplugins.netwatchz.common.config.RoutingConfig;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Decides in which order the providers of a chain are asked for a lookup.
+ */
+public final class ProviderRouter {
+    private final RoutingConfig config;
+
+    public ProviderRouter(RoutingConfig config) {
+        this.config = config == null ? RoutingConfig.ORDERED : config;
+    }
+
+    /**
+     * @return a health tracker using the smoothing of this router
+     */
+    public ProviderHealth newHealth() {
+        return new ProviderHealth(config.smoothing());
+    }
+
+    /**
+     * Orders the providers for a lookup. In adaptive mode the providers are sorted by their health score,
+     * and a share of the lookups is sent to a random other provider first.
+     * @param members the providers in their configured order
+     * @param health gets the health of a provider
+     * @return the providers in the order they should be asked
+     */
+    public <T> List<T> order(List<T> members, Function<T, ProviderHealth> health) {
+        if (config.mode() == RoutingConfig.Mode.ORDERED || members.size() < 2) return members;
+
+        // Scores are read once up front, so lookups finishing during the sort can't change them mid-way
+        Map<T, Double> scores = new IdentityHashMap<>();
+        for (T member : members) scores.put(member, health.apply(member).score());
+        List<T> ordered = new ArrayList<>(members);
+        // The sort is stable, so providers with equal scores keep their configured order
+        ordered.sort(Comparator.comparingDouble(scores::get));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (config.exploration() > 0 && random.nextDouble() < config.exploration()) {
+            T explored = ordered.remove(1 + random.nextInt(ordered.size() - 1));
+            ordered.add(0, explored);
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,10 @@
+package com.zetaplugins.netwatchz.common;
+
+/**
+ * Thrown when a lookup was not sent because no provider has request budget left for it.
+ */
+public class QuotaExceededException extends DataFetchException {
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,236 @@
+package com.zetaplugins.netwatchz.common;
+
+import com.zetaplugins.netwatchz.common.config.QuotaConfig;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the requests to a provider with a daily limit within its budget, and spreads them over the day.
+ * <ul>
+ *     <li>First-seen lookups may use the share of the limit that has elapsed of the (UTC) day, plus a burst,
+ *     so a busy hour can't use up the whole day.</li>
+ *     <li>Revalidations may only use the elapsed share without burst, and never the reserve at the end of the budget,
+ *     so background refreshes can't crowd out connections that are waiting.</li>
+ * </ul>
+ * The usage of the current day is stored in a file, so a restart does not reset it. The file is written in the
+ * background from a snapshot of the counters, so a lookup never waits on disk I/O; only {@link #save()} writes
+ * synchronously, for shutdown.
+ */
+public final class QuotaTracker {
+    private static final double LOW_BUDGET = 0.8;
+    private static final long SAVE_INTERVAL_MILLIS = 10_000;
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    /** Writes the files of all trackers, one after another */
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NetwatchZ-Quota");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The budget of a provider
+     * @param used requests used today
+     * @param limit the daily limit
+     * @param deferred revalidations skipped since startup to save the budget
+     * @param rejected first-seen lookups refused since startup because the budget was used up or ahead of pace
+     */
+    public record Stats(int used, int limit, long deferred, long rejected) {}
+
+    private final String name;
+    private final int limit;
+    private final double burst;
+    private final double revalidationReserve;
+    private final Path file;
+    private final Logger logger;
+    private final Clock clock;
+    /** Held while the file is written, so an older snapshot never overwrites a newer one */
+    private final Object fileLock = new Object();
+
+    private LocalDate day;
+    private int used;
+    /** Counts the changes of day and used */
+    private long version;
+    /** The version in the file, guarded by fileLock */
+    private long writtenVersion;
+    private long lastSaved;
+    private boolean warnedLow;
+    private boolean warnedPace;
+    private boolean warnedExhausted;
+    private long deferred;
+    private long rejected;
+
+    /**
+     * Creates a tracker and reads today's usage from its file, if there is one.
+     * @param name the name of the provider
+     * @param limit requests per day
+     * @param config the quota configuration
+     * @param logger logger for budget warnings
+     */
+    public QuotaTracker(String name, int limit, QuotaConfig config, Logger logger) {
+        this(name, limit, config, logger, Clock.systemUTC());
+    }
+
+    QuotaTracker(String name, int limit, QuotaConfig config, Logger logger, Clock clock) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be at least 1");
+        this.name = name;
+        this.limit = limit;
+        this.burst = config.burst();
+        this.revalidationReserve = config.revalidationReserve();
+        this.file = config.storageDir().resolve(name + ".properties");
+        this.logger = logger;
+        this.clock = clock;
+        this.day = today();
+        load();
+    }
+
+    /**
+     * @return the name of the provider this tracker budgets
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Takes one request from the budget, if the priority of the lookup allows it at this time of the day.
+     * @param priority why the provider is asked
+     * @return true if the request may be sent, false if it has to be skipped
+     */
+    public synchronized boolean tryAcquire(LookupPriority priority) {
+        rollOver();
+        double elapsed = (double) (clock.instant().getEpochSecond() % SECONDS_PER_DAY) / SECONDS_PER_DAY;
+
+        if (priority == LookupPriority.REVALIDATION) {
+            double allowance = Math.min(limit * (1 - revalidationReserve), limit * elapsed);
+            if (used >= allowance) {
+                deferred++;
+                return false;
+            }
+        } else {
+            double allowance = Math.min(limit, Math.ceil(limit * (elapsed + burst)));
+            if (used >= allowance) {
+                rejected++;
+                warnRejected();
+                return false;
+            }
+        }
+
+        used++;
+        version++;
+        if (!warnedLow && used >= limit * LOW_BUDGET) {
+            warnedLow = true;
+            logger.warning("VPN info provider " + name + " used " + used + " of its " + limit + " daily requests.");
+        }
+        if (clock.millis() - lastSaved >= SAVE_INTERVAL_MILLIS) {
+            Snapshot snapshot = snapshot();
+            SAVE_EXECUTOR.execute(() -> write(snapshot));
+        }
+        return true;
+    }
+
+    private void warnRejected() {
+        if (used >= limit) {
+            if (warnedExhausted) return;
+            warnedExhausted = true;
+            logger.warning("VPN info provider " + name + " used all " + limit + " daily requests. New IPs are only checked "
+                    + "with local signals (ASN precheck, IP lists) until the budget resets at 00:00 UTC.");
+        } else if (!warnedPace) {
+            warnedPace = true;
+            logger.warning("VPN info provider " + name + " is ahead of its daily budget (" + used + " of " + limit
+                    + " used); new IPs are only checked with local signals until the budget catches up.");
+        }
+    }
+
+    /**
+     * @return the budget of the provider
+     */
+    public synchronized Stats getStats() {
+        rollOver();
+        return new Stats(used, limit, deferred, rejected);
+    }
+
+    /**
+     * Writes today's usage to the file on the calling thread, if it changed since it was last written.
+     * Meant for shutdown; while running, the file is written in the background.
+     */
+    public void save() {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshot();
+        }
+        write(snapshot);
+    }
+
+    /**
+     * Takes a copy of the counters to write. Must be called while holding the monitor.
+     */
+    private Snapshot snapshot() {
+        lastSaved = clock.millis();
+        return new Snapshot(day, used, version);
+    }
+
+    private void write(Snapshot snapshot) {
+        synchronized (fileLock) {
+            if (snapshot.version() <= writtenVersion) return;
+            Properties properties = new Properties();
+            properties.setProperty("day", snapshot.day().toString());
+            properties.setProperty("used", Integer.toString(snapshot.used()));
+            try {
+                Files.createDirectories(file.getParent());
+                Path temp = Files.createTempFile(file.getParent(), name, ".tmp");
+                try (Writer writer = Files.newBufferedWriter(temp)) {
+                    properties.store(writer, "Requests used today by " + name);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writtenVersion = snapshot.version();
+            } catch (IOException e) {
+                logger.warning("Failed to save the request budget of " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void load() {
+        if (Files.notExists(file)) return;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+            if (day.toString().equals(properties.getProperty("day"))) {
+                used = Math.max(0, Integer.parseInt(properties.getProperty("used", "0").trim()));
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warning("Failed to read the request budget of " + name + ", starting from 0: " + e.getMessage());
+        }
+    }
+
+    private void rollOver() {
+        LocalDate today = today();
+        if (today.equals(day)) return;
+        day = today;
+        used = 0;
+        version++;
+        warnedLow = false;
+        warnedPace = false;
+        warnedExhausted = false;
+    }
+
+    private LocalDate today() {
+        return LocalDate.ofInstant(clock.instant(), ZoneOffset.UTC);
+    }
+
+    /**
+     * The counters to write to the file
+     */
+    private record Snapshot(LocalDate day, int used, long version) {}
+}
@@ -0,0 +1,189 @@
+package com.zetaplugins.netwatchz.common;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Collects lookups that run at the same time into batches, so a provider that accepts many keys per request
+ * is asked once per batch instead of once per key.
+ *
+ * A lookup that arrives while no request is in flight is sent right away, as a batch of one. While a request is
+ * in flight, the first lookup of the next batch waits for the window, or until the batch is full, then sends the
+ * request for the whole batch on its own thread and hands the results to the other lookups. No extra threads are involved, so
+ * callers have to be allowed to block, like lookups on {@link CacheUtils#lookupExecutor()}.
+ * Lookups of the same key in one batch share a single entry. A key the loader returns no value for fails its lookup. A {@link BatchListener} is told the outcome of
+ * each request once, so accounting such as a circuit breaker counts requests rather than lookups.
+ */
+public final class RequestBatcher<K, V> {
+    /**
+     * Loads a batch of keys with one request.
+     */
+    @FunctionalInterface
+    public interface BatchLoader<K, V> {
+        /**
+         * @param keys the keys of the batch, without duplicates
+         * @throws DataFetchException if the request fails; every lookup of the batch fails with it
+         * @return the values by key; the lookups of keys without a value fail
+         */
+        Map<K, V> load(List<K> keys) throws DataFetchException;
+    }
+
+    /**
+     * Is told how the lookup it was passed with took part in its batch. Exactly one of the methods is called
+     * per lookup, on the thread of the lookup, before {@link #load(Object, BatchListener)} returns.
+     */
+    public interface BatchListener {
+        /**
+         * The lookup sent the request of its batch.
+         * @param elapsedNanos how long the request took
+         * @param failed whether the request failed
+         */
+        void onSent(long elapsedNanos, boolean failed);
+
+        /**
+         * The lookup joined a batch that another lookup sent.
+         */
+        void onJoined();
+    }
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BatchLoader<K, V> loader;
+
+    private final Object lock = new Object();
+    /** The batch new lookups join, null if no batch is collecting */
+    private Batch<K, V> open;
+    /** The number of batch requests being sent */
+    private int inFlight;
+
+    /**
+     * @param window how long the first lookup of a batch waits for more lookups while another request is in flight
+     * @param maxBatchSize the most keys per batch
+     * @param loader loads a batch
+     */
+    public RequestBatcher(Duration window, int maxBatchSize, BatchLoader<K, V> loader) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.loader = loader;
+    }
+
+    /**
+     * Looks up a key as part of the next batch, blocking until the batch is loaded.
+     * @param key the key to look up
+     * @throws DataFetchException if the request of the batch failed or had no value for the key
+     * @return the value
+     */
+    public V load(K key) throws DataFetchException {
+        return load(key, null);
+    }
+
+    /**
+     * Looks up a key as part of the next batch, blocking until the batch is loaded.
+     * @param key the key to look up
+     * @param listener told whether this lookup sent the request of its batch and how it went, or null
+     * @throws DataFetchException if the request of the batch failed or had no value for the key
+     * @return the value
+     */
+    public V load(K key, @Nullable BatchListener listener) throws DataFetchException {
+        Batch<K, V> batch;
+        CompletableFuture<V> result;
+        boolean leader;
+        boolean overlapping;
+        synchronized (lock) {
+            leader = open == null;
+            overlapping = inFlight > 0;
+            if (leader) open = new Batch<>();
+            batch = open;
+            result = batch.waiting.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (batch.waiting.size() >= maxBatchSize) {
+                // Full: no more lookups join, and the leader sends it right away
+                open = null;
+                lock.notifyAll();
+            }
+        }
+
+        if (leader) {
+            // With nothing in flight there is nothing to wait for, so the lookup is not delayed
+            awaitBatch(batch, overlapping ? windowNanos : 0);
+            try {
+                send(batch, listener);
+            } finally {
+                synchronized (lock) {
+                    inFlight--;
+                }
+            }
+        }
+
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DataFetchException d) throw d;
+            throw new DataFetchException("Batched lookup of " + key + " failed", e.getCause());
+        } finally {
+            if (!leader && listener != null) listener.onJoined();
+        }
+    }
+
+    /**
+     * Waits until the window of the batch has passed or the batch is full, and closes it.
+     * @param windowNanos how long to wait, 0 to close the batch right away
+     */
+    private void awaitBatch(Batch<K, V> batch, long windowNanos) {
+        long deadline = System.nanoTime() + windowNanos;
+        synchronized (lock) {
+            try {
+                long remaining;
+                while (open == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                    lock.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                }
+            } catch (InterruptedException e) {
+                // Send what was collected so far; the lookups that joined must not be left waiting
+                Thread.currentThread().interrupt();
+            }
+            if (open == batch) open = null;
+            inFlight++;
+        }
+    }
+
+    private void send(Batch<K, V> batch, @Nullable BatchListener listener) {
+        // The batch is closed, so its map is no longer modified
+        List<K> keys = new ArrayList<>(batch.waiting.keySet());
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<K, V> values = loader.load(keys);
+            failed = false;
+            for (Map.Entry<K, CompletableFuture<V>> entry : batch.waiting.entrySet()) {
+                V value = values == null ? null : values.get(entry.getKey());
+                if (value != null) {
+                    entry.getValue().complete(value);
+                } else {
+                    entry.getValue().completeExceptionally(
+                            new DataFetchException("The batch reply has no value for " + entry.getKey()));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<V> waiting : batch.waiting.values()) {
+                waiting.completeExceptionally(e);
+            }
+        } finally {
+            // Only takes effect if the loader threw an Error; the lookups that joined must not be left waiting
+            for (CompletableFuture<V> waiting : batch.waiting.values()) {
+                waiting.completeExceptionally(new DataFetchException("Batched lookup did not complete"));
+            }
+            if (listener != null) listener.onSent(System.nanoTime() - start, failed);
+        }
+    }
+
+    private static final class Batch<K, V> {
+        private final Map<K, CompletableFuture<V>> waiting = new LinkedHashMap<>();
+    }
+}
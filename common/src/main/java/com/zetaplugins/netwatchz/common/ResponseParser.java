@@ -0,0 +1,18 @@
+package com.zetaplugins.netwatchz.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses the body of a provider response straight from the connection's stream.
+ * @param <T> the type of the parsed data
+ */
+@FunctionalInterface
+public interface ResponseParser<T> {
+    /**
+     * @param response the response body
+     * @throws IOException if the body can't be read or parsed
+     * @return the parsed data, or null if the provider has no data
+     */
+    T parse(InputStream response) throws IOException;
+}
@@ -0,0 +1,75 @@
+package com.zetaplugins.netwatchz.common;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps repeated strings to small int IDs, so cached entries can store an int instead of their own String copy.
+ * Entries are never removed; the dictionary is meant for values with a naturally bounded set of distinct values
+ * such as countries, regions, cities, time zones and ISPs.
+ * This class is thread-safe, lookups by ID are lock-free.
+ */
+public final class StringDictionary {
+    /** The ID used for null values */
+    public static final int NULL_ID = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[256];
+    private int size;
+
+    /**
+     * Returns the ID of the given value, adding it to the dictionary if it is not present yet.
+     * @param value the value
+     * @return the ID of the value, or {@link #NULL_ID} if the value is null
+     */
+    public int encode(@Nullable String value) {
+        if (value == null) return NULL_ID;
+        Integer id = ids.get(value);
+        if (id != null) return id;
+
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) return id;
+
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            // The value is stored before the ID is published, so every holder of the ID can decode it
+            current[size] = value;
+            values = current;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param id an ID returned by {@link #encode(String)}
+     * @return the value for the ID, or null if the ID is {@link #NULL_ID}
+     */
+    public @Nullable String decode(int id) {
+        return id < 0 ? null : values[id];
+    }
+
+    /**
+     * @return the number of distinct values in the dictionary
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap used by the dictionary, including the map and the stored strings.
+     * @return the estimated size in bytes
+     */
+    public synchronized long estimateSize() {
+        long bytes = 16L + values.length * 4L;
+        for (int i = 0; i < size; i++) {
+            // String object and its Latin-1 byte array, plus a map node and a boxed Integer
+            bytes += 40 + values[i].length() + 48;
+        }
+        return bytes;
+    }
+}
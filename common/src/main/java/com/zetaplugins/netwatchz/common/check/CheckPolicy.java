@@ -0,0 +1,243 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.zetaplugins.netwatchz.common.config.ConfigManager;
+import com.zetaplugins.netwatchz.common.config.ConnectionCheckConfig;
+import com.zetaplugins.netwatchz.common.config.FailurePolicy;
+
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The settings of the connection checks, read from the config and compiled once, so checking a connection does not
+ * touch the config: country codes are a bitset, kick messages are formatted and the verdicts of the VPN types and
+ * the failure policies are built in advance. Immutable; {@link ConnectionCheckPipeline#reloadPolicy()} swaps in a new one.
+ * @param <M> the type of the kick message of the platform
+ */
+public final class CheckPolicy<M> {
+    /** Reason prefix of the verdicts of a failure policy */
+    static final String LOOKUP_FAILED = "lookup_failed";
+
+    private static final String BLOCKED_MESSAGE = "&cYour IP address has been blocked due to suspicious activity!<br><br>&7If you believe this is an error, please contact support.";
+    private static final String VPN_MESSAGE = "&cYour IP address has been blocked because it is associated with a VPN service!<br>Try disabling your VPN and reconnecting.<br><br>&7If you believe this is an error, please contact support.";
+    private static final String LOOKUP_FAILED_MESSAGE = "&cWe could not verify your connection right now. Please try again in a moment.";
+
+    private final boolean alwaysAllowOps;
+    private final Duration deadline;
+    private final int maxConcurrentLookups;
+
+    private final boolean ipListEnabled;
+    private final boolean ipListBlacklist;
+    private final Verdict<M> listedVerdict;
+    private final Verdict<M> notWhitelistedVerdict;
+
+    private final boolean geoEnabled;
+    private final boolean geoBlacklist;
+    private final List<String> countries;
+    private final CountrySet countrySet;
+    private final M geoMessage;
+
+    private final boolean vpnEnabled;
+    private final Verdict<M> vpnVerdict;
+    private final Verdict<M> proxyVerdict;
+    private final Verdict<M> torVerdict;
+    private final Verdict<M> relayVerdict;
+    private final Verdict<M> hostingVerdict;
+
+    private final Map<String, Verdict<M>> failureVerdicts;
+
+    private CheckPolicy(ConfigManager config, ConnectionCheckConfig checkConfig, KickMessages<M> messages) {
+        alwaysAllowOps = config.getBoolean("always_allow_ops", true);
+        deadline = checkConfig.deadline();
+        maxConcurrentLookups = checkConfig.maxConcurrentLookups();
+
+        String mode = config.getString("ip_list.mode", "blacklist").toLowerCase(Locale.ROOT);
+        ipListEnabled = config.getBoolean("ip_list.enabled", true) && (mode.equals("blacklist") || mode.equals("whitelist"));
+        ipListBlacklist = mode.equals("blacklist");
+        M ipListMessage = messages.format("iplist_ban_message", BLOCKED_MESSAGE);
+        listedVerdict = Verdict.deny("ip_list (blacklist)", ipListMessage);
+        notWhitelistedVerdict = Verdict.deny("ip_list (not in whitelist)", ipListMessage);
+
+        geoEnabled = config.getBoolean("geo_blocking.enabled", true);
+        // If true -> blacklist, if false -> whitelist
+        geoBlacklist = config.getBoolean("geo_blocking.blacklist", true);
+        countries = List.copyOf(config.getStringList("geo_blocking.countries"));
+        countrySet = new CountrySet(countries);
+        geoMessage = messages.format("geoblock_ban_message", BLOCKED_MESSAGE);
+
+        vpnEnabled = config.getBoolean("vpn_block.enabled", true);
+        M vpnMessage = messages.format("vpnblock_ban_message", VPN_MESSAGE);
+        vpnVerdict = vpnVerdict(config, "is_vpn", vpnMessage);
+        proxyVerdict = vpnVerdict(config, "is_proxy", vpnMessage);
+        torVerdict = vpnVerdict(config, "is_tor", vpnMessage);
+        relayVerdict = vpnVerdict(config, "is_relay", vpnMessage);
+        hostingVerdict = vpnVerdict(config, "is_hosting", vpnMessage);
+
+        M lookupFailedMessage = messages.format("lookup_failed_message", LOOKUP_FAILED_MESSAGE);
+        failureVerdicts = Map.of(
+                "geo_blocking", failureVerdict(config, "geo_blocking", lookupFailedMessage),
+                "vpn_block", failureVerdict(config, "vpn_block", lookupFailedMessage)
+        );
+    }
+
+    /**
+     * Reads the check settings from the config and formats the kick messages.
+     * @param config the configuration
+     * @param messages formats the kick messages
+     * @return the compiled policy
+     */
+    public static <M> CheckPolicy<M> compile(ConfigManager config, KickMessages<M> messages) {
+        return new CheckPolicy<>(config, config.loadConnectionCheckConfig(), messages);
+    }
+
+    private static <M> Verdict<M> vpnVerdict(ConfigManager config, String type, M message) {
+        boolean block = config.getBoolean("vpn_block." + type + ".block", true);
+        return new Verdict<>(!block, "vpn_block (" + type + ")", block ? message : null,
+                config.getStringList("vpn_block." + type + ".commands"), true);
+    }
+
+    private static <M> Verdict<M> failureVerdict(ConfigManager config, String section, M message) {
+        FailurePolicy policy = FailurePolicy.fromString(config.getString(section + ".on_lookup_failure", "allow"));
+        if (policy == FailurePolicy.ALLOW) return Verdict.<M>allow().inconclusive();
+        return Verdict.deny(LOOKUP_FAILED + " (" + section + ")", message).inconclusive();
+    }
+
+    /**
+     * @return whether operators skip the checks
+     */
+    public boolean alwaysAllowOps() {
+        return alwaysAllowOps;
+    }
+
+    /**
+     * @return how long all checks of a connection may take together, {@link Duration#ZERO} for no limit
+     */
+    public Duration deadline() {
+        return deadline;
+    }
+
+    /**
+     * @return how many lookups of logins may run at once
+     */
+    public int maxConcurrentLookups() {
+        return maxConcurrentLookups;
+    }
+
+    /**
+     * @return whether the IP list check is enabled with a valid mode
+     */
+    public boolean ipListEnabled() {
+        return ipListEnabled;
+    }
+
+    /**
+     * @param inList whether the IP is in one of the lists
+     * @return the denying verdict for the IP, or null if the list mode lets it through
+     */
+    Verdict<M> ipListVerdict(boolean inList) {
+        if (ipListBlacklist != inList) return null;
+        return inList ? listedVerdict : notWhitelistedVerdict;
+    }
+
+    /**
+     * @return whether geo blocking is enabled
+     */
+    public boolean geoEnabled() {
+        return geoEnabled;
+    }
+
+    /**
+     * @return the configured country codes, for the range index of the IP data fetcher
+     */
+    public List<String> countries() {
+        return countries;
+    }
+
+    /**
+     * @param countryCode a country code
+     * @return true if the code is one of the configured countries
+     */
+    public boolean isListedCountry(String countryCode) {
+        return countrySet.contains(countryCode);
+    }
+
+    /**
+     * @param inCountryList whether the IP is in one of the configured countries
+     * @return true if geo blocking denies it
+     */
+    boolean geoDenies(boolean inCountryList) {
+        return geoBlacklist == inCountryList;
+    }
+
+    /**
+     * @return the kick message of IPs denied by geo blocking
+     */
+    M geoMessage() {
+        return geoMessage;
+    }
+
+    /**
+     * @return whether VPN blocking is enabled
+     */
+    public boolean vpnEnabled() {
+        return vpnEnabled;
+    }
+
+    /**
+     * @param type the VPN type, e.g. "is_vpn"
+     * @return the verdict configured for the type, with its commands and kick message
+     */
+    Verdict<M> vpnVerdict(String type) {
+        return switch (type) {
+            case "is_vpn" -> vpnVerdict;
+            case "is_proxy" -> proxyVerdict;
+            case "is_tor" -> torVerdict;
+            case "is_relay" -> relayVerdict;
+            case "is_hosting" -> hostingVerdict;
+            default -> throw new IllegalArgumentException("Unknown VPN type: " + type);
+        };
+    }
+
+    /**
+     * @param section the config section of the stage whose lookup failed (e.g. "geo_blocking")
+     * @return the verdict of the failure policy of the stage, never conclusive
+     */
+    Verdict<M> failureVerdict(String section) {
+        Verdict<M> verdict = failureVerdicts.get(section);
+        return verdict != null ? verdict : Verdict.<M>allow().inconclusive();
+    }
+
+    /**
+     * A set of country codes. Two-letter codes are bits in a bitset, anything else falls back to a hash set.
+     */
+    private static final class CountrySet {
+        private final BitSet codes = new BitSet(26 * 26);
+        private final Set<String> others = new HashSet<>();
+
+        private CountrySet(List<String> countries) {
+            for (String country : countries) {
+                int index = index(country);
+                if (index >= 0) codes.set(index);
+                else others.add(country);
+            }
+        }
+
+        private boolean contains(String country) {
+            if (country == null) return false;
+            int index = index(country);
+            return index >= 0 ? codes.get(index) : others.contains(country);
+        }
+
+        private static int index(String country) {
+            if (country == null || country.length() != 2) return -1;
+            int first = country.charAt(0) - 'A';
+            int second = country.charAt(1) - 'A';
+            if (first < 0 || first >= 26 || second < 0 || second >= 26) return -1;
+            return first * 26 + second;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A single check of the {@link ConnectionCheckPipeline}.
+ * @param <M> the type of the kick message of the platform
+ */
+public interface CheckStage<M> {
+    /**
+     * @return the name of the stage, also the config section it is configured in (e.g. "geo_blocking")
+     */
+    String name();
+
+    /**
+     * Checks a connection. A denying verdict stops the pipeline; an allowing one passes the connection on to the next stage.
+     * @param connection the connection
+     * @param policy the settings of the checks, the same for every stage of a connection
+     * @return the verdict of the stage, {@link Verdict#allow()} if it is disabled or has nothing to say
+     */
+    Verdict<M> check(Connection connection, CheckPolicy<M> policy);
+
+    /**
+     * Checks a connection from local data only, without waiting on a provider. The pipeline asks every stage this
+     * first, on the login thread, and only starts the lookups of the other stages once no local answer denied.
+     * @param connection the connection
+     * @param policy the settings of the checks, the same for every stage of a connection
+     * @return the verdict of the stage, or null if it needs a lookup and {@link #check} has to run
+     */
+    default @Nullable Verdict<M> checkLocal(Connection connection, CheckPolicy<M> policy) {
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A connection to be checked, adapted from the login event of the platform.
+ * @param playerName the name of the player
+ * @param ip the IP address of the player
+ * @param operator whether the player is an operator; only asked if always_allow_ops is enabled
+ */
+public record Connection(String playerName, String ip, BooleanSupplier operator) {
+    /**
+     * @param playerName the name of the player
+     * @param ip the IP address of the player
+     * @return a connection of a player that is never an operator, for platforms without operators
+     */
+    public static Connection of(String playerName, String ip) {
+        return new Connection(playerName, ip, () -> false);
+    }
+}
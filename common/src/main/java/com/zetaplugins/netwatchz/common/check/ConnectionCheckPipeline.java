@@ -0,0 +1,345 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.zetaplugins.netwatchz.common.AddressKey;
+import com.zetaplugins.netwatchz.common.NetwatchzServices;
+import com.zetaplugins.netwatchz.common.config.ConfigManager;
+import com.zetaplugins.netwatchz.common.config.FailurePolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Decides whether a connection is allowed, the same way on every platform. The platforms only adapt their
+ * login event to a {@link Connection} and apply the returned {@link Verdict}.
+ *
+ * Every stage is first asked for an answer from local data: the IP list, and geo blocking when a local database has
+ * a range index of the configured countries. Only if none of them denied are the lookups of the remaining stages
+ * started, all at the same time, so a login waits for the slower lookup instead of the sum of both. An IP the IP list
+ * or the local geo index denies therefore never spends a request of the VPN provider's daily budget. Geo lookups
+ * that need a provider still run next to the VPN lookup: waiting for them first would add their latency to every
+ * login, which costs more than the VPN requests spent on the few IPs geo blocking denies. All lookups share one
+ * deadline, a lookup that is not done by then is handled by its failure policy. Verdicts are taken in stage order
+ * and the first denying one ends the check. Decisions are cached per IP in a {@link VerdictCache}, and the time spent in each stage is recorded.
+ * The lookups run on a pool of at most {@link CheckPolicy#maxConcurrentLookups()} threads. A lookup that finds the
+ * pool full is not queued but handled by its failure policy right away, so a join flood from many IPs can't pile up
+ * threads that each wait for a provider.
+ * The settings are compiled into a {@link CheckPolicy} up front, so a check does not read the config.
+ * @param <M> the type of the kick message of the platform
+ */
+public final class ConnectionCheckPipeline<M> {
+    private final ConfigManager config;
+    private final List<TimedStage<M>> stages;
+    private final KickMessages<M> messages;
+    private volatile CheckPolicy<M> policy;
+    private final VerdictCache<M> verdictCache;
+    private final Consumer<String> commandRunner;
+    private final Logger logger;
+    private final ThreadPoolExecutor lookupPool;
+
+    /**
+     * @param config the configuration the policy is compiled from
+     * @param stages the stages, in the order their verdicts are taken
+     * @param verdictCache the cache of the decisions
+     * @param messages formats the kick messages
+     * @param commandRunner runs a console command of a verdict on the platform
+     * @param logger logger for blocked connections
+     */
+    public ConnectionCheckPipeline(ConfigManager config, List<CheckStage<M>> stages, VerdictCache<M> verdictCache,
+                                   KickMessages<M> messages, Consumer<String> commandRunner, Logger logger) {
+        this.config = config;
+        this.stages = stages.stream().map(TimedStage::new).toList();
+        this.messages = messages;
+        this.policy = CheckPolicy.compile(config, messages);
+        this.verdictCache = verdictCache;
+        this.commandRunner = commandRunner;
+        this.logger = logger;
+        int size = policy.maxConcurrentLookups();
+        this.lookupPool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "NetwatchZ-Check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lookupPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates the pipeline with the IP list, geo blocking and VPN blocking stages.
+     * @param config the configuration the policy is compiled from
+     * @param services the services the stages look IPs up with
+     * @param verdictCache the cache of the decisions
+     * @param messages formats the kick messages
+     * @param commandRunner runs a console command of a verdict on the platform
+     * @param logger logger for blocked connections and failed lookups
+     * @return the pipeline
+     */
+    public static <M> ConnectionCheckPipeline<M> create(ConfigManager config, NetwatchzServices services,
+                                                        VerdictCache<M> verdictCache, KickMessages<M> messages,
+                                                        Consumer<String> commandRunner, Logger logger) {
+        List<CheckStage<M>> stages = List.of(
+                new IpListStage<>(services.ipListService(), logger),
+                new GeoBlockStage<>(services.ipDataFetcher(), logger),
+                new VpnBlockStage<>(services.vpnInfoProvider(), logger)
+        );
+        return new ConnectionCheckPipeline<>(config, stages, verdictCache, messages, commandRunner, logger);
+    }
+
+    /**
+     * Compiles the policy again from the config and the lang file, and drops the decisions made with the old one.
+     * Call it after the config or the messages were reloaded.
+     */
+    public void reloadPolicy() {
+        CheckPolicy<M> compiled = CheckPolicy.compile(config, messages);
+        resizeLookupPool(compiled.maxConcurrentLookups());
+        policy = compiled;
+        verdictCache.invalidateAll();
+    }
+
+    private void resizeLookupPool(int size) {
+        // The core size may never exceed the maximum size, so the order depends on the direction
+        if (size > lookupPool.getMaximumPoolSize()) {
+            lookupPool.setMaximumPoolSize(size);
+            lookupPool.setCorePoolSize(size);
+        } else {
+            lookupPool.setCorePoolSize(size);
+            lookupPool.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Stops the lookup threads. Call it when the plugin is disabled.
+     */
+    public void onShutDown() {
+        lookupPool.shutdownNow();
+    }
+
+    /**
+     * @return the settings the connections are currently checked with
+     */
+    public CheckPolicy<M> getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Checks a connection and runs the commands of the verdict. Blocks while lookups are running,
+     * so it has to be called from the asynchronous login event of the platform.
+     * @param connection the connection
+     * @return the verdict; the platform denies the connection with its kick message if it is not allowed
+     */
+    public Verdict<M> check(Connection connection) {
+        // Every stage of a connection sees the same policy, even if it is reloaded meanwhile
+        CheckPolicy<M> policy = this.policy;
+        if (policy.alwaysAllowOps() && connection.operator().getAsBoolean()) return Verdict.allow();
+
+        // A repeated connection from the same IP reuses the decision instead of running the stages again
+        AddressKey address = AddressKey.parse(connection.ip());
+        if (address != null) {
+            Verdict<M> cached = verdictCache.get(address);
+            if (cached != null) {
+                if (!cached.allowed()) {
+                    logger.info("Player " + connection.playerName() + " with IP: " + connection.ip() + " was blocked (" + cached.reason() + ", cached decision).");
+                }
+                runCommands(cached, connection);
+                return cached;
+            }
+        }
+
+        long version = verdictCache.version();
+        Verdict<M> verdict = runStages(connection, policy);
+        if (address != null) verdictCache.put(address, version, verdict);
+        runCommands(verdict, connection);
+        return verdict;
+    }
+
+    private Verdict<M> runStages(Connection connection, CheckPolicy<M> policy) {
+        long deadlineNanos = policy.deadline().toNanos();
+        long deadline = System.nanoTime() + deadlineNanos;
+        // Commands of stages that let the connection through still run, and a failure policy
+        // or stale data that let it through make the final verdict inconclusive
+        boolean conclusive = true;
+        List<String> commands = List.of();
+        String reason = null;
+        List<Verdict<M>> local = new ArrayList<>(stages.size());
+        boolean deniedLocally = false;
+        for (TimedStage<M> stage : stages) {
+            Verdict<M> verdict = deniedLocally ? null : stage.checkLocal(connection, policy);
+            local.add(verdict);
+            if (verdict != null && !verdict.allowed()) deniedLocally = true;
+        }
+        // A local denial ends the check without starting a single lookup
+        List<CompletableFuture<Verdict<M>>> started = deniedLocally ? List.of() : startRemaining(local, connection, policy);
+
+        for (int i = 0; i < stages.size(); i++) {
+            TimedStage<M> stage = stages.get(i);
+            Verdict<M> verdict = local.get(i);
+            if (verdict == null) {
+                if (deniedLocally) continue;
+                verdict = await(stage, started.get(i), deadline, connection, policy);
+            }
+
+            conclusive &= verdict.conclusive();
+            if (!verdict.commands().isEmpty()) {
+                commands = commands.isEmpty() ? verdict.commands() : concat(commands, verdict.commands());
+                reason = verdict.reason();
+            }
+            if (!verdict.allowed()) {
+                // The lookups of the remaining stages keep their pool threads until they finish and fill their caches
+                started.forEach(future -> {
+                    if (future != null) future.cancel(false);
+                });
+                return new Verdict<>(false, verdict.reason(), verdict.kickMessage(), commands, conclusive);
+            }
+        }
+        if (commands.isEmpty() && conclusive) return Verdict.allow();
+        return new Verdict<>(true, reason, null, commands, conclusive);
+    }
+
+    /**
+     * Starts the lookups of the stages without a local verdict.
+     * @return the future of each stage, null for the stages that answered locally; a lookup the full pool
+     *         rejected has a future that failed with a {@link RejectedExecutionException}
+     */
+    private List<CompletableFuture<Verdict<M>>> startRemaining(List<Verdict<M>> local, Connection connection,
+                                                               CheckPolicy<M> policy) {
+        List<CompletableFuture<Verdict<M>>> futures = new ArrayList<>(stages.size());
+        for (int i = 0; i < stages.size(); i++) {
+            TimedStage<M> stage = stages.get(i);
+            if (local.get(i) != null) {
+                futures.add(null);
+                continue;
+            }
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> stage.check(connection, policy), lookupPool));
+            } catch (RejectedExecutionException e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for the verdict of a started stage until the deadline of the connection.
+     * @return the verdict, or the verdict of the stage's failure policy if it failed or missed the deadline
+     */
+    private Verdict<M> await(TimedStage<M> stage, CompletableFuture<Verdict<M>> future, long deadline,
+                             Connection connection, CheckPolicy<M> policy) {
+        long deadlineNanos = policy.deadline().toNanos();
+        String outcome;
+        try {
+            if (deadlineNanos <= 0) return future.get();
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            stage.timeouts.increment();
+            outcome = "did not finish within " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + " ms";
+        } catch (ExecutionException e) {
+            outcome = e.getCause() instanceof RejectedExecutionException
+                    ? "was not started, " + policy.maxConcurrentLookups() + " lookups are already running"
+                    : "failed: " + e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = "was interrupted";
+        }
+        return applyFailurePolicy(stage.stage.name(), outcome, connection, policy, logger);
+    }
+
+    private void runCommands(Verdict<M> verdict, Connection connection) {
+        for (String command : verdict.commands()) {
+            commandRunner.accept(command.replace("%player%", connection.playerName()).replace("%ip%", connection.ip()));
+        }
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    /**
+     * @return the cache of the decisions
+     */
+    public VerdictCache<M> getVerdictCache() {
+        return verdictCache;
+    }
+
+    /**
+     * @return the statistics of the stages, in the order they run
+     */
+    public List<StageStats> getStageStats() {
+        return stages.stream().map(TimedStage::stats).toList();
+    }
+
+    /**
+     * @param verdict a verdict of this pipeline
+     * @return true if the connection was denied by a failure policy because a lookup returned no data in time,
+     *         so platforms can kick instead of ban
+     */
+    public static boolean isLookupFailure(Verdict<?> verdict) {
+        return !verdict.allowed() && verdict.reason() != null && verdict.reason().startsWith(CheckPolicy.LOOKUP_FAILED);
+    }
+
+    /**
+     * Applies the configured failure policy of a stage whose lookup returned no data or did not finish in time.
+     * @param section the config section of the stage (e.g. "geo_blocking")
+     * @param outcome what happened to the lookup, for the log (e.g. "returned FAILED")
+     * @param connection the connection
+     * @param policy the settings of the checks
+     * @param logger logger for the failed lookup
+     * @return the verdict of the policy, never cached
+     */
+    static <M> Verdict<M> applyFailurePolicy(String section, String outcome, Connection connection,
+                                             CheckPolicy<M> policy, Logger logger) {
+        Verdict<M> verdict = policy.failureVerdict(section);
+        FailurePolicy applied = verdict.allowed() ? FailurePolicy.ALLOW : FailurePolicy.DENY;
+        logger.warning("Lookup for player " + connection.playerName() + " with IP: " + connection.ip() + " " + outcome + " (" + section + "), applying policy " + applied);
+        return verdict;
+    }
+
+    /**
+     * Counts the runs, denials, timeouts and time of a stage.
+     */
+    private static final class TimedStage<M> {
+        private final CheckStage<M> stage;
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder denials = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        private TimedStage(CheckStage<M> stage) {
+            this.stage = stage;
+        }
+
+        private Verdict<M> checkLocal(Connection connection, CheckPolicy<M> policy) {
+            long start = System.nanoTime();
+            Verdict<M> verdict = stage.checkLocal(connection, policy);
+            if (verdict != null) record(verdict, System.nanoTime() - start);
+            return verdict;
+        }
+
+        private Verdict<M> check(Connection connection, CheckPolicy<M> policy) {
+            long start = System.nanoTime();
+            Verdict<M> verdict = stage.check(connection, policy);
+            record(verdict, System.nanoTime() - start);
+            return verdict;
+        }
+
+        private void record(Verdict<M> verdict, long nanos) {
+            totalNanos.add(nanos);
+            runs.increment();
+            if (!verdict.allowed()) denials.increment();
+        }
+
+        private StageStats stats() {
+            long count = runs.sum();
+            return new StageStats(stage.name(), count, denials.sum(), timeouts.sum(), count == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / count);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.zetaplugins.netwatchz.common.LookupResult;
+import com.zetaplugins.netwatchz.common.ipapi.CountryMatch;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+import com.zetaplugins.netwatchz.common.ipapi.fetchers.IpDataFetcher;
+
+import java.util.logging.Logger;
+
+/**
+ * Denies IPs from the configured countries (blacklist) or from any other country (whitelist).
+ */
+final class GeoBlockStage<M> implements CheckStage<M> {
+    private final IpDataFetcher ipDataFetcher;
+    private final Logger logger;
+
+    GeoBlockStage(IpDataFetcher ipDataFetcher, Logger logger) {
+        this.ipDataFetcher = ipDataFetcher;
+        this.logger = logger;
+    }
+
+    @Override
+    public String name() {
+        return "geo_blocking";
+    }
+
+    /**
+     * A precompiled range index of the configured countries answers without a lookup.
+     */
+    @Override
+    public Verdict<M> checkLocal(Connection connection, CheckPolicy<M> policy) {
+        if (!policy.geoEnabled()) return Verdict.allow();
+
+        CountryMatch match = ipDataFetcher.matchCountry(connection.ip(), policy.countries());
+        if (match == null) return null;
+        return verdict(connection, policy, match.matched(), match.countryCode(), false);
+    }
+
+    @Override
+    public Verdict<M> check(Connection connection, CheckPolicy<M> policy) {
+        Verdict<M> local = checkLocal(connection, policy);
+        if (local != null) return local;
+
+        LookupResult<IpData> result = ipDataFetcher.lookupIpData(connection.ip(), IpDataFields.COUNTRY_ONLY);
+        if (!result.isKnown()) {
+            return ConnectionCheckPipeline.applyFailurePolicy(name(), "returned " + result.status(), connection, policy, logger);
+        }
+        String countryCode = result.data().countryCode();
+        return verdict(connection, policy, policy.isListedCountry(countryCode), countryCode, result.stale());
+    }
+
+    private Verdict<M> verdict(Connection connection, CheckPolicy<M> policy, boolean inCountryList, String countryCode,
+                               boolean stale) {
+        Verdict<M> verdict = Verdict.allow();
+        if (policy.geoDenies(inCountryList)) {
+            logger.info("Player " + connection.playerName() + " with IP: " + connection.ip() + " was blocked due to country: " + countryCode);
+            verdict = Verdict.deny("geo_blocking (" + countryCode + ")", policy.geoMessage());
+        }
+
+        return stale ? verdict.inconclusive() : verdict;
+    }
+}
@@ -0,0 +1,44 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.zetaplugins.netwatchz.common.iplist.IpListService;
+
+import java.util.logging.Logger;
+
+/**
+ * Denies IPs in the IP lists (blacklist mode) or IPs not in them (whitelist mode).
+ */
+final class IpListStage<M> implements CheckStage<M> {
+    private final IpListService ipListService;
+    private final Logger logger;
+
+    IpListStage(IpListService ipListService, Logger logger) {
+        this.ipListService = ipListService;
+        this.logger = logger;
+    }
+
+    @Override
+    public String name() {
+        return "ip_list";
+    }
+
+    /**
+     * The IP lists are in memory, so the stage always answers locally.
+     */
+    @Override
+    public Verdict<M> checkLocal(Connection connection, CheckPolicy<M> policy) {
+        return check(connection, policy);
+    }
+
+    @Override
+    public Verdict<M> check(Connection connection, CheckPolicy<M> policy) {
+        if (!policy.ipListEnabled()) return Verdict.allow();
+
+        boolean isInList = ipListService.isIpInAnyList(connection.ip());
+        Verdict<M> verdict = policy.ipListVerdict(isInList);
+        if (verdict == null) return Verdict.allow();
+
+        String reason = isInList ? "blacklist" : "not in whitelist";
+        logger.info("Player " + connection.playerName() + " with IP: " + connection.ip() + " was blocked (" + reason + ").");
+        return verdict;
+    }
+}
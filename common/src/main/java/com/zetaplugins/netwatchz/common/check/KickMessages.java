@@ -0,0 +1,15 @@
+package com.zetaplugins.netwatchz.common.check;
+
+/**
+ * Formats kick messages with the message service of the platform.
+ * @param <M> the type of the kick message of the platform
+ */
+@FunctionalInterface
+public interface KickMessages<M> {
+    /**
+     * @param key the key of the message in the lang file
+     * @param fallback the message used if the lang file does not have the key
+     * @return the formatted message
+     */
+    M format(String key, String fallback);
+}
@@ -0,0 +1,11 @@
+package com.zetaplugins.netwatchz.common.check;
+
+/**
+ * Statistics of a stage of the {@link ConnectionCheckPipeline} since startup.
+ * @param name the name of the stage
+ * @param runs how often the stage checked a connection
+ * @param denials how many connections the stage denied
+ * @param timeouts how often the stage did not finish before the deadline of the connection
+ * @param averageMillis the average time the stage took, in milliseconds
+ */
+public record StageStats(String name, long runs, long denials, long timeouts, double averageMillis) {}
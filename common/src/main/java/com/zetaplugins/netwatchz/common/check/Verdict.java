@@ -0,0 +1,48 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The decision of the connection checks for an IP.
+ * @param <M> the type of the kick message of the platform
+ * @param allowed whether the connection is allowed
+ * @param reason the check that decided, e.g. "geo_blocking (DE)", or null if every check passed
+ * @param kickMessage the message the connection is denied with, null if it is allowed
+ * @param commands console commands of the check that decided, with %player% and %ip% placeholders;
+ *                 run for every connection it is applied to
+ * @param conclusive false if it was decided by a failure policy or with stale data, those are not cached
+ */
+public record Verdict<M>(boolean allowed, @Nullable String reason, @Nullable M kickMessage, List<String> commands,
+                         boolean conclusive) {
+    private static final Verdict<?> ALLOW = new Verdict<>(true, null, null, List.of(), true);
+
+    public Verdict {
+        commands = commands == null ? List.of() : List.copyOf(commands);
+    }
+
+    /**
+     * @return the verdict of a connection that passed every check
+     */
+    @SuppressWarnings("unchecked")
+    public static <M> Verdict<M> allow() {
+        return (Verdict<M>) ALLOW;
+    }
+
+    /**
+     * @param reason the check that denied the connection
+     * @param kickMessage the message the connection is denied with
+     * @return a conclusive verdict that denies the connection
+     */
+    public static <M> Verdict<M> deny(String reason, M kickMessage) {
+        return new Verdict<>(false, reason, kickMessage, List.of(), true);
+    }
+
+    /**
+     * @return this verdict, marked as not to be cached
+     */
+    public Verdict<M> inconclusive() {
+        return conclusive ? new Verdict<>(allowed, reason, kickMessage, commands, false) : this;
+    }
+}
@@ -0,0 +1,84 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zetaplugins.netwatchz.common.AddressKey;
+import com.zetaplugins.netwatchz.common.CacheMetrics;
+import com.zetaplugins.netwatchz.common.CacheUtils;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the final decision of the connection checks per IP, so a repeated connection from the same IP
+ * is answered with one lookup instead of running the IP list, geo and VPN checks again.
+ *
+ * Entries are keyed by the IP and the version of the inputs they were decided with. {@link #invalidateAll()}
+ * moves to a new version, so a decision that was still being made with the old config or lists is never served.
+ * @param <M> the type of the kick message of the platform
+ */
+public final class VerdictCache<M> {
+    private record Key(AddressKey address, long version) {}
+
+    private final @Nullable Cache<Key, Verdict<M>> cache;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * @param settings the settings of the cache; if it is disabled, nothing is cached
+     */
+    public VerdictCache(CacheConfig.VerdictSettings settings) {
+        if (!settings.enabled()) {
+            this.cache = null;
+            return;
+        }
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(settings.maxSize())
+                .expireAfterWrite(settings.ttl());
+        if (settings.recordStats()) builder.recordStats();
+        this.cache = builder.build();
+    }
+
+    /**
+     * @return the current version, to be passed to {@link #put} once the decision is made
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * @param address the IP of the connection
+     * @return the cached verdict for the IP, or null if it has to be decided
+     */
+    public @Nullable Verdict<M> get(@NotNull AddressKey address) {
+        return cache == null ? null : cache.getIfPresent(new Key(address, version.get()));
+    }
+
+    /**
+     * Caches a verdict, unless it is not conclusive or the config or lists changed while it was decided.
+     * @param address the IP of the connection
+     * @param version the {@link #version()} read before the checks started
+     * @param verdict the verdict
+     */
+    public void put(@NotNull AddressKey address, long version, Verdict<M> verdict) {
+        if (cache == null || !verdict.conclusive() || version != this.version.get()) return;
+        cache.put(new Key(address, version), verdict);
+    }
+
+    /**
+     * Drops all verdicts, e.g. because the config or an IP list changed.
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+        if (cache != null) cache.invalidateAll();
+    }
+
+    /**
+     * @return a snapshot of the statistics of the cache
+     */
+    public CacheMetrics getMetrics() {
+        if (cache == null) return new CacheMetrics("verdicts", 0, false, 0, 0, 0, 0, 0);
+        return CacheUtils.snapshot("verdicts", cache);
+    }
+}
@@ -0,0 +1,58 @@
+package com.zetaplugins.netwatchz.common.check;
+
+import com.zetaplugins.netwatchz.common.LookupResult;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.VpnInfoProvider;
+
+import java.util.logging.Logger;
+
+/**
+ * Runs the commands configured for the detected type of VPN, proxy, Tor, relay or hosting IP, and denies it if configured.
+ */
+final class VpnBlockStage<M> implements CheckStage<M> {
+    private final VpnInfoProvider vpnInfoProvider;
+    private final Logger logger;
+
+    VpnBlockStage(VpnInfoProvider vpnInfoProvider, Logger logger) {
+        this.vpnInfoProvider = vpnInfoProvider;
+        this.logger = logger;
+    }
+
+    @Override
+    public String name() {
+        return "vpn_block";
+    }
+
+    @Override
+    public Verdict<M> checkLocal(Connection connection, CheckPolicy<M> policy) {
+        return policy.vpnEnabled() ? null : Verdict.allow();
+    }
+
+    @Override
+    public Verdict<M> check(Connection connection, CheckPolicy<M> policy) {
+        if (!policy.vpnEnabled()) return Verdict.allow();
+
+        LookupResult<VpnInfoData> result = vpnInfoProvider.lookupVpnData(connection.ip());
+        if (!result.isKnown()) {
+            return ConnectionCheckPipeline.applyFailurePolicy(name(), "returned " + result.status(), connection, policy, logger);
+        }
+
+        VpnInfoData data = result.data();
+        String type = null;
+        if (data.isVpn()) type = "is_vpn";
+        else if (data.isProxy()) type = "is_proxy";
+        else if (data.isTor()) type = "is_tor";
+        else if (data.isRelay()) type = "is_relay";
+        else if (data.isHosting()) type = "is_hosting";
+
+        Verdict<M> verdict = Verdict.allow();
+        if (type != null) {
+            verdict = policy.vpnVerdict(type);
+            if (!verdict.allowed()) {
+                logger.info("Player " + connection.playerName() + " with IP: " + connection.ip() + " was blocked due to VPN/Proxy/Tor/Relay/Hosting usage.");
+            }
+        }
+
+        return result.stale() ? verdict.inconclusive() : verdict;
+    }
+}
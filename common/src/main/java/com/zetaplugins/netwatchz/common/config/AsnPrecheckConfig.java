@@ -0,0 +1,57 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Configuration for classifying IPs by their autonomous system before a VPN info provider is asked
+ * @param enabled whether IPs are classified by ASN first
+ * @param hostingAsns AS numbers that are always treated as hosting/datacenter networks
+ * @param residentialAsns AS numbers that are always treated as residential/ISP networks, taking precedence over all hosting rules
+ * @param hostingKeywords case-insensitive words in the AS organization name that mark a hosting network, e.g. "hosting"
+ * @param residentialKeywords case-insensitive words in the AS organization name that mark a residential network
+ * @param reportHostingAsVpn whether IPs of hosting networks are reported as VPN, not only as hosting
+ * @param lists files with AS numbers, one per line, optionally downloaded and updated from a URL
+ */
+public record AsnPrecheckConfig(boolean enabled, Set<Long> hostingAsns, Set<Long> residentialAsns,
+                                List<String> hostingKeywords, List<String> residentialKeywords,
+                                boolean reportHostingAsVpn, List<AsnList> lists) {
+    /**
+     * A file of AS numbers
+     * @param file the file, one AS number per line ("AS13335" or "13335"), lines starting with '#' are ignored
+     * @param url URL to download the file from, or an empty string for a file maintained by hand
+     * @param updateInterval how often the file is downloaded again
+     * @param hosting true if the file lists hosting networks, false if it lists residential networks
+     */
+    public record AsnList(Path file, String url, Duration updateInterval, boolean hosting) {
+        public AsnList {
+            if (url == null) url = "";
+            if (updateInterval == null || updateInterval.isNegative() || updateInterval.isZero()) {
+                updateInterval = Duration.ofHours(24);
+            }
+        }
+    }
+
+    public static final AsnPrecheckConfig DISABLED =
+            new AsnPrecheckConfig(false, Set.of(), Set.of(), List.of(), List.of(), false, List.of());
+
+    public AsnPrecheckConfig {
+        hostingAsns = hostingAsns == null ? Set.of() : Set.copyOf(hostingAsns);
+        residentialAsns = residentialAsns == null ? Set.of() : Set.copyOf(residentialAsns);
+        hostingKeywords = normalize(hostingKeywords);
+        residentialKeywords = normalize(residentialKeywords);
+        lists = lists == null ? List.of() : List.copyOf(lists);
+    }
+
+    private static List<String> normalize(List<String> keywords) {
+        if (keywords == null) return List.of();
+        return keywords.stream()
+                .map(k -> k.trim().toLowerCase(Locale.ROOT))
+                .filter(k -> !k.isEmpty())
+                .distinct()
+                .toList();
+    }
+}
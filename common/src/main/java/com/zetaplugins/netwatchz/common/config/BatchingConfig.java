@@ -0,0 +1,23 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.time.Duration;
+
+/**
+ * Configuration for sending concurrent lookups to a provider as one request
+ * @param enabled whether lookups are batched, only used by providers that can look up several IPs per request
+ * @param window how long the first lookup of a batch waits for more lookups to join it, only while another request
+ *               is in flight
+ * @param maxBatchSize the maximum number of IPs per request; a full batch is sent without waiting for the window
+ */
+public record BatchingConfig(boolean enabled, Duration window, int maxBatchSize) {
+    /** The most IPs proxycheck.io accepts in one request */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    public static final BatchingConfig DEFAULT = new BatchingConfig(true, Duration.ofMillis(20), 100);
+
+    public BatchingConfig {
+        if (window == null || window.isNegative()) window = DEFAULT.window;
+        if (maxBatchSize < 1) maxBatchSize = 1;
+        if (maxBatchSize > MAX_BATCH_SIZE) maxBatchSize = MAX_BATCH_SIZE;
+    }
+}
@@ -0,0 +1,83 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.time.Duration;
+
+/**
+ * Configuration for the lookup caches
+ * @param ipData settings for the IP data cache
+ * @param vpnInfo settings for the VPN info cache
+ * @param verdicts settings for the cache of connection check decisions
+ */
+public record CacheConfig(CacheSettings ipData, CacheSettings vpnInfo, VerdictSettings verdicts) {
+    public CacheConfig {
+        if (verdicts == null) verdicts = VerdictSettings.DEFAULT;
+    }
+
+    /**
+     * Settings for the cache of connection check decisions
+     * @param enabled whether decisions are cached
+     * @param maxSize maximum number of cached IPs
+     * @param ttl how long a decision is reused; keep it short, the lookups behind it have their own caches
+     * @param recordStats whether to record the hit rate
+     */
+    public record VerdictSettings(boolean enabled, long maxSize, Duration ttl, boolean recordStats) {
+        public static final VerdictSettings DEFAULT = new VerdictSettings(true, 10_000, Duration.ofMinutes(5), true);
+
+        public VerdictSettings {
+            if (maxSize < 1) maxSize = 1;
+            if (ttl == null || ttl.isNegative() || ttl.isZero()) ttl = Duration.ofMinutes(5);
+        }
+    }
+
+    /**
+     * Settings for a single cache
+     * @param maxSize maximum number of entries, only used if maxWeightBytes is 0
+     * @param maxWeightBytes approximate upper bound for the memory used by the entries in bytes, 0 to bound by maxSize
+     * @param ttl how long an entry stays valid after it was written
+     * @param refreshAhead share of the ttl (0.0 - 1.0) after which an entry is refreshed in the background
+     *                     on its next access, 0 to only refresh entries once they are stale
+     * @param maxStale how long an expired entry may still be served while it is being refreshed
+     *                 or the provider is failing, 0 to drop entries as soon as the ttl is over
+     * @param prefixLengthV4 IPv4 addresses are cached per network of this prefix length, 32 to cache per address
+     * @param prefixLengthV6 IPv6 addresses are cached per network of this prefix length, 128 to cache per address
+     * @param recordStats whether to record hit rate, evictions and load times
+     */
+    public record CacheSettings(long maxSize, long maxWeightBytes, Duration ttl, double refreshAhead,
+                                Duration maxStale, int prefixLengthV4, int prefixLengthV6, boolean recordStats) {
+        public static final CacheSettings DEFAULT = new CacheSettings(
+                10_000, 0, Duration.ofHours(1), 0.8, Duration.ofHours(1), 32, 128, true
+        );
+
+        public CacheSettings {
+            if (maxSize < 1) maxSize = 1;
+            if (maxWeightBytes < 0) maxWeightBytes = 0;
+            if (ttl == null || ttl.isNegative() || ttl.isZero()) ttl = Duration.ofHours(1);
+            if (Double.isNaN(refreshAhead) || refreshAhead < 0) refreshAhead = 0;
+            if (refreshAhead > 1) refreshAhead = 1;
+            if (maxStale == null || maxStale.isNegative()) maxStale = Duration.ZERO;
+            prefixLengthV4 = Math.max(8, Math.min(32, prefixLengthV4));
+            prefixLengthV6 = Math.max(16, Math.min(128, prefixLengthV6));
+        }
+
+        /**
+         * @return true if entries are shared by all addresses of a network prefix
+         */
+        public boolean aggregatesByPrefix() {
+            return prefixLengthV4 < 32 || prefixLengthV6 < 128;
+        }
+
+        /**
+         * @return true if entries are refreshed in the background before they are evicted
+         */
+        public boolean refreshEnabled() {
+            return refreshAhead > 0 || !maxStale.isZero();
+        }
+
+        /**
+         * @return the age after which an entry is refreshed on its next access
+         */
+        public Duration refreshAfter() {
+            return refreshAhead > 0 ? Duration.ofMillis(Math.max(1, (long) (ttl.toMillis() * refreshAhead))) : ttl;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.time.Duration;
+
+/**
+ * Configuration for the circuit breaker in front of every provider of a failover chain
+ * @param windowSize number of most recent calls the failure and slow call rates are computed over
+ * @param minimumCalls number of calls in the window before the breaker may open
+ * @param failureRate share of failed calls (0.0 - 1.0) that opens the breaker
+ * @param slowCallThreshold calls taking longer than this count as slow
+ * @param slowCallRate share of slow calls (0.0 - 1.0) that opens the breaker
+ * @param openDuration how long an open breaker rejects calls before letting probe calls through
+ * @param halfOpenProbes number of probe calls that have to succeed to close the breaker again
+ */
+public record CircuitBreakerConfig(int windowSize, int minimumCalls, double failureRate, Duration slowCallThreshold,
+                                   double slowCallRate, Duration openDuration, int halfOpenProbes) {
+    public static final CircuitBreakerConfig DEFAULT = new CircuitBreakerConfig(
+            20, 10, 0.5, Duration.ofSeconds(3), 0.8, Duration.ofSeconds(30), 3
+    );
+
+    public CircuitBreakerConfig {
+        if (windowSize < 1) windowSize = 1;
+        minimumCalls = Math.max(1, Math.min(windowSize, minimumCalls));
+        if (Double.isNaN(failureRate) || failureRate <= 0 || failureRate > 1) failureRate = 1;
+        if (slowCallThreshold == null || slowCallThreshold.isNegative() || slowCallThreshold.isZero()) {
+            slowCallThreshold = Duration.ofSeconds(3);
+        }
+        if (Double.isNaN(slowCallRate) || slowCallRate <= 0 || slowCallRate > 1) slowCallRate = 1;
+        if (openDuration == null || openDuration.isNegative() || openDuration.isZero()) {
+            openDuration = Duration.ofSeconds(30);
+        }
+        if (halfOpenProbes < 1) halfOpenProbes = 1;
+    }
+}
@@ -1,6 +1,7 @@
 package com.zetaplugins.netwatchz.common.config;
 
 import java.net.URL;
+import java.util.List;
 
 /**
  * Abstract class for managing configuration loading. Should be extended by platform-specific implementations.
@@ -13,6 +14,39 @@ public abstract class ConfigManager {
 
     public abstract VpnBlockConfig loadVpnBlockConfig();
 
+    public abstract CacheConfig loadCacheConfig();
+
+    public abstract ConnectionCheckConfig loadConnectionCheckConfig();
+
+    /**
+     * Gets a string value from the configuration, for single settings without a config record of their own.
+     * The check settings read with it are compiled into a {@link com.zetaplugins.netwatchz.common.check.CheckPolicy}
+     * on load and reload, not read per connection.
+     * @param path the configuration path (dot-separated)
+     * @param def the default value to return if the path is not found
+     * @return the string value from the configuration, or the default value
+     */
+    public abstract String getString(String path, String def);
+
+    /**
+     * Gets a list of strings from the configuration, for single settings without a config record of their own.
+     * The check settings read with it are compiled into a {@link com.zetaplugins.netwatchz.common.check.CheckPolicy}
+     * on load and reload, not read per connection.
+     * @param path the configuration path (dot-separated)
+     * @return the list of strings from the configuration, or an empty list
+     */
+    public abstract List<String> getStringList(String path);
+
+    /**
+     * Gets a boolean value from the configuration, for single settings without a config record of their own.
+     * The check settings read with it are compiled into a {@link com.zetaplugins.netwatchz.common.check.CheckPolicy}
+     * on load and reload, not read per connection.
+     * @param path the configuration path (dot-separated)
+     * @param def the default value to return if the path is not found
+     * @return the boolean value from the configuration, or the default value
+     */
+    public abstract boolean getBoolean(String path, boolean def);
+
     /**
      * Check if a URL is valid
      * @param url the URL to check
@@ -0,0 +1,26 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.time.Duration;
+
+/**
+ * Configuration for checking connections
+ * @param deadline how long all checks of a connection may take together; a check that is not done by then is
+ *                 handled by its failure policy. {@link Duration#ZERO} waits for the lookups however long they take
+ * @param maxConcurrentLookups how many geo and VPN lookups of logins may run at once; a login whose lookup can't be
+ *                             started is handled by the failure policy of the stage
+ */
+public record ConnectionCheckConfig(Duration deadline, int maxConcurrentLookups) {
+    public static final ConnectionCheckConfig DEFAULT = new ConnectionCheckConfig(Duration.ofMillis(3000), 32);
+
+    public ConnectionCheckConfig {
+        if (deadline == null || deadline.isNegative()) deadline = Duration.ZERO;
+        if (maxConcurrentLookups < 1) maxConcurrentLookups = 1;
+    }
+
+    /**
+     * @return true if the checks are bounded by a deadline
+     */
+    public boolean hasDeadline() {
+        return !deadline.isZero();
+    }
+}
@@ -0,0 +1,17 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Configuration for a local CSV file of IP ranges, e.g. IP2Location LITE or DB-IP CSV
+ * @param file the CSV file
+ * @param startColumn column of the first address of a range, counted from 1
+ * @param endColumn column of the last address of a range, counted from 1
+ * @param columns the column of each standard field present in the CSV, counted from 1
+ */
+public record CsvProviderConfig(Path file, int startColumn, int endColumn, Map<String, Integer> columns) {
+    public CsvProviderConfig {
+        columns = columns == null ? Map.of() : Map.copyOf(columns);
+    }
+}
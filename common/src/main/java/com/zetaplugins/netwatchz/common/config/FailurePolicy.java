@@ -0,0 +1,23 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.util.Locale;
+
+/**
+ * What to do with a connection when a lookup could not determine the data needed for a check.
+ */
+public enum FailurePolicy {
+    /** Fail open: let the player join */
+    ALLOW,
+    /** Fail closed: deny the connection */
+    DENY;
+
+    /**
+     * Parses a policy from a config value. Unknown values fall back to ALLOW.
+     * @param raw the config value ("allow" or "deny")
+     * @return the parsed policy
+     */
+    public static FailurePolicy fromString(String raw) {
+        if (raw == null) return ALLOW;
+        return raw.trim().toLowerCase(Locale.ROOT).equals("deny") ? DENY : ALLOW;
+    }
+}
@@ -2,6 +2,8 @@ package com.zetaplugins.netwatchz.common.config;
 
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Configuration for GeoLite2
@@ -10,7 +12,37 @@ import java.time.Duration;
  * @param countryUrl URL for GeoLite2 Country database
  * @param storageDir Directory to store GeoLite2 databases locally
  * @param updateIntervalDays Interval to update GeoLite2 databases
+ * @param fileMode How the databases are opened
+ * @param nodeCacheSize Maximum number of decoded records kept per database, 0 to disable the cache
+ * @param warmup Whether to read the databases into memory before they are used for lookups
+ * @param indexedCountries Country codes to compile into a range index for geo-blocking, empty for no index
  */
 public record GeoLite2Config(String asnUrl, String cityUrl, String countryUrl, Path storageDir,
-                             Duration updateIntervalDays) {
+                             Duration updateIntervalDays, FileMode fileMode, int nodeCacheSize, boolean warmup,
+                             List<String> indexedCountries) {
+    public enum FileMode {
+        /** Map the files into memory; the OS loads pages on first use and may evict them again */
+        MMAP,
+        /** Read the files into the heap */
+        MEMORY;
+
+        /**
+         * Parses a file mode from a config value. Unknown values fall back to MMAP.
+         * @param raw the config value ("mmap" or "memory")
+         * @return the parsed file mode
+         */
+        public static FileMode fromString(String raw) {
+            if (raw == null) return MMAP;
+            return raw.trim().toLowerCase(Locale.ROOT).equals("memory") ? MEMORY : MMAP;
+        }
+    }
+
+    /** Number of records the node cache keeps by default, the same as the MaxMind default */
+    public static final int DEFAULT_NODE_CACHE_SIZE = 4096;
+
+    public GeoLite2Config {
+        if (fileMode == null) fileMode = FileMode.MMAP;
+        if (nodeCacheSize < 0) nodeCacheSize = 0;
+        indexedCountries = indexedCountries == null ? List.of() : List.copyOf(indexedCountries);
+    }
 }
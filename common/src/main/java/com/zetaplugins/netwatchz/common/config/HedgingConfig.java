@@ -0,0 +1,32 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.time.Duration;
+
+/**
+ * Configuration for hedged IP data lookups. If the provider asked first has not answered after the hedge delay,
+ * the next provider of the chain is asked as well and the first answer is used.
+ * @param enabled whether lookups are hedged
+ * @param delay fixed hedge delay, 0 to use the observed latency percentile of the provider asked first
+ * @param percentile latency percentile (0.0 - 1.0) used as the hedge delay if no fixed delay is set
+ * @param minDelay lower bound for the observed hedge delay
+ * @param maxDelay upper bound for the observed hedge delay, also used until enough lookups were measured
+ */
+public record HedgingConfig(boolean enabled, Duration delay, double percentile, Duration minDelay, Duration maxDelay) {
+    public static final HedgingConfig DISABLED = new HedgingConfig(
+            false, Duration.ZERO, 0.9, Duration.ofMillis(50), Duration.ofSeconds(1)
+    );
+
+    public HedgingConfig {
+        if (delay == null || delay.isNegative()) delay = Duration.ZERO;
+        if (Double.isNaN(percentile) || percentile <= 0 || percentile > 1) percentile = 0.9;
+        if (minDelay == null || minDelay.isNegative()) minDelay = Duration.ZERO;
+        if (maxDelay == null || maxDelay.compareTo(minDelay) < 0) maxDelay = minDelay;
+    }
+
+    /**
+     * @return true if the hedge delay follows the observed latency of the provider
+     */
+    public boolean adaptive() {
+        return delay.isZero();
+    }
+}
@@ -1,11 +1,86 @@
 package com.zetaplugins.netwatchz.common.config;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * Configuration for IP information providers
  * @param provider the selected provider
+ * @param fallbackProviders providers to ask, in order, if the selected provider fails or is skipped
+ * @param circuitBreaker settings for the circuit breaker in front of every provider
+ * @param hedging settings for sending slow lookups to the next provider as well
+ * @param routing settings for choosing which provider is asked first
  * @param geoLite2 configuration, if using GeoLite2
  * @param custom configuration, if using a custom provider
+ * @param mmdb configuration, if using a local MMDB database
+ * @param csv configuration, if using a local CSV file of IP ranges
  */
-public record IpInfoProviderConfig(Provider provider, GeoLite2Config geoLite2, CustomProviderConfig custom) {
-    public enum Provider {IP_API, IPWHOIS, GEOLITE2, CUSTOM}
+public record IpInfoProviderConfig(Provider provider, List<Provider> fallbackProviders,
+                                   CircuitBreakerConfig circuitBreaker, HedgingConfig hedging, RoutingConfig routing,
+                                   GeoLite2Config geoLite2, CustomProviderConfig custom,
+                                   MmdbProviderConfig mmdb, CsvProviderConfig csv) {
+    public enum Provider {
+        IP_API("ip-api"),
+        IPWHOIS("ipwhois"),
+        GEOLITE2("geolite2"),
+        CUSTOM("custom"),
+        MMDB("mmdb"),
+        CSV("csv");
+
+        private final String configName;
+
+        Provider(String configName) {
+            this.configName = configName;
+        }
+
+        /**
+         * @return the name used for this provider in the config
+         */
+        public String configName() {
+            return configName;
+        }
+
+        /**
+         * Parses a provider from a config value.
+         * @param raw the config value, e.g. "ip-api" or "geolite2"
+         * @return the parsed provider, or null if the value names no provider
+         */
+        public static Provider fromString(String raw) {
+            if (raw == null) return null;
+            String name = raw.trim().toLowerCase(Locale.ROOT);
+            for (Provider provider : values()) {
+                if (provider.configName.equals(name)) return provider;
+            }
+            return null;
+        }
+    }
+
+    public IpInfoProviderConfig {
+        if (provider == null) provider = Provider.IP_API;
+        fallbackProviders = fallbackProviders == null ? List.of() : List.copyOf(fallbackProviders);
+        if (circuitBreaker == null) circuitBreaker = CircuitBreakerConfig.DEFAULT;
+        if (hedging == null) hedging = HedgingConfig.DISABLED;
+        if (routing == null) routing = RoutingConfig.ORDERED;
+    }
+
+    /**
+     * @return the selected provider followed by the fallback providers, without duplicates
+     */
+    public List<Provider> chain() {
+        Set<Provider> chain = new LinkedHashSet<>();
+        chain.add(provider);
+        chain.addAll(fallbackProviders);
+        return new ArrayList<>(chain);
+    }
+
+    /**
+     * @param p the provider
+     * @return true if the provider is part of the chain
+     */
+    public boolean uses(Provider p) {
+        return provider == p || fallbackProviders.contains(p);
+    }
 }
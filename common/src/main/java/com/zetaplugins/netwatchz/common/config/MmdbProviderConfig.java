@@ -0,0 +1,24 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Configuration for a local MMDB database that is not a GeoLite2 database, e.g. DB-IP Lite or IPinfo Lite
+ * @param file the database file
+ * @param url URL to download the database from (.mmdb, .mmdb.gz or .tar.gz), blank to only use the local file
+ * @param updateInterval interval to download the database again
+ * @param fileMode how the database is opened
+ * @param nodeCacheSize maximum number of decoded records kept, 0 to disable the cache
+ * @param fields the fields to read from a record, mapping standard field names to paths like "country.iso_code"
+ */
+public record MmdbProviderConfig(Path file, String url, Duration updateInterval, GeoLite2Config.FileMode fileMode,
+                                 int nodeCacheSize, Map<String, String> fields) {
+    public MmdbProviderConfig {
+        if (url == null) url = "";
+        if (fileMode == null) fileMode = GeoLite2Config.FileMode.MMAP;
+        if (nodeCacheSize < 0) nodeCacheSize = 0;
+        fields = fields == null ? Map.of() : Map.copyOf(fields);
+    }
+}
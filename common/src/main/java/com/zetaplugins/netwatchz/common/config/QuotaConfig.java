@@ -0,0 +1,35 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Configuration for the daily request budgets of the VPN info providers
+ * @param dailyLimits requests per day per provider; providers without a limit are not budgeted
+ * @param burst share (0.0 - 1.0) of the daily limit first-seen lookups may use ahead of an even spread over the day
+ * @param revalidationReserve share (0.0 - 1.0) of the daily limit that is kept for first-seen lookups,
+ *                            background refreshes stop once only this much is left
+ * @param storageDir directory the usage of the current day is stored in, so it survives restarts
+ */
+public record QuotaConfig(Map<VpnBlockConfig.Provider, Integer> dailyLimits, double burst, double revalidationReserve,
+                          Path storageDir) {
+    /** No provider is budgeted */
+    public static final QuotaConfig UNLIMITED = new QuotaConfig(Map.of(), 0.25, 0.2, Path.of("quota"));
+
+    public QuotaConfig {
+        dailyLimits = dailyLimits == null ? Map.of() : Map.copyOf(dailyLimits);
+        if (Double.isNaN(burst) || burst < 0) burst = 0;
+        if (burst > 1) burst = 1;
+        if (Double.isNaN(revalidationReserve) || revalidationReserve < 0) revalidationReserve = 0;
+        if (revalidationReserve > 1) revalidationReserve = 1;
+    }
+
+    /**
+     * @param provider the provider
+     * @return the daily limit of the provider, or 0 if it is not budgeted
+     */
+    public int limitFor(VpnBlockConfig.Provider provider) {
+        Integer limit = dailyLimits.get(provider);
+        return limit == null || limit < 0 ? 0 : limit;
+    }
+}
@@ -0,0 +1,38 @@
+package com.zetaplugins.netwatchz.common.config;
+
+import java.util.Locale;
+
+/**
+ * Configuration for choosing which provider of a chain is asked first
+ * @param mode how the order of the providers is chosen
+ * @param smoothing weight (0.0 - 1.0) of the newest lookup in the moving averages of latency and error rate
+ * @param exploration share of lookups (0.0 - 1.0) sent to a random other provider first, so providers that
+ *                    recovered are measured again
+ */
+public record RoutingConfig(Mode mode, double smoothing, double exploration) {
+    public enum Mode {
+        /** Ask the providers in the configured order */
+        ORDERED,
+        /** Ask the provider with the best latency and error rate first */
+        ADAPTIVE;
+
+        /**
+         * Parses a mode from a config value. Unknown values fall back to ORDERED.
+         * @param raw the config value ("ordered" or "adaptive")
+         * @return the parsed mode
+         */
+        public static Mode fromString(String raw) {
+            if (raw == null) return ORDERED;
+            return raw.trim().toLowerCase(Locale.ROOT).equals("adaptive") ? ADAPTIVE : ORDERED;
+        }
+    }
+
+    public static final RoutingConfig ORDERED = new RoutingConfig(Mode.ORDERED, 0.2, 0.05);
+
+    public RoutingConfig {
+        if (mode == null) mode = Mode.ORDERED;
+        if (Double.isNaN(smoothing) || smoothing <= 0 || smoothing > 1) smoothing = 0.2;
+        if (Double.isNaN(exploration) || exploration < 0) exploration = 0;
+        if (exploration > 1) exploration = 1;
+    }
+}
@@ -1,6 +1,99 @@
 package com.zetaplugins.netwatchz.common.config;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Configuration for VPN blocking
+ * @param enabled whether VPN blocking is enabled
+ * @param provider the selected provider
+ * @param apiKey the api key of the selected provider
+ * @param customProviderConfig configuration, if using a custom provider
+ * @param fallbackProviders providers to ask, in order, if the selected provider fails or is skipped
+ * @param apiKeys api keys of the fallback providers
+ * @param circuitBreaker settings for the circuit breaker in front of every provider
+ * @param routing settings for choosing which provider is asked first
+ * @param asnPrecheck settings for classifying IPs by ASN before the providers are asked
+ * @param batching settings for sending concurrent lookups to providers that accept several IPs per request
+ * @param quota daily request budgets of the providers
+ */
 public record VpnBlockConfig(boolean enabled, Provider provider, String apiKey,
-                             CustomProviderConfig customProviderConfig) {
-    public enum Provider {VPNAPI, PROXYCHECK, CUSTOM}
+                             CustomProviderConfig customProviderConfig, List<Provider> fallbackProviders,
+                             Map<Provider, String> apiKeys, CircuitBreakerConfig circuitBreaker, RoutingConfig routing,
+                             AsnPrecheckConfig asnPrecheck, BatchingConfig batching, QuotaConfig quota) {
+    public enum Provider {
+        VPNAPI("vpnapi"),
+        PROXYCHECK("proxycheck"),
+        CUSTOM("custom");
+
+        private final String configName;
+
+        Provider(String configName) {
+            this.configName = configName;
+        }
+
+        /**
+         * @return the name used for this provider in the config
+         */
+        public String configName() {
+            return configName;
+        }
+
+        /**
+         * Parses a provider from a config value.
+         * @param raw the config value, e.g. "vpnapi" or "proxycheck"
+         * @return the parsed provider, or null if the value names no provider
+         */
+        public static Provider fromString(String raw) {
+            if (raw == null) return null;
+            String name = raw.trim().toLowerCase(Locale.ROOT);
+            for (Provider provider : values()) {
+                if (provider.configName.equals(name)) return provider;
+            }
+            return null;
+        }
+    }
+
+    public VpnBlockConfig {
+        if (provider == null) provider = Provider.VPNAPI;
+        if (apiKey == null) apiKey = "";
+        fallbackProviders = fallbackProviders == null ? List.of() : List.copyOf(fallbackProviders);
+        apiKeys = apiKeys == null ? Map.of() : Map.copyOf(apiKeys);
+        if (circuitBreaker == null) circuitBreaker = CircuitBreakerConfig.DEFAULT;
+        if (routing == null) routing = RoutingConfig.ORDERED;
+        if (asnPrecheck == null) asnPrecheck = AsnPrecheckConfig.DISABLED;
+        if (batching == null) batching = BatchingConfig.DEFAULT;
+        if (quota == null) quota = QuotaConfig.UNLIMITED;
+    }
+
+    /**
+     * @return the selected provider followed by the fallback providers, without duplicates
+     */
+    public List<Provider> chain() {
+        Set<Provider> chain = new LinkedHashSet<>();
+        chain.add(provider);
+        chain.addAll(fallbackProviders);
+        return new ArrayList<>(chain);
+    }
+
+    /**
+     * @param p the provider
+     * @return true if the provider is part of the chain
+     */
+    public boolean uses(Provider p) {
+        return provider == p || fallbackProviders.contains(p);
+    }
+
+    /**
+     * @param p the provider
+     * @return the api key to use for the provider, or an empty string if none is configured
+     */
+    public String apiKeyFor(Provider p) {
+        if (p == provider && !apiKey.isBlank()) return apiKey;
+        return apiKeys.getOrDefault(p, "");
+    }
 }
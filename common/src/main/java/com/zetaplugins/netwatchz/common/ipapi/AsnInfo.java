@@ -0,0 +1,33 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The autonomous system an IP address belongs to.
+ * @param number the AS number
+ * @param organization the name of the organization operating the AS, or null if unknown
+ */
+public record AsnInfo(long number, @Nullable String organization) {
+    /**
+     * Parses an AS number as IP data providers write it.
+     * @param asn the AS number, e.g. "AS13335", "13335" or "AS13335 Cloudflare, Inc."
+     * @param organization the name of the organization, or null if unknown
+     * @return the parsed info, or null if the value holds no AS number
+     */
+    public static @Nullable AsnInfo parse(@Nullable String asn, @Nullable String organization) {
+        if (asn == null) return null;
+        String value = asn.trim();
+        int start = value.regionMatches(true, 0, "AS", 0, 2) ? 2 : 0;
+        int end = start;
+        long number = 0;
+        while (end < value.length() && end - start < 10) {
+            char c = value.charAt(end);
+            if (c < '0' || c > '9') break;
+            number = number * 10 + (c - '0');
+            end++;
+        }
+        if (end == start || number > 0xFFFFFFFFL) return null;
+        if (end < value.length() && Character.isDigit(value.charAt(end))) return null;
+        return new AsnInfo(number, organization);
+    }
+}
@@ -0,0 +1,81 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import com.zetaplugins.netwatchz.common.StringDictionary;
+
+/**
+ * Memory-compact form of {@link IpData}, used for cached entries.
+ * Repeated text fields, the country code included, are stored as IDs into a shared {@link StringDictionary}
+ * and coordinates are stored as floats (about one meter of precision).
+ * The IP address is not stored, since it is part of the cache key.
+ * Entries from a country-only lookup are marked as incomplete, so they can be filled in when more is needed.
+ */
+public record CompactIpData(
+        int country,
+        int countryCode,
+        int regionName,
+        int regionCode,
+        int city,
+        float lat,
+        float lon,
+        int timezone,
+        int isp,
+        int org,
+        int asn,
+        boolean complete
+) {
+    /** Retained size of one instance: a 12 byte object header, nine ints, two floats and a boolean, padded to 8 bytes */
+    public static final int SIZE_BYTES = 64;
+
+    /**
+     * @param data the data to compact
+     * @param fields the fields the data was looked up for
+     * @param dictionary the dictionary to encode the text fields with
+     * @return the compact form of the data
+     */
+    public static CompactIpData of(IpData data, IpDataFields fields, StringDictionary dictionary) {
+        return new CompactIpData(
+                dictionary.encode(data.country()),
+                dictionary.encode(data.countryCode()),
+                dictionary.encode(data.regionName()),
+                dictionary.encode(data.regionCode()),
+                dictionary.encode(data.city()),
+                (float) data.lat(),
+                (float) data.lon(),
+                dictionary.encode(data.timezone()),
+                dictionary.encode(data.isp()),
+                dictionary.encode(data.org()),
+                dictionary.encode(data.asn()),
+                fields == IpDataFields.FULL
+        );
+    }
+
+    /**
+     * @return the fields this entry was looked up for
+     */
+    public IpDataFields fields() {
+        return complete ? IpDataFields.FULL : IpDataFields.COUNTRY_ONLY;
+    }
+
+    /**
+     * Rebuilds the full IpData.
+     * @param ip the IP address the data belongs to
+     * @param dictionary the dictionary the data was encoded with
+     * @return the IpData
+     */
+    public IpData toIpData(String ip, StringDictionary dictionary) {
+        return new IpData(
+                dictionary.decode(country),
+                dictionary.decode(countryCode),
+                dictionary.decode(regionName),
+                dictionary.decode(regionCode),
+                dictionary.decode(city),
+                lat,
+                lon,
+                dictionary.decode(timezone),
+                dictionary.decode(isp),
+                dictionary.decode(org),
+                dictionary.decode(asn),
+                ip
+        );
+    }
+}
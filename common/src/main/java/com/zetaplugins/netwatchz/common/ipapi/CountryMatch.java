@@ -0,0 +1,10 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+/**
+ * The answer of a precompiled country index to whether an IP is in one of a set of countries.
+ * @param matched true if the IP is in one of the countries
+ * @param countryCode the code of the country the IP is in, or null if it is in none of them
+ */
+public record CountryMatch(boolean matched, String countryCode) {
+    public static final CountryMatch NONE = new CountryMatch(false, null);
+}
@@ -0,0 +1,133 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.InvalidNetworkException;
+import com.maxmind.db.MaxMindDbConstructor;
+import com.maxmind.db.MaxMindDbParameter;
+import com.maxmind.db.Network;
+import com.maxmind.db.Networks;
+import com.maxmind.db.Reader;
+import com.zetaplugins.netwatchz.common.iplist.IpRangeSet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The networks of a fixed set of countries, compiled from a GeoLite2 Country or City database into
+ * {@link IpRangeSet}s. Checking whether an IP is in one of the countries is then a binary search instead of
+ * a database lookup.
+ */
+public final class CountryRangeIndex {
+    private final Set<String> countries;
+    private final IpRangeSet all;
+    private final Map<String, IpRangeSet> byCountry;
+
+    private CountryRangeIndex(Set<String> countries, IpRangeSet all, Map<String, IpRangeSet> byCountry) {
+        this.countries = countries;
+        this.all = all;
+        this.byCountry = byCountry;
+    }
+
+    /**
+     * Walks every network of the database once and keeps those located in one of the countries.
+     * @param reader an open Country or City database
+     * @param countries the country codes to index, e.g. "DE"
+     * @return the compiled index
+     */
+    public static CountryRangeIndex compile(Reader reader, Collection<String> countries) throws IOException {
+        Set<String> codes = Set.copyOf(countries);
+        IpRangeSet.Builder all = IpRangeSet.builder();
+        Map<String, IpRangeSet.Builder> builders = new LinkedHashMap<>();
+        for (String code : codes) builders.put(code, IpRangeSet.builder());
+
+        Networks<CountryRecord> networks;
+        try {
+            networks = reader.networks(false, CountryRecord.class);
+        } catch (InvalidNetworkException e) {
+            throw new IOException("Failed to walk the networks of the database", e);
+        }
+        while (networks.hasNext()) {
+            DatabaseRecord<CountryRecord> record = networks.next();
+            CountryRecord data = record.getData();
+            if (data == null || data.isoCode == null) continue;
+            IpRangeSet.Builder builder = builders.get(data.isoCode);
+            if (builder == null) continue;
+
+            Network network = record.getNetwork();
+            byte[] address = network.getNetworkAddress().getAddress();
+            int prefix = network.getPrefixLength();
+            if (address.length == 16 && isIpv4Subtree(address) && prefix >= 96) {
+                // IPv4 networks of an IPv6 database live under ::/96
+                byte[] v4 = {address[12], address[13], address[14], address[15]};
+                address = v4;
+                prefix -= 96;
+            }
+            all.addNetwork(address, prefix);
+            builder.addNetwork(address, prefix);
+        }
+
+        Map<String, IpRangeSet> byCountry = new LinkedHashMap<>();
+        builders.forEach((code, builder) -> byCountry.put(code, builder.build()));
+        return new CountryRangeIndex(codes, all.build(), Map.copyOf(byCountry));
+    }
+
+    private static boolean isIpv4Subtree(byte[] address) {
+        for (int i = 0; i < 12; i++) {
+            if (address[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param countries country codes
+     * @return true if this index was compiled for exactly these countries
+     */
+    public boolean covers(Collection<String> countries) {
+        return this.countries.size() == countries.size() && this.countries.containsAll(countries);
+    }
+
+    /**
+     * @param address the address to check
+     * @return whether the address is in one of the indexed countries, and which one
+     */
+    public CountryMatch match(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (!all.contains(bytes)) return CountryMatch.NONE;
+        for (Map.Entry<String, IpRangeSet> entry : byCountry.entrySet()) {
+            if (entry.getValue().contains(bytes)) return new CountryMatch(true, entry.getKey());
+        }
+        return new CountryMatch(true, null);
+    }
+
+    /**
+     * @return the number of merged ranges over all countries
+     */
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * The only part of a database record the index needs, so the rest is not decoded.
+     */
+    public static final class CountryRecord {
+        final String isoCode;
+
+        @MaxMindDbConstructor
+        public CountryRecord(@MaxMindDbParameter(name = "country") Country country) {
+            this.isoCode = country == null ? null : country.isoCode;
+        }
+    }
+
+    public static final class Country {
+        final String isoCode;
+
+        @MaxMindDbConstructor
+        public Country(@MaxMindDbParameter(name = "iso_code") String isoCode) {
+            this.isoCode = isoCode;
+        }
+    }
+}
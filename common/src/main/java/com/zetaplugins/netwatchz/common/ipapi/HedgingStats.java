@@ -0,0 +1,23 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+/**
+ * A point-in-time snapshot of how hedged IP data lookups went.
+ * @param lookups the number of provider lookups made while hedging was enabled
+ * @param hedged the number of lookups that asked a second provider because the first was too slow
+ * @param hedgeWins the number of hedged lookups that were answered by the second provider first
+ */
+public record HedgingStats(long lookups, long hedged, long hedgeWins) {
+    /**
+     * @return the share of lookups that were hedged (0.0 - 1.0)
+     */
+    public double hedgeRate() {
+        return lookups == 0 ? 0 : (double) hedged / lookups;
+    }
+
+    /**
+     * @return the share of hedged lookups won by the second provider (0.0 - 1.0)
+     */
+    public double winRate() {
+        return hedged == 0 ? 0 : (double) hedgeWins / hedged;
+    }
+}
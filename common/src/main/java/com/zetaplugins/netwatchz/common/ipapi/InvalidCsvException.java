@@ -0,0 +1,13 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a CSV of IP ranges cannot be compiled because of its content, e.g. it is not sorted.
+ * Compiling the same file again fails the same way, unlike an I/O error.
+ */
+public class InvalidCsvException extends IOException {
+    public InvalidCsvException(String message) {
+        super(message);
+    }
+}
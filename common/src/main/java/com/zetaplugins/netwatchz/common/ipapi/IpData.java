@@ -16,6 +16,15 @@ public record IpData(
     String asn,
     String ip
 ) {
+    /**
+     * Strips the network fields (ISP, organization and ASN), keeping only the location.
+     * Used when IP data is shared by every address of a network prefix.
+     * @return a copy of this data with only the geo fields
+     */
+    public IpData geoOnly() {
+        return new IpData(country, countryCode, regionName, regionCode, city, lat, lon, timezone, null, null, null, ip);
+    }
+
     public @NotNull String toString() {
         return "IpData{" +
                 "country='" + country + '\'' +
@@ -0,0 +1,20 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+/**
+ * The fields of {@link IpData} a caller needs. Providers that can look up fewer fields faster, like the local
+ * GeoLite2 databases, only do the work that is needed; other providers always return everything they know.
+ */
+public enum IpDataFields {
+    /** Only the country name and code, e.g. for geo-blocking */
+    COUNTRY_ONLY,
+    /** Everything the provider knows, e.g. for /ipinfo */
+    FULL;
+
+    /**
+     * @param needed the fields a caller needs
+     * @return true if data looked up for these fields also contains the needed fields
+     */
+    public boolean covers(IpDataFields needed) {
+        return this == FULL || needed == COUNTRY_ONLY;
+    }
+}
@@ -0,0 +1,225 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A sorted table of IP ranges with IP data, memory-mapped from the files written by {@link RangeTableCompiler}.
+ * A lookup is a binary search on the mapped file; the only objects created are the strings of the result.
+ * <p>
+ * The ranges file starts with a {@value #HEADER_SIZE} byte header, followed by the IPv4 records (start and end
+ * as unsigned ints) and the IPv6 records (start and end as two longs each). Every record ends with one int per
+ * field present in the table: an ID into the dictionary file for text fields, the float bits for coordinates.
+ * The dictionary file holds the UTF-8 bytes of every distinct string and an offset table into them.
+ */
+public final class RangeTable {
+    /** Field names, in the order of the {@link IpData} constructor */
+    public static final String[] FIELDS = {
+            "country", "countryCode", "regionName", "region", "city", "lat", "lon", "timezone", "isp", "org", "asn"
+    };
+    static final int LAT = 5;
+    static final int LON = 6;
+
+    static final int RANGES_MAGIC = 0x4E575A52; // "NWZR"
+    static final int DICTIONARY_MAGIC = 0x4E575A44; // "NWZD"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 56;
+    static final int DICTIONARY_HEADER_SIZE = 20;
+    /** Dictionary ID of a missing value */
+    static final int NO_VALUE = -1;
+
+    private final MappedByteBuffer ranges;
+    private final MappedByteBuffer dictionary;
+    private final int v4Count;
+    private final int v6Count;
+    private final int recordSizeV4;
+    private final int recordSizeV6;
+    private final int v6Offset;
+    /** Position of each field in the record payload, -1 if the table does not have the field */
+    private final int[] fieldSlots = new int[FIELDS.length];
+    private final long sourceSize;
+    private final long sourceModified;
+    private final long layoutHash;
+    private final int stringCount;
+
+    private RangeTable(MappedByteBuffer ranges, MappedByteBuffer dictionary) throws IOException {
+        this.ranges = ranges;
+        this.dictionary = dictionary;
+        if (ranges.capacity() < HEADER_SIZE || ranges.getInt(0) != RANGES_MAGIC || ranges.getInt(4) != VERSION) {
+            throw new IOException("Not a compiled range table");
+        }
+        if (dictionary.capacity() < DICTIONARY_HEADER_SIZE || dictionary.getInt(0) != DICTIONARY_MAGIC
+                || dictionary.getInt(4) != VERSION) {
+            throw new IOException("Not a compiled string dictionary");
+        }
+        if (ranges.getLong(8) != dictionary.getLong(8)) {
+            throw new IOException("The range table and the dictionary are from different builds");
+        }
+
+        int fieldMask = ranges.getInt(16);
+        int slots = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+            fieldSlots[i] = (fieldMask & (1 << i)) != 0 ? slots++ : -1;
+        }
+        this.v4Count = ranges.getInt(20);
+        this.v6Count = ranges.getInt(24);
+        this.sourceSize = ranges.getLong(32);
+        this.sourceModified = ranges.getLong(40);
+        this.layoutHash = ranges.getLong(48);
+        this.recordSizeV4 = 8 + slots * 4;
+        this.recordSizeV6 = 32 + slots * 4;
+        this.v6Offset = HEADER_SIZE + v4Count * recordSizeV4;
+        if ((long) v6Offset + (long) v6Count * recordSizeV6 != ranges.capacity()) {
+            throw new IOException("The range table is truncated");
+        }
+        this.stringCount = dictionary.getInt(16);
+    }
+
+    /**
+     * Maps a compiled table into memory.
+     * @param rangesFile the ranges file
+     * @param dictionaryFile the dictionary file
+     * @return the mapped table
+     * @throws IOException if the files cannot be read or are not a matching pair of compiled files
+     */
+    public static RangeTable open(Path rangesFile, Path dictionaryFile) throws IOException {
+        return new RangeTable(map(rangesFile), map(dictionaryFile));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * @return true if the table was compiled from a source file of this size and modification time, with this layout
+     */
+    public boolean isCompiledFrom(long size, long modified, long layoutHash) {
+        return sourceSize == size && sourceModified == modified && this.layoutHash == layoutHash;
+    }
+
+    /**
+     * @return the number of ranges in the table
+     */
+    public int size() {
+        return v4Count + v6Count;
+    }
+
+    /**
+     * @return the number of distinct strings in the dictionary
+     */
+    public int stringCount() {
+        return stringCount;
+    }
+
+    /**
+     * @param address the address in network byte order, 4 bytes for IPv4 or 16 bytes for IPv6
+     * @return the offset of the record of the range containing the address, or -1 if no range contains it
+     */
+    public int find(byte[] address) {
+        if (address.length == 4) return findIpv4(toLong(address, 0, 4));
+        if (address.length == 16) return findIpv6(toLong(address, 0, 8), toLong(address, 8, 8));
+        return -1;
+    }
+
+    private int findIpv4(long ip) {
+        // Last range starting at or before the address
+        int lo = 0, hi = v4Count - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long start = ranges.getInt(HEADER_SIZE + mid * recordSizeV4) & 0xFFFFFFFFL;
+            if (start <= ip) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) return -1;
+        int record = HEADER_SIZE + found * recordSizeV4;
+        long end = ranges.getInt(record + 4) & 0xFFFFFFFFL;
+        return ip <= end ? record + 8 : -1;
+    }
+
+    private int findIpv6(long high, long low) {
+        int lo = 0, hi = v6Count - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int record = v6Offset + mid * recordSizeV6;
+            if (compare(ranges.getLong(record), ranges.getLong(record + 8), high, low) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) return -1;
+        int record = v6Offset + found * recordSizeV6;
+        return compare(high, low, ranges.getLong(record + 16), ranges.getLong(record + 24)) <= 0 ? record + 32 : -1;
+    }
+
+    /**
+     * Reads the IP data of a record.
+     * @param record the offset returned by {@link #find(byte[])}
+     * @param ip the IP address the data is for
+     * @return the data, or null if the record has no value for any field
+     */
+    public @Nullable IpData read(int record, String ip) {
+        String[] texts = new String[FIELDS.length];
+        boolean any = false;
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (i == LAT || i == LON || fieldSlots[i] < 0) continue;
+            texts[i] = string(ranges.getInt(record + fieldSlots[i] * 4));
+            any |= texts[i] != null;
+        }
+        float lat = fieldSlots[LAT] < 0 ? 0 : ranges.getFloat(record + fieldSlots[LAT] * 4);
+        float lon = fieldSlots[LON] < 0 ? 0 : ranges.getFloat(record + fieldSlots[LON] * 4);
+        if (!any && lat == 0 && lon == 0) return null;
+        return new IpData(texts[0], texts[1], texts[2], texts[3], texts[4], lat, lon, texts[7], texts[8], texts[9], texts[10], ip);
+    }
+
+    private @Nullable String string(int id) {
+        if (id < 0 || id >= stringCount) return null;
+        int offsets = DICTIONARY_HEADER_SIZE;
+        int start = dictionary.getInt(offsets + id * 4);
+        int end = dictionary.getInt(offsets + (id + 1) * 4);
+        int data = offsets + (stringCount + 1) * 4;
+        byte[] bytes = new byte[end - start];
+        dictionary.get(data + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return the header fields of a ranges file, for the compiler
+     */
+    static ByteBuffer header(long buildId, int fieldMask, int v4Count, int v6Count,
+                             long sourceSize, long sourceModified, long layoutHash) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(RANGES_MAGIC).putInt(VERSION).putLong(buildId)
+                .putInt(fieldMask).putInt(v4Count).putInt(v6Count).putInt(0)
+                .putLong(sourceSize).putLong(sourceModified).putLong(layoutHash);
+        return header.flip();
+    }
+}
@@ -0,0 +1,393 @@
+package com.zetaplugins.netwatchz.common.ipapi;
+
+import com.zetaplugins.netwatchz.common.IpLiteral;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compiles a CSV file of IP ranges, as shipped by IP2Location LITE or DB-IP, into the files of a {@link RangeTable}.
+ * The CSV is streamed once; rows are written straight to the output, only the distinct strings are kept in memory.
+ * <p>
+ * The start and end of a range may be written as IP address literals ("1.0.0.0", "2001:db8::") or as decimal
+ * numbers, as IP2Location does. In IP2Location IPv6 files IPv4 ranges are mapped into ::ffff:0:0/96; these are
+ * stored as IPv4 ranges. Values of "-" or empty values are stored as missing, and ranges without any value are
+ * left out. The ranges must be sorted by their start address and must not overlap, as both vendors ship them.
+ */
+public final class RangeTableCompiler {
+    private static final long IPV4_MAX = 0xFFFFFFFFL;
+    private static final BigInteger IPV4_MAPPED_START = BigInteger.valueOf(0xFFFFL).shiftLeft(32);
+    private static final BigInteger IPV4_MAPPED_END = IPV4_MAPPED_START.add(BigInteger.valueOf(IPV4_MAX));
+    private static final BigInteger IPV6_MAX = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+    public static final String RANGES_EXTENSION = ".ranges";
+    public static final String DICTIONARY_EXTENSION = ".dict";
+
+    /**
+     * Which CSV columns hold which data. Columns are counted from 1.
+     * @param startColumn column of the first address of the range
+     * @param endColumn column of the last address of the range
+     * @param columns the column of each field of {@link RangeTable#FIELDS} present in the CSV
+     */
+    public record Layout(int startColumn, int endColumn, Map<String, Integer> columns) {
+        public Layout {
+            if (startColumn < 1 || endColumn < 1) throw new IllegalArgumentException("Columns are counted from 1");
+            columns = Map.copyOf(columns);
+            for (Map.Entry<String, Integer> entry : columns.entrySet()) {
+                if (!Arrays.asList(RangeTable.FIELDS).contains(entry.getKey())) {
+                    throw new IllegalArgumentException("Unknown field '" + entry.getKey() + "'");
+                }
+                if (entry.getValue() < 1) throw new IllegalArgumentException("Invalid column for '" + entry.getKey() + "'");
+            }
+            if (columns.isEmpty()) throw new IllegalArgumentException("At least one field needs a column");
+        }
+
+        /**
+         * @return a hash of the layout, so a table compiled with a different layout is recognized
+         */
+        public long hash() {
+            long hash = 31L * startColumn + endColumn;
+            for (String field : RangeTable.FIELDS) {
+                hash = hash * 31 + columns.getOrDefault(field, 0);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * What a compile run did.
+     * @param ranges the number of ranges written
+     * @param strings the number of distinct strings written
+     * @param skippedRows the number of rows that could not be read, not counting a header row
+     * @param rangesFile the ranges file that was written
+     * @param dictionaryFile the dictionary file that was written
+     */
+    public record Result(int ranges, int strings, int skippedRows, Path rangesFile, Path dictionaryFile) {}
+
+    private RangeTableCompiler() {}
+
+    /**
+     * Compiles the CSV into a ranges and a dictionary file. The names of both include the build ID, so a build never
+     * replaces the files of an earlier one, which may still be mapped. Both are written to temporary files first and
+     * moved into place once complete, the ranges file last.
+     * @param csv the CSV file
+     * @param layout the columns of the CSV
+     * @param dir the directory to write the files to
+     * @param baseName the name of the files, followed by the build ID and ".ranges" or ".dict"
+     * @return what was compiled, and where
+     * @throws InvalidCsvException if the CSV is not sorted or too large to be mapped
+     * @throws IOException if the CSV cannot be read or the files cannot be written
+     */
+    public static Result compile(Path csv, Layout layout, Path dir, String baseName) throws IOException {
+        long sourceSize = Files.size(csv);
+        long sourceModified = Files.getLastModifiedTime(csv).toMillis();
+        long buildId = new Random().nextLong();
+        String buildName = baseName + "-" + String.format("%016x", buildId);
+        Path rangesFile = dir.resolve(buildName + RANGES_EXTENSION);
+        Path dictionaryFile = dir.resolve(buildName + DICTIONARY_EXTENSION);
+
+        int[] columns = new int[RangeTable.FIELDS.length];
+        int fieldMask = 0;
+        int slots = 0;
+        for (int i = 0; i < RangeTable.FIELDS.length; i++) {
+            Integer column = layout.columns().get(RangeTable.FIELDS[i]);
+            columns[i] = column == null ? -1 : column - 1;
+            if (column != null) {
+                fieldMask |= 1 << i;
+                slots++;
+            }
+        }
+        int startColumn = layout.startColumn() - 1;
+        int endColumn = layout.endColumn() - 1;
+
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringsById = new ArrayList<>();
+        int[] payload = new int[slots];
+
+        Path v4Tmp = Files.createTempFile(dir, "ranges-", ".v4");
+        Path v6Tmp = Files.createTempFile(dir, "ranges-", ".v6");
+        Path rangesTmp = Files.createTempFile(dir, "ranges-", ".tmp");
+        Path dictionaryTmp = Files.createTempFile(dir, "dictionary-", ".tmp");
+        try {
+            int v4Count = 0;
+            int v6Count = 0;
+            int skipped = 0;
+            long previousV4End = -1;
+            long[] previousV6End = null;
+            try (CsvReader reader = new CsvReader(Files.newBufferedReader(csv, StandardCharsets.UTF_8));
+                 DataOutputStream v4 = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(v4Tmp)));
+                 DataOutputStream v6 = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(v6Tmp)))) {
+                List<String> row = new ArrayList<>();
+                long line = 0;
+                while (reader.readRow(row)) {
+                    line++;
+                    if (row.size() <= Math.max(startColumn, endColumn)) {
+                        if (!(row.size() == 1 && row.get(0).isBlank())) skipped++;
+                        continue;
+                    }
+                    long[][] range = parseRange(row.get(startColumn), row.get(endColumn));
+                    if (range == null) {
+                        // The first row is usually a header
+                        if (line > 1) skipped++;
+                        continue;
+                    }
+                    long[] start = range[0];
+                    long[] end = range[1];
+
+                    boolean any = false;
+                    for (int i = 0, slot = 0; i < RangeTable.FIELDS.length; i++) {
+                        if (columns[i] < 0) continue;
+                        String value = columns[i] < row.size() ? row.get(columns[i]).trim() : "";
+                        boolean missing = value.isEmpty() || value.equals("-");
+                        if (i == RangeTable.LAT || i == RangeTable.LON) {
+                            float number = missing ? 0 : parseFloat(value);
+                            payload[slot++] = Float.floatToRawIntBits(number);
+                            any |= number != 0;
+                        } else if (missing) {
+                            payload[slot++] = RangeTable.NO_VALUE;
+                        } else {
+                            payload[slot++] = strings.computeIfAbsent(value, k -> {
+                                stringsById.add(k);
+                                return stringsById.size() - 1;
+                            });
+                            any = true;
+                        }
+                    }
+                    // Unallocated ranges carry no data; leaving them out makes lookups for them return nothing
+                    if (!any) continue;
+
+                    if (start.length == 1) {
+                        if (start[0] <= previousV4End || end[0] < start[0]) throw unsorted(csv, line);
+                        previousV4End = end[0];
+                        v4.writeInt((int) start[0]);
+                        v4.writeInt((int) end[0]);
+                        for (int value : payload) v4.writeInt(value);
+                        v4Count++;
+                    } else {
+                        if (previousV6End != null && RangeTable.compare(start[0], start[1], previousV6End[0], previousV6End[1]) <= 0
+                                || RangeTable.compare(end[0], end[1], start[0], start[1]) < 0) {
+                            throw unsorted(csv, line);
+                        }
+                        previousV6End = end;
+                        v6.writeLong(start[0]);
+                        v6.writeLong(start[1]);
+                        v6.writeLong(end[0]);
+                        v6.writeLong(end[1]);
+                        for (int value : payload) v6.writeInt(value);
+                        v6Count++;
+                    }
+                }
+            }
+
+            long size = RangeTable.HEADER_SIZE + Files.size(v4Tmp) + Files.size(v6Tmp);
+            if (size > Integer.MAX_VALUE) throw new InvalidCsvException(csv.getFileName() + " has too many ranges to be mapped");
+
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(rangesTmp))) {
+                ByteBuffer header = RangeTable.header(buildId, fieldMask, v4Count, v6Count, sourceSize, sourceModified, layout.hash());
+                out.write(header.array(), 0, header.limit());
+                Files.copy(v4Tmp, out);
+                Files.copy(v6Tmp, out);
+            }
+            writeDictionary(dictionaryTmp, buildId, stringsById);
+
+            // A crash between the two moves leaves a dictionary without ranges file, which is never opened
+            Files.move(dictionaryTmp, dictionaryFile, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(rangesTmp, rangesFile, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(v4Count + v6Count, stringsById.size(), skipped, rangesFile, dictionaryFile);
+        } finally {
+            for (Path tmp : List.of(v4Tmp, v6Tmp, rangesTmp, dictionaryTmp)) {
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static void writeDictionary(Path file, long buildId, List<String> strings) throws IOException {
+        byte[][] encoded = new byte[strings.size()][];
+        long dataSize = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            dataSize += encoded[i].length;
+        }
+        if (RangeTable.DICTIONARY_HEADER_SIZE + (encoded.length + 1) * 4L + dataSize > Integer.MAX_VALUE) {
+            throw new InvalidCsvException("Too many distinct strings to be mapped");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(RangeTable.DICTIONARY_MAGIC);
+            out.writeInt(RangeTable.VERSION);
+            out.writeLong(buildId);
+            out.writeInt(encoded.length);
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                offset += bytes.length;
+                out.writeInt(offset);
+            }
+            for (byte[] bytes : encoded) out.write(bytes);
+        }
+    }
+
+    /**
+     * Parses the start and end of a range. The family of decimal numbers is decided by the pair, not by each value:
+     * an IPv6 range may start at a number that also fits IPv4, like the row from 0 to ::fffe:ffff:ffff of IP2Location.
+     * @return {start, end}, each as {ipv4} or {high, low} for IPv6, or null if the values are not a range of one family
+     */
+    private static long[][] parseRange(String rawStart, String rawEnd) {
+        String startValue = rawStart.trim();
+        String endValue = rawEnd.trim();
+        if (isDecimal(startValue) && isDecimal(endValue)) {
+            BigInteger start = new BigInteger(startValue);
+            BigInteger end = new BigInteger(endValue);
+            if (end.compareTo(IPV6_MAX) > 0) return null;
+            if (end.compareTo(BigInteger.valueOf(IPV4_MAX)) <= 0) {
+                return new long[][] {{start.longValue()}, {end.longValue()}};
+            }
+            if (start.compareTo(IPV4_MAPPED_START) >= 0 && end.compareTo(IPV4_MAPPED_END) <= 0) {
+                return new long[][] {{start.subtract(IPV4_MAPPED_START).longValue()}, {end.subtract(IPV4_MAPPED_START).longValue()}};
+            }
+            return new long[][] {toIpv6(start), toIpv6(end)};
+        }
+
+        long[] start = parseAddress(startValue);
+        long[] end = parseAddress(endValue);
+        if (start == null || end == null || start.length != end.length) return null;
+        return new long[][] {start, end};
+    }
+
+    private static boolean isDecimal(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    private static long[] toIpv6(BigInteger number) {
+        return new long[] {number.shiftRight(64).longValue(), number.longValue()};
+    }
+
+    /**
+     * @return the address as {ipv4} or {high, low} for IPv6, or null if the value is not an address
+     */
+    private static long[] parseAddress(String raw) {
+        String value = raw.trim();
+        if (value.isEmpty()) return null;
+        if (value.indexOf('.') >= 0 || value.indexOf(':') >= 0) {
+            byte[] bytes = IpLiteral.parse(value);
+            if (bytes == null) return null;
+            if (bytes.length == 4) return new long[] {toLong(bytes, 0, 4)};
+            return new long[] {toLong(bytes, 0, 8), toLong(bytes, 8, 8)};
+        }
+
+        if (!isDecimal(value)) return null;
+        BigInteger number = new BigInteger(value);
+        if (number.compareTo(BigInteger.valueOf(IPV4_MAX)) <= 0) return new long[] {number.longValue()};
+        if (number.compareTo(IPV4_MAPPED_START) >= 0 && number.compareTo(IPV4_MAPPED_END) <= 0) {
+            return new long[] {number.subtract(IPV4_MAPPED_START).longValue()};
+        }
+        if (number.compareTo(IPV6_MAX) > 0) return null;
+        return toIpv6(number);
+    }
+
+    private static float parseFloat(String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static InvalidCsvException unsorted(Path csv, long line) {
+        return new InvalidCsvException(csv.getFileName() + " is not sorted by start address or has overlapping ranges (row " + line + ")");
+    }
+
+    /**
+     * Reads comma-separated rows, with fields optionally quoted in double quotes and "" for a quote inside them.
+     */
+    private static final class CsvReader implements Closeable {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder field = new StringBuilder();
+        private int position;
+        private int limit;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @param row receives the fields of the row
+         * @return false at the end of the file
+         */
+        boolean readRow(List<String> row) throws IOException {
+            row.clear();
+            field.setLength(0);
+            int c = read();
+            if (c < 0) return false;
+
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        row.add(field.toString());
+                        return true;
+                    }
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c < 0 || c == '\n') {
+                    row.add(field.toString());
+                    return true;
+                } else if (c == '\r') {
+                    // Ends the row together with the following \n
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '"' && field.isEmpty()) {
+                    quoted = true;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
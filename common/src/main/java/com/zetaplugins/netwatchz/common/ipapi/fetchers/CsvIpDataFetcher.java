@@ -0,0 +1,232 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.IpLiteral;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+import com.zetaplugins.netwatchz.common.ipapi.InvalidCsvException;
+import com.zetaplugins.netwatchz.common.ipapi.RangeTable;
+import com.zetaplugins.netwatchz.common.ipapi.RangeTableCompiler;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Fetcher that reads IP data from a local CSV file of IP ranges, e.g. IP2Location LITE or DB-IP CSV.
+ *
+ * The CSV is compiled once by {@link RangeTableCompiler} into a ".ranges" and a ".dict" file next to it, which
+ * are memory-mapped as a {@link RangeTable}. Lookups are a binary search on the mapped file. The CSV is checked
+ * for changes regularly and compiled again in the background; lookups keep using the previous table until the
+ * new one is ready. A mapped table needs no closing, it is unmapped once no lookup uses it any more.
+ * <p>
+ * Every build is written to files named after its build ID, so a new build never has to replace files that are
+ * still mapped, which Windows does not allow. The files of older builds are deleted after the swap; files that
+ * are still in use are deleted on a later compile or start.
+ */
+public final class CsvIpDataFetcher implements IpDataSource {
+    /** How often the CSV is checked for changes */
+    private static final Duration CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private final Logger logger;
+    private final Path csv;
+    private final RangeTableCompiler.Layout layout;
+    private final Path dir;
+    /** The name of the CSV without extension, which the names of the compiled files start with */
+    private final String baseName;
+    private final boolean hasAsn;
+
+    private final AtomicReference<RangeTable> table = new AtomicReference<>();
+    /** The ranges file of the current table, only used on the refresh executor after construction */
+    private @Nullable Path currentRanges;
+    private final ScheduledExecutorService refreshExecutor;
+    /** Modification time of a CSV whose content failed to compile, so it is not tried again until it changes */
+    private long failedModified = -1;
+    private boolean missingReported;
+
+    /**
+     * @param logger Logger to use for messages
+     * @param csv The CSV file
+     * @param layout Which columns of the CSV hold which data
+     */
+    public CsvIpDataFetcher(Logger logger, Path csv, RangeTableCompiler.Layout layout) {
+        this.logger = Objects.requireNonNull(logger, "logger");
+        this.csv = Objects.requireNonNull(csv, "csv");
+        this.layout = Objects.requireNonNull(layout, "layout");
+        this.hasAsn = layout.columns().containsKey("asn");
+
+        String name = csv.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        this.baseName = dot > 0 ? name.substring(0, dot) : name;
+        this.dir = csv.toAbsolutePath().getParent();
+
+        // A table compiled on an earlier run can be used right away, even if the CSV changed since
+        for (Path ranges : listBuilds()) {
+            try {
+                table.set(RangeTable.open(ranges, dictionaryOf(ranges)));
+                currentRanges = ranges;
+                break;
+            } catch (IOException e) {
+                logger.warning("Failed to open " + ranges.getFileName() + ": " + e.getMessage());
+            }
+        }
+        deleteOldBuilds();
+
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NetwatchZ-CSV");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the ASN from the local data if an asn field is mapped.
+     */
+    @Override
+    public AsnInfo lookupAsn(String ip) {
+        if (!hasAsn) return null;
+        try {
+            IpData data = loadIpData(ip, IpDataFields.FULL);
+            return data == null ? null : AsnInfo.parse(data.asn(), data.org());
+        } catch (DataFetchException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Every column of the layout is read from the same record, so the fields are ignored.
+     */
+    @Override
+    public IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException {
+        // Never resolve host names on the lookup path
+        byte[] address = IpLiteral.parse(ip);
+        if (address == null) throw new DataFetchException("Not a valid IP address: " + ip);
+
+        RangeTable current = table.get();
+        if (current == null) throw new DataFetchException(csv.getFileName() + " is not available yet for " + ip);
+
+        int record = current.find(address);
+        return record < 0 ? null : current.read(record, ip);
+    }
+
+    /**
+     * Compiles the CSV again if it changed since the current table was compiled from it.
+     * Runs on the refresh executor, never on a lookup thread.
+     */
+    private void refresh() {
+        try {
+            if (Files.notExists(csv)) {
+                if (table.get() == null && !missingReported) {
+                    logger.warning(csv.getFileName() + " does not exist; no IP data until it is added.");
+                    missingReported = true;
+                }
+                return;
+            }
+            missingReported = false;
+            long size = Files.size(csv);
+            long modified = Files.getLastModifiedTime(csv).toMillis();
+            RangeTable current = table.get();
+            if (current != null && current.isCompiledFrom(size, modified, layout.hash())) return;
+            if (modified == failedModified) return;
+
+            long start = System.nanoTime();
+            RangeTableCompiler.Result result;
+            try {
+                result = RangeTableCompiler.compile(csv, layout, dir, baseName);
+            } catch (InvalidCsvException | RuntimeException e) {
+                // Compiling the same file again fails the same way; I/O errors are retried on the next check
+                failedModified = modified;
+                throw e;
+            }
+            table.set(RangeTable.open(result.rangesFile(), result.dictionaryFile()));
+            currentRanges = result.rangesFile();
+            deleteOldBuilds();
+            logger.info("Compiled " + csv.getFileName() + " into " + result.ranges() + " ranges and " + result.strings()
+                    + " strings in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+                    + (result.skippedRows() > 0 ? ", skipped " + result.skippedRows() + " unreadable rows." : "."));
+        } catch (Exception e) {
+            logger.warning("Failed to compile " + csv.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the ranges files of the builds of the CSV, newest first
+     */
+    private List<Path> listBuilds() {
+        List<Path> builds = new ArrayList<>();
+        if (Files.notExists(dir)) return builds;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, path -> isBuild(path, RangeTableCompiler.RANGES_EXTENSION))) {
+            stream.forEach(builds::add);
+        } catch (IOException e) {
+            logger.warning("Failed to list the compiled files of " + csv.getFileName() + ": " + e.getMessage());
+        }
+        builds.sort(Comparator.comparingLong(CsvIpDataFetcher::modifiedMillis).reversed());
+        return builds;
+    }
+
+    /**
+     * Deletes the files of every build but the current one, and those of a dictionary whose ranges file is missing.
+     * A file that is still mapped cannot be deleted on Windows, it is tried again after the next compile.
+     */
+    private void deleteOldBuilds() {
+        if (Files.notExists(dir)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, path ->
+                isBuild(path, RangeTableCompiler.RANGES_EXTENSION) || isBuild(path, RangeTableCompiler.DICTIONARY_EXTENSION))) {
+            for (Path file : stream) {
+                if (currentRanges != null
+                        && (file.equals(currentRanges) || file.equals(dictionaryOf(currentRanges)))) continue;
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // Still mapped by a lookup of the previous table
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to delete old compiled files of " + csv.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the file is a compiled file of the CSV with the extension, named base name, build ID, extension
+     */
+    private boolean isBuild(Path file, String extension) {
+        String name = file.getFileName().toString();
+        // A dash and the 16 hex digits of the build ID
+        return name.startsWith(baseName + "-") && name.endsWith(extension)
+                && name.length() == baseName.length() + 1 + 16 + extension.length();
+    }
+
+    private static Path dictionaryOf(Path rangesFile) {
+        String name = rangesFile.getFileName().toString();
+        return rangesFile.resolveSibling(name.substring(0, name.length() - RangeTableCompiler.RANGES_EXTENSION.length())
+                + RangeTableCompiler.DICTIONARY_EXTENSION);
+    }
+
+    private static long modifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void onShutDown() {
+        refreshExecutor.shutdownNow();
+    }
+}
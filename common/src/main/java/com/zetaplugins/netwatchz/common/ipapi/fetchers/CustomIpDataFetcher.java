@@ -1,57 +1,74 @@
 package com.zetaplugins.netwatchz.common.ipapi.fetchers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
 import com.zetaplugins.netwatchz.common.DataFetchException;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonPath;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Map;
 
 /**
- * Custom implementation of IpDataFetcher that allows fetching IP data from a specified API URL
+ * IP data source that allows fetching IP data from a specified API URL
  * with custom headers and parsing fields.
  */
-public final class CustomIpDataFetcher extends IpDataFetcher {
+public final class CustomIpDataFetcher extends HttpIpDataSource {
     private final String apiUrl;
     private final Map<String, String> headers;
     private final Map<String, String> parseFields;
+    private final JsonSelector selector;
+    private final int country, countryCode, regionName, region, city, lat, lon, timezone, isp, org, asn, ip;
 
     /**
-     * @param cache the cache to store fetched IP data
      * @param apiUrl the API URL to fetch IP data from (if the url contains %ip%, it will be replaced with the actual IP address, otherwise the IP will be appended to the URL)
      *              Example: "https://api.example.com/ip/%ip%" or "https://api.example.com/ip/"
      * @param headers the headers to include in the API request
      *                Example: Map.of("Authorization" , "Bearer YOUR_API_KEY")
-     * @param parseFields the fields to parse from the JSON response
+     * @param parseFields the fields to parse from the JSON response, mapping field names to JSON paths
+     *                    Example: Map.of("lat", "location.latitude", "asn", "connections[0].asn")
+     * @throws IllegalArgumentException if a path in parseFields is malformed
      */
-    public CustomIpDataFetcher(Cache<@NotNull String, IpData> cache, String apiUrl, Map<String, String> headers, Map<String, String> parseFields) {
-        super(cache);
+    public CustomIpDataFetcher(String apiUrl, Map<String, String> headers, Map<String, String> parseFields) {
         this.apiUrl = apiUrl;
         this.headers = headers;
         this.parseFields = parseFields;
-    }
 
-    @Override
-    public IpData fetchIpData(String ip) throws DataFetchException {
-        if (ip == null || ip.isEmpty()) {
-            throw new DataFetchException("IP address cannot be null or empty");
-        }
+        // Each configured path is compiled once, unmapped fields are never read
+        JsonSelector.Builder builder = JsonSelector.builder();
+        this.country = addField(builder, "country");
+        this.countryCode = addField(builder, "countryCode");
+        this.regionName = addField(builder, "regionName");
+        this.region = addField(builder, "region");
+        this.city = addField(builder, "city");
+        this.lat = addField(builder, "lat");
+        this.lon = addField(builder, "lon");
+        this.timezone = addField(builder, "timezone");
+        this.isp = addField(builder, "isp");
+        this.org = addField(builder, "org");
+        this.asn = addField(builder, "asn");
+        this.ip = addField(builder, "ip");
+        this.selector = builder.build();
+    }
 
-        if (getCache().getIfPresent(ip) != null) {
-            return getCache().getIfPresent(ip);
+    private int addField(JsonSelector.Builder builder, String field) {
+        String path = parseFields == null ? null : parseFields.get(field);
+        if (path == null || path.isBlank()) return -1;
+        try {
+            return builder.add(JsonPath.parse(path));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid parse_fields entry for '" + field + "': " + e.getMessage(), e);
         }
+    }
 
+    @Override
+    protected IpData loadIpData(String ip) throws DataFetchException {
         try {
             String formattedUrl = getApiUrl().contains("%ip%") ? getApiUrl().replace("%ip%", ip) : getApiUrl() + ip;
             URL url = new URL(formattedUrl);
-            String jsonResponse = fetchFromApi(url, headers);
-            IpData data = parseIpData(jsonResponse);
-            getCache().put(ip, data);
-            return data;
+            return fetchFromApi(url, headers, this::parseIpData);
         } catch (Exception e) {
             throw new DataFetchException("Failed to fetch IP data from " + getApiUrl() + ip, e);
         }
@@ -63,28 +80,32 @@ public final class CustomIpDataFetcher extends IpDataFetcher {
     }
 
     @Override
-    protected IpData parseIpData(String jsonResponse) throws ParseException {
-        if (jsonResponse == null || jsonResponse.isEmpty()) {
-            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Empty JSON response");
-        }
+    protected IpData parseIpData(InputStream response) throws IOException {
+        JsonValues json = selector.decode(response);
 
-        // Parse the JSON response using the provided parseFields map
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
+        // Missing fields are left empty, but a response without any of them means the API has no data for the IP
+        if (!hasAnyField(json)) return null;
 
-        String country = (String) json.get(parseFields.get("country"));
-        String countryCode = (String) json.get(parseFields.get("countryCode"));
-        String regionName = (String) json.get(parseFields.get("regionName"));
-        String region = (String) json.get(parseFields.get("region"));
-        String city = (String) json.get(parseFields.get("city"));
-        double lat = ((Number) json.get(parseFields.get("lat"))).doubleValue();
-        double lon = ((Number) json.get(parseFields.get("lon"))).doubleValue();
-        String timezone = (String) json.get(parseFields.get("timezone"));
-        String isp = (String) json.get(parseFields.get("isp"));
-        String org = (String) json.get(parseFields.get("org"));
-        String asn = (String) json.get(parseFields.get("asn"));
-        String ip = (String) json.get(parseFields.get("ip"));
+        return new IpData(
+                json.getString(country),
+                json.getString(countryCode),
+                json.getString(regionName),
+                json.getString(region),
+                json.getString(city),
+                json.getDouble(lat, 0),
+                json.getDouble(lon, 0),
+                json.getString(timezone),
+                json.getString(isp),
+                json.getString(org),
+                json.getString(asn),
+                json.getString(ip)
+        );
+    }
 
-        return new IpData(country, countryCode, regionName, region, city, lat, lon, timezone, isp, org, asn, ip);
+    private boolean hasAnyField(JsonValues json) {
+        for (int slot : new int[]{country, countryCode, regionName, region, city, lat, lon, timezone, isp, org, asn}) {
+            if (json.has(slot)) return true;
+        }
+        return false;
     }
 }
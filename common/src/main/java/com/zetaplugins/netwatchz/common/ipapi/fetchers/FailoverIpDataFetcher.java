@@ -0,0 +1,348 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.zetaplugins.netwatchz.common.CacheUtils;
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LatencyTracker;
+import com.zetaplugins.netwatchz.common.ProviderHealth;
+import com.zetaplugins.netwatchz.common.ProviderRouter;
+import com.zetaplugins.netwatchz.common.config.HedgingConfig;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.CountryMatch;
+import com.zetaplugins.netwatchz.common.ipapi.HedgingStats;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asks an ordered chain of providers for IP data, moving on to the next provider if one fails or has no data.
+ * Every provider sits behind a {@link CircuitBreaker}, so a provider that is down or slow is skipped right away
+ * instead of every lookup waiting for it to time out.
+ * <p>
+ * The providers are asked in the configured order, or, with adaptive routing, best health score first.
+ * <p>
+ * With hedging enabled, a lookup that the first provider has not answered within the hedge delay is also sent
+ * to the next provider. The first answer wins and the slower request is cancelled.
+ */
+public final class FailoverIpDataFetcher implements IpDataSource {
+    /** Number of measured lookups before the observed latency is used as the hedge delay */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /**
+     * A provider of the chain together with its circuit breaker and latency history
+     * @param source the provider
+     * @param breaker the circuit breaker guarding the provider
+     * @param latency the durations of the most recent successful lookups
+     * @param health moving averages of latency and error rate, used for adaptive routing
+     */
+    public record Member(IpDataSource source, CircuitBreaker breaker, LatencyTracker latency, ProviderHealth health) {}
+
+    private final List<Member> members;
+    private final HedgingConfig hedging;
+    private final ProviderRouter router;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public FailoverIpDataFetcher(List<Member> members, HedgingConfig hedging, ProviderRouter router) {
+        if (members.isEmpty()) throw new IllegalArgumentException("The provider chain needs at least one provider");
+        this.members = List.copyOf(members);
+        this.hedging = hedging == null ? HedgingConfig.DISABLED : hedging;
+        this.router = router;
+    }
+
+    /**
+     * @return the providers of the chain, in order
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return whether lookups are hedged
+     */
+    public boolean isHedgingEnabled() {
+        return hedging.enabled();
+    }
+
+    /**
+     * @return a snapshot of how often lookups were hedged and how often the hedge answered first
+     */
+    public HedgingStats getHedgingStats() {
+        return new HedgingStats(lookups.sum(), hedged.sum(), hedgeWins.sum());
+    }
+
+    @Override
+    public boolean supportsPartialLookups() {
+        return members.stream().anyMatch(member -> member.source().supportsPartialLookups());
+    }
+
+    /**
+     * Uses the range index of the first provider, in configured order, that has one for these countries.
+     */
+    @Override
+    public CountryMatch matchCountry(String ip, Collection<String> countries) {
+        for (Member member : members) {
+            CountryMatch match = member.source().matchCountry(ip, countries);
+            if (match != null) return match;
+        }
+        return null;
+    }
+
+    /**
+     * Uses the local ASN data of the first provider, in configured order, that has it.
+     */
+    @Override
+    public AsnInfo lookupAsn(String ip) {
+        for (Member member : members) {
+            AsnInfo asn = member.source().lookupAsn(ip);
+            if (asn != null) return asn;
+        }
+        return null;
+    }
+
+    @Override
+    public IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException {
+        Outcome outcome = new Outcome();
+        List<Member> order = router.order(members, Member::health);
+        // Counted once per lookup, not per provider tried, so the hedge rate is per lookup
+        if (hedging.enabled()) lookups.increment();
+        int next = 0;
+        while (next < order.size()) {
+            Member primary = order.get(next++);
+            if (!acquire(primary, outcome)) continue;
+
+            if (!hedging.enabled()) {
+                IpData data = call(primary, ip, fields, outcome);
+                if (data != null) return data;
+                continue;
+            }
+
+            Attempt first = Attempt.start(primary, ip, fields);
+            if (first.await(hedgeDelayNanos(primary))) {
+                IpData data = first.collect(outcome, ip);
+                if (data != null) return data;
+                continue;
+            }
+
+            Member secondary = null;
+            while (secondary == null && next < order.size()) {
+                Member candidate = order.get(next++);
+                if (acquire(candidate, outcome)) secondary = candidate;
+            }
+            if (secondary == null) {
+                first.await(-1);
+                IpData data = first.collect(outcome, ip);
+                if (data != null) return data;
+                continue;
+            }
+
+            hedged.increment();
+            Attempt second = Attempt.start(secondary, ip, fields);
+            Attempt winner = firstAnswer(first, second);
+            if (winner != null) {
+                (winner == first ? second : first).cancel();
+                if (winner == second) hedgeWins.increment();
+                return winner.result.getNow(null);
+            }
+            first.collect(outcome, ip);
+            second.collect(outcome, ip);
+        }
+
+        // One provider answered that it has no data, which is an answer rather than a failure
+        if (outcome.answered) return null;
+        if (outcome.lastFailure != null) throw outcome.lastFailure;
+        throw new DataFetchException("All IP info providers are unavailable, skipped " + String.join(", ", outcome.skipped));
+    }
+
+    private static boolean acquire(Member member, Outcome outcome) {
+        if (member.breaker().tryAcquire()) return true;
+        outcome.skipped.add(member.breaker().getName());
+        return false;
+    }
+
+    private static IpData call(Member member, String ip, IpDataFields fields, Outcome outcome) {
+        long start = System.nanoTime();
+        try {
+            IpData data = member.source().loadIpData(ip, fields);
+            long elapsed = System.nanoTime() - start;
+            member.breaker().onSuccess(elapsed);
+            member.latency().record(elapsed);
+            member.health().record(elapsed, false);
+            if (data == null) outcome.answered = true;
+            return data;
+        } catch (RuntimeException e) {
+            long elapsed = System.nanoTime() - start;
+            member.breaker().onFailure(elapsed);
+            member.health().record(elapsed, true);
+            outcome.fail(member, ip, e);
+            return null;
+        }
+    }
+
+    private long hedgeDelayNanos(Member member) {
+        if (!hedging.adaptive()) return hedging.delay().toNanos();
+        long max = hedging.maxDelay().toNanos();
+        if (member.latency().count() < MIN_LATENCY_SAMPLES) return max;
+        long observed = member.latency().percentile(hedging.percentile());
+        return Math.max(hedging.minDelay().toNanos(), Math.min(max, observed));
+    }
+
+    /**
+     * Waits for the first of the two attempts that returns data.
+     * @return the attempt that answered first, or null if neither returned data
+     */
+    private static Attempt firstAnswer(Attempt first, Attempt second) {
+        CompletableFuture<Attempt> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        for (Attempt attempt : List.of(first, second)) {
+            attempt.result.whenComplete((data, e) -> {
+                if (e == null && data != null) {
+                    winner.complete(attempt);
+                } else if (pending.decrementAndGet() == 0) {
+                    winner.complete(null);
+                }
+            });
+        }
+        try {
+            return winner.get();
+        } catch (InterruptedException e) {
+            first.cancel();
+            second.cancel();
+            Thread.currentThread().interrupt();
+            throw new DataFetchException("Interrupted while waiting for IP info providers", e);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void onShutDown() {
+        for (Member member : members) {
+            member.source().onShutDown();
+        }
+    }
+
+    /**
+     * What the providers asked so far answered.
+     */
+    private static final class Outcome {
+        boolean answered;
+        DataFetchException lastFailure;
+        final List<String> skipped = new ArrayList<>();
+
+        void fail(Member member, String ip, Throwable e) {
+            lastFailure = e instanceof DataFetchException d ? d
+                    : new DataFetchException("Provider " + member.breaker().getName() + " failed for " + ip, e);
+        }
+    }
+
+    /**
+     * A lookup running on the lookup executor. The outcome is reported to the breaker and latency tracker
+     * of its provider unless the attempt was cancelled because another provider answered first.
+     */
+    private static final class Attempt {
+        final Member member;
+        final CompletableFuture<IpData> result = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile Future<?> task;
+
+        private Attempt(Member member) {
+            this.member = member;
+        }
+
+        static Attempt start(Member member, String ip, IpDataFields fields) {
+            Attempt attempt = new Attempt(member);
+            attempt.task = CacheUtils.lookupExecutor().submit(() -> attempt.run(ip, fields));
+            return attempt;
+        }
+
+        private void run(String ip, IpDataFields fields) {
+            if (!started.compareAndSet(false, true)) return;
+            long start = System.nanoTime();
+            try {
+                IpData data = member.source().loadIpData(ip, fields);
+                long elapsed = System.nanoTime() - start;
+                if (cancelled) {
+                    member.breaker().release();
+                } else {
+                    member.breaker().onSuccess(elapsed);
+                    member.latency().record(elapsed);
+                    member.health().record(elapsed, false);
+                }
+                result.complete(data);
+            } catch (RuntimeException e) {
+                long elapsed = System.nanoTime() - start;
+                if (cancelled) {
+                    member.breaker().release();
+                } else {
+                    member.breaker().onFailure(elapsed);
+                    member.health().record(elapsed, true);
+                }
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * @param timeoutNanos how long to wait, negative to wait until the attempt is done
+         * @return true if the attempt is done
+         */
+        boolean await(long timeoutNanos) {
+            try {
+                if (timeoutNanos < 0) {
+                    result.get();
+                } else {
+                    result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+                }
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                return true;
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new DataFetchException("Interrupted while waiting for IP info provider " + member.breaker().getName(), e);
+            }
+        }
+
+        /**
+         * Adds the outcome of a finished attempt to the outcome of the lookup.
+         * @return the data, or null if the provider had none or failed
+         */
+        IpData collect(Outcome outcome, String ip) {
+            try {
+                IpData data = result.getNow(null);
+                if (data == null) outcome.answered = true;
+                return data;
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                outcome.fail(member, ip, cause);
+                return null;
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (started.compareAndSet(false, true)) {
+                // Never ran, so its breaker permit is given back here instead of by run()
+                member.breaker().release();
+                result.cancel(false);
+            } else if (task != null) {
+                task.cancel(true);
+            }
+        }
+    }
+}
@@ -1,422 +1,440 @@
 package com.zetaplugins.netwatchz.common.ipapi.fetchers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.maxmind.db.CHMCache;
+import com.maxmind.db.NoCache;
+import com.maxmind.db.NodeCache;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.AsnResponse;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.CountryResponse;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.CountryMatch;
+import com.zetaplugins.netwatchz.common.ipapi.CountryRangeIndex;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
 import com.zetaplugins.netwatchz.common.DataFetchException;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import java.util.zip.GZIPInputStream;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.IpLiteral;
+import com.zetaplugins.netwatchz.common.config.GeoLite2Config;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
-import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 /**
  * Fetcher that downloads and uses GeoLite2 ASN + City + Country databases, then merges results into a single IpData.
  *
- * Supports both direct .mmdb URLs and .tar.gz URLs (official MaxMind endpoints).
+ * Supports both direct .mmdb URLs and .tar.gz URLs (official MaxMind endpoints). Downloads are handled by
+ * {@link MmdbDownloader}.
+ *
+ * The open readers are kept in an immutable snapshot, so lookups never wait on a lock. A background task
+ * downloads updated databases and swaps in a new snapshot once it is fully open; the old readers are closed
+ * as soon as the lookups still using them are done.
+ *
+ * If countries are configured for geo-blocking, their networks are compiled into a range index every time the
+ * databases are opened, so geo-blocking checks are a binary search rather than a database lookup.
  */
-public final class GeoLite2Fetcher extends IpDataFetcher {
+public final class GeoLite2Fetcher implements IpDataSource {
     private final Logger logger;
 
     private static final String ASN_MMDB = "GeoLite2-ASN.mmdb";
     private static final String CITY_MMDB = "GeoLite2-City.mmdb";
     private static final String COUNTRY_MMDB = "GeoLite2-Country.mmdb";
 
+    /** Longest time between two checks whether the databases are due for an update */
+    private static final Duration MAX_CHECK_INTERVAL = Duration.ofHours(1);
+
     private final Path dataDir;
     private final Duration updateInterval;
     private final String asnUrl;
     private final String cityUrl;
     private final String countryUrl;
+    private final GeoLite2Config.FileMode fileMode;
+    private final int nodeCacheSize;
+    private final boolean warmup;
+    private final List<String> indexedCountries;
 
-    private volatile DatabaseReader asnReader;
-    private volatile DatabaseReader cityReader;
-    private volatile DatabaseReader countryReader;
-
-    private volatile Instant lastUpdatedAsn = Instant.EPOCH;
-    private volatile Instant lastUpdatedCity = Instant.EPOCH;
-    private volatile Instant lastUpdatedCountry = Instant.EPOCH;
-
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private final AtomicReference<Readers> readers = new AtomicReference<>();
+    private final ScheduledExecutorService refreshExecutor;
 
     /**
      * Full constructor.
      * @param logger Logger to use for messages
-     * @param cache The cache to use
      * @param dataDir Directory to store mmdb files
      * @param updateInterval How often to check for updated mmdb files
      * @param asnUrl URL to download ASN DB (.mmdb or .tar.gz)
      * @param cityUrl URL to download City DB (.mmdb or .tar.gz)
      * @param countryUrl URL to download Country DB (.mmdb or .tar.gz)
+     * @param fileMode Whether the databases are memory-mapped or read into the heap
+     * @param nodeCacheSize Maximum number of decoded records cached per database, 0 to disable the cache
+     * @param warmup Whether to load memory-mapped databases into memory before they are used
+     * @param indexedCountries Country codes to compile into a range index for {@link #matchCountry}, empty for no index
      */
     public GeoLite2Fetcher(
             Logger logger,
-            Cache<@NotNull String, IpData> cache,
             Path dataDir,
             Duration updateInterval,
             String asnUrl,
             String cityUrl,
-            String countryUrl
+            String countryUrl,
+            GeoLite2Config.FileMode fileMode,
+            int nodeCacheSize,
+            boolean warmup,
+            List<String> indexedCountries
     ) {
-        super(cache);
         this.logger = Objects.requireNonNull(logger, "logger");
         this.dataDir = Objects.requireNonNull(dataDir, "dataDir");
         this.updateInterval = Objects.requireNonNull(updateInterval, "updateInterval");
         this.asnUrl = Objects.requireNonNull(asnUrl, "asnUrl");
         this.cityUrl = Objects.requireNonNull(cityUrl, "cityUrl");
         this.countryUrl = Objects.requireNonNull(countryUrl, "countryUrl");
+        this.fileMode = Objects.requireNonNull(fileMode, "fileMode");
+        this.nodeCacheSize = Math.max(0, nodeCacheSize);
+        this.warmup = warmup;
+        this.indexedCountries = List.copyOf(indexedCountries);
 
         if (updateInterval.isNegative() || updateInterval.isZero()) {
             throw new IllegalArgumentException("updateInterval must be positive");
         }
 
+        // Databases from an earlier run can be used right away; downloads happen in the background
         try {
-            ensureDatabasesReady();
-        } catch (Exception e) {
-            // Ignore; will try again on first lookup
+            Readers existing = openReaders();
+            if (existing != null) readers.set(existing);
+        } catch (IOException e) {
+            logger.warning("Failed to open existing GeoLite2 databases: " + e.getMessage());
         }
+
+        // One thread for the scheduled check and one per database download
+        this.refreshExecutor = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "NetwatchZ-GeoLite2");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkMillis = Math.min(updateInterval.toMillis(), MAX_CHECK_INTERVAL.toMillis());
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, checkMillis, TimeUnit.MILLISECONDS);
     }
 
-    // Unused, but required by base class
     @Override
-    protected String getApiUrl() {
-        return "mmdb://local/geolite-all/";
+    public boolean supportsPartialLookups() {
+        return true;
     }
 
-    // Unused, but required by base class
     @Override
-    protected IpData parseIpData(String jsonResponse) throws ParseException {
-        throw new UnsupportedOperationException("parseIpData is not used by GeoLite2Fetcher.");
+    public CountryMatch matchCountry(String ip, Collection<String> countries) {
+        Readers snapshot = readers.get();
+        if (snapshot == null || snapshot.countryIndex() == null || !snapshot.countryIndex().covers(countries)) return null;
+        InetAddress address = IpLiteral.toInetAddress(ip);
+        return address == null ? null : snapshot.countryIndex().match(address);
     }
 
     @Override
-    public IpData fetchIpData(String ip) throws DataFetchException {
-        if (ip == null || ip.isEmpty()) throw new DataFetchException("IP address cannot be null or empty");
+    public AsnInfo lookupAsn(String ip) {
+        InetAddress addr = IpLiteral.toInetAddress(ip);
+        if (addr == null) return null;
+        Readers snapshot = acquireReaders();
+        if (snapshot == null) return null;
+        try {
+            if (snapshot.asn() == null) return null;
+            AsnResponse asn = snapshot.asn().asn(addr);
+            if (asn == null || asn.getAutonomousSystemNumber() == null) return null;
+            return new AsnInfo(asn.getAutonomousSystemNumber(), asn.getAutonomousSystemOrganization());
+        } catch (IOException | GeoIp2Exception e) {
+            // Not in the database, or unreadable: the caller treats both as unknown
+            return null;
+        } finally {
+            snapshot.release();
+        }
+    }
 
-        IpData cached = getCache().getIfPresent(ip);
-        if (cached != null) return cached;
+    @Override
+    public IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException {
+        // Never resolve host names on the lookup path
+        InetAddress addr = IpLiteral.toInetAddress(ip);
+        if (addr == null) throw new DataFetchException("Not a valid IP address: " + ip);
+
+        Readers snapshot = acquireReaders();
+        if (snapshot == null) {
+            throw new DataFetchException("GeoLite2 databases are not available yet for " + ip);
+        }
 
         try {
-            ensureDatabasesReady();
-
-            InetAddress addr = InetAddress.getByName(ip);
-
-            rwLock.readLock().lock();
-            try {
-                String countryName = null;
-                String countryCode = null;
-                String regionName = null;
-                String regionCode = null;
-                String cityName = null;
-                Double lat = null;
-                Double lon = null;
-                String timezone = null;
-                String isp = null; // not available in GeoLite2
-                String org = null;
-                String asnStr = null;
-
-                if (asnReader != null) {
-                    try {
-                        AsnResponse asn = asnReader.asn(addr);
-                        if (asn != null) {
-                            Long n = asn.getAutonomousSystemNumber();
-                            asnStr = n == null ? null : ("AS" + n);
-                            org = asn.getAutonomousSystemOrganization();
-                        }
-                    } catch (AddressNotFoundException ignored) {
-                        // No ASN info for this IP
+            if (fields == IpDataFields.COUNTRY_ONLY) return lookupCountry(snapshot, addr, ip);
+
+            String countryName = null;
+            String countryCode = null;
+            String regionName = null;
+            String regionCode = null;
+            String cityName = null;
+            Double lat = null;
+            Double lon = null;
+            String timezone = null;
+            String isp = null; // not available in GeoLite2
+            String org = null;
+            String asnStr = null;
+
+            if (snapshot.asn() != null) {
+                try {
+                    AsnResponse asn = snapshot.asn().asn(addr);
+                    if (asn != null) {
+                        Long n = asn.getAutonomousSystemNumber();
+                        asnStr = n == null ? null : ("AS" + n);
+                        org = asn.getAutonomousSystemOrganization();
                     }
+                } catch (AddressNotFoundException ignored) {
+                    // No ASN info for this IP
                 }
+            }
 
-                boolean cityFilled = false;
-                if (cityReader != null) {
-                    try {
-                        CityResponse city = cityReader.city(addr);
-                        if (city != null) {
-                            if (city.getCountry() != null) {
-                                countryName = city.getCountry().getName();
-                                countryCode = city.getCountry().getIsoCode();
-                            }
-                            if (city.getMostSpecificSubdivision() != null) {
-                                regionName = city.getMostSpecificSubdivision().getName();
-                                regionCode = city.getMostSpecificSubdivision().getIsoCode();
-                            }
-                            if (city.getCity() != null) {
-                                cityName = city.getCity().getName();
-                            }
-                            if (city.getLocation() != null) {
-                                lat = city.getLocation().getLatitude();
-                                lon = city.getLocation().getLongitude();
-                                timezone = city.getLocation().getTimeZone();
-                            }
-                            cityFilled = true;
+            boolean cityFilled = false;
+            if (snapshot.city() != null) {
+                try {
+                    CityResponse city = snapshot.city().city(addr);
+                    if (city != null) {
+                        if (city.getCountry() != null) {
+                            countryName = city.getCountry().getName();
+                            countryCode = city.getCountry().getIsoCode();
+                        }
+                        if (city.getMostSpecificSubdivision() != null) {
+                            regionName = city.getMostSpecificSubdivision().getName();
+                            regionCode = city.getMostSpecificSubdivision().getIsoCode();
                         }
-                    } catch (AddressNotFoundException ignored) {
-                        // Not found in City DB
+                        if (city.getCity() != null) {
+                            cityName = city.getCity().getName();
+                        }
+                        if (city.getLocation() != null) {
+                            lat = city.getLocation().getLatitude();
+                            lon = city.getLocation().getLongitude();
+                            timezone = city.getLocation().getTimeZone();
+                        }
+                        cityFilled = true;
                     }
+                } catch (AddressNotFoundException ignored) {
+                    // Not found in City DB
                 }
+            }
 
-                // Country fallback (if City didn't fill country fields)
-                if (!cityFilled && countryReader != null) {
-                    try {
-                        CountryResponse c = countryReader.country(addr);
-                        if (c != null && c.getCountry() != null) {
-                            countryName = c.getCountry().getName();
-                            countryCode = c.getCountry().getIsoCode();
-                        }
-                    } catch (AddressNotFoundException ignored) {
-                        // No country info
+            // Country fallback (if City didn't fill country fields)
+            if (!cityFilled && snapshot.country() != null) {
+                try {
+                    CountryResponse c = snapshot.country().country(addr);
+                    if (c != null && c.getCountry() != null) {
+                        countryName = c.getCountry().getName();
+                        countryCode = c.getCountry().getIsoCode();
                     }
+                } catch (AddressNotFoundException ignored) {
+                    // No country info
                 }
-
-                IpData result = new IpData(
-                        countryName,
-                        countryCode,
-                        regionName,
-                        regionCode,
-                        cityName,
-                        lat == null ? 0.0 : lat,
-                        lon == null ? 0.0 : lon,
-                        timezone,
-                        isp, // GeoLite2 doesn't include ISP so remains null
-                        org,
-                        asnStr,
-                        ip
-                );
-
-                getCache().put(ip, result);
-                return result;
-
-            } finally {
-                rwLock.readLock().unlock();
             }
 
+            return new IpData(
+                    countryName,
+                    countryCode,
+                    regionName,
+                    regionCode,
+                    cityName,
+                    lat == null ? 0.0 : lat,
+                    lon == null ? 0.0 : lon,
+                    timezone,
+                    isp, // GeoLite2 doesn't include ISP so remains null
+                    org,
+                    asnStr,
+                    ip
+            );
         } catch (IOException | GeoIp2Exception e) {
             throw new DataFetchException("Failed GeoLite (ASN/City/Country) lookup for " + ip, e);
+        } finally {
+            snapshot.release();
         }
     }
 
     /**
-     * Ensures that the mmdb databases are downloaded and the readers are opened and fresh.
-     * @throws IOException if an I/O error occurs
-     * @throws DataFetchException if a download or extraction error occurs
+     * Looks up only the country, using the small Country DB and the City DB only if the Country DB is missing.
      */
-    private void ensureDatabasesReady() throws IOException, DataFetchException {
-        if (readersFresh()) return;
-
-        rwLock.writeLock().lock();
+    private IpData lookupCountry(Readers snapshot, InetAddress addr, String ip) throws IOException, GeoIp2Exception {
+        String countryName = null;
+        String countryCode = null;
         try {
-            if (readersFresh()) return;
-
-            Files.createDirectories(dataDir);
-
-            Path asnPath = dataDir.resolve(ASN_MMDB);
-            Path cityPath = dataDir.resolve(CITY_MMDB);
-            Path countryPath = dataDir.resolve(COUNTRY_MMDB);
-
-            if (needsDownload(asnPath, lastUpdatedAsn)) {
-                downloadSmart(asnUrl, asnPath, ASN_MMDB);
-                lastUpdatedAsn = Instant.now();
-            } else {
-                lastUpdatedAsn = Files.getLastModifiedTime(asnPath).toInstant();
-            }
-
-            if (needsDownload(cityPath, lastUpdatedCity)) {
-                downloadSmart(cityUrl, cityPath, CITY_MMDB);
-                lastUpdatedCity = Instant.now();
-            } else {
-                lastUpdatedCity = Files.getLastModifiedTime(cityPath).toInstant();
-            }
-
-            if (needsDownload(countryPath, lastUpdatedCountry)) {
-                downloadSmart(countryUrl, countryPath, COUNTRY_MMDB);
-                lastUpdatedCountry = Instant.now();
-            } else {
-                lastUpdatedCountry = Files.getLastModifiedTime(countryPath).toInstant();
+            if (snapshot.country() != null) {
+                CountryResponse c = snapshot.country().country(addr);
+                if (c != null && c.getCountry() != null) {
+                    countryName = c.getCountry().getName();
+                    countryCode = c.getCountry().getIsoCode();
+                }
+            } else if (snapshot.city() != null) {
+                CityResponse city = snapshot.city().city(addr);
+                if (city != null && city.getCountry() != null) {
+                    countryName = city.getCountry().getName();
+                    countryCode = city.getCountry().getIsoCode();
+                }
             }
-
-            // close old readers (if any) before reopening
-            closeQuietly(asnReader);
-            closeQuietly(cityReader);
-            closeQuietly(countryReader);
-
-            asnReader = Files.exists(asnPath)
-                    ? new DatabaseReader.Builder(asnPath.toFile()).withCache(new CHMCache()).build()
-                    : null;
-
-            cityReader = Files.exists(cityPath)
-                    ? new DatabaseReader.Builder(cityPath.toFile()).withCache(new CHMCache()).build()
-                    : null;
-
-            countryReader = Files.exists(countryPath)
-                    ? new DatabaseReader.Builder(countryPath.toFile()).withCache(new CHMCache()).build()
-                    : null;
-
-        } finally {
-            rwLock.writeLock().unlock();
+        } catch (AddressNotFoundException ignored) {
+            // No country info
         }
+        return new IpData(countryName, countryCode, null, null, null, 0.0, 0.0, null, null, null, null, ip);
     }
 
-    private boolean readersFresh() {
-        Instant now = Instant.now();
-        boolean asnOk     = asnReader     != null && now.isBefore(lastUpdatedAsn.plus(updateInterval));
-        boolean cityOk    = cityReader    != null && now.isBefore(lastUpdatedCity.plus(updateInterval));
-        boolean countryOk = countryReader != null && now.isBefore(lastUpdatedCountry.plus(updateInterval));
-        return asnOk && cityOk && countryOk;
-    }
-
-    private boolean needsDownload(Path p, Instant lastUpdated) throws IOException {
-        if (Files.notExists(p)) return true;
-        Instant mtime = Files.getLastModifiedTime(p).toInstant();
-        return mtime.isBefore(Instant.now().minus(updateInterval));
+    /**
+     * Takes a reference on the current snapshot, so its readers stay open until {@link Readers#release()}.
+     * @return the current snapshot, or null if no databases are open
+     */
+    private Readers acquireReaders() {
+        while (true) {
+            Readers current = readers.get();
+            if (current == null) return null;
+            if (current.retain()) return current;
+            // The snapshot was replaced and closed in between; try the new one
+        }
     }
 
     /**
-     * Downloads either a .mmdb directly or a .tar.gz and extracts the first matching .mmdb.
-     * @param urlStr Source URL (.mmdb or .tar.gz)
-     * @param dest Destination path for the .mmdb
-     * @param mmdbNameHint Preferred filename (e.g., "GeoLite2-City.mmdb") to select from tarball
+     * Downloads databases that are missing or older than the update interval and swaps in new readers
+     * if anything changed. Runs on the refresh executor, never on a lookup thread.
      */
-    private void downloadSmart(String urlStr, Path dest, String mmdbNameHint) throws IOException, DataFetchException {
-        String lower = urlStr.toLowerCase();
-        if (lower.endsWith(".mmdb")) {
-            downloadDirect(urlStr, dest);
-        } else if (lower.endsWith("tar.gz")) {
-            downloadAndExtractTarGz(urlStr, dest, mmdbNameHint);
-        } else {
-            Path tmp = Files.createTempFile("geolite-", ".bin");
-            try {
-                httpDownload(new URL(urlStr), tmp);
-                // Try reading as tar.gz; if it fails, assume raw mmdb
-                try (InputStream fis = Files.newInputStream(tmp);
-                     BufferedInputStream bis = new BufferedInputStream(fis)) {
-                    bis.mark(4);
-                    int b1 = bis.read();
-                    int b2 = bis.read();
-                    int b3 = bis.read();
-                    int b4 = bis.read();
-                    bis.reset();
-                    boolean looksGzip = (b1 == 0x1f && b2 == 0x8b && b3 == 0x08);
-                    if (looksGzip) {
-                        try (GZIPInputStream gis = new GZIPInputStream(bis);
-                             TarArchiveInputStream tis = new TarArchiveInputStream(gis)) {
-                            extractMmdbFromTarStream(tis, dest, mmdbNameHint);
-                        }
-                    } else {
-                        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-                    }
-                }
-            } finally {
-                try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+    private void refresh() {
+        try {
+            Files.createDirectories(dataDir);
+
+            // The three databases are downloaded in parallel
+            List<CompletableFuture<Boolean>> updates = List.of(
+                    CompletableFuture.supplyAsync(() -> updateDatabase(asnUrl, ASN_MMDB), refreshExecutor),
+                    CompletableFuture.supplyAsync(() -> updateDatabase(cityUrl, CITY_MMDB), refreshExecutor),
+                    CompletableFuture.supplyAsync(() -> updateDatabase(countryUrl, COUNTRY_MMDB), refreshExecutor)
+            );
+            boolean changed = false;
+            for (CompletableFuture<Boolean> update : updates) {
+                changed |= update.join();
             }
+            if (!changed && readers.get() != null) return;
+
+            Readers next = openReaders();
+            if (next == null) return;
+            Readers previous = readers.getAndSet(next);
+            if (previous != null) previous.retire();
+        } catch (Exception e) {
+            logger.warning("Failed to refresh GeoLite2 databases: " + e.getMessage());
         }
     }
 
-    private void downloadDirect(String urlStr, Path dest) throws IOException, DataFetchException {
-        logger.info("Downloading GeoLite2 mmdb from " + urlStr + " ...");
-        var start = Instant.now();
-        Path tmp = Files.createTempFile("geolite-", ".mmdb");
+    /**
+     * @return true if a new version of the database was downloaded
+     */
+    private boolean updateDatabase(String url, String name) {
+        Path path = dataDir.resolve(name);
         try {
-            httpDownload(new URL(urlStr), tmp);
-            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-            var duration = Duration.between(start, Instant.now()).toMillis();
-            logger.info("Downloaded GeoLite2 mmdb from " + urlStr + " in " + duration + " ms.");
-        } finally {
-            try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+            if (url.isBlank() || !needsDownload(path)) return false;
+            return new MmdbDownloader(logger, url, path, name).update();
+        } catch (Exception e) {
+            logger.warning("Failed to download " + name + ": " + e.getMessage());
+            return false;
         }
     }
 
-    private void downloadAndExtractTarGz(String urlStr, Path dest, String mmdbNameHint) throws IOException, DataFetchException {
-        logger.info("Downloading GeoLite2 tar.gz from " + urlStr + " ...");
-        var start = Instant.now();
-        Path tmp = Files.createTempFile("geolite-", ".tar.gz");
+    /**
+     * Opens readers for the databases that exist on disk, and warms them up if configured,
+     * so the first lookups do not have to wait for the data to be paged in.
+     * @return the opened readers, or null if none of the databases exist
+     */
+    private Readers openReaders() throws IOException {
+        long start = System.nanoTime();
+        DatabaseReader asn = null;
+        DatabaseReader city = null;
+        DatabaseReader country = null;
         try {
-            httpDownload(new URL(urlStr), tmp);
-            try (InputStream fis = Files.newInputStream(tmp);
-                 GZIPInputStream gis = new GZIPInputStream(fis);
-                 TarArchiveInputStream tis = new TarArchiveInputStream(gis)) {
-                extractMmdbFromTarStream(tis, dest, mmdbNameHint);
-                var duration = Duration.between(start, Instant.now()).toMillis();
-                logger.info("Downloaded and extracted GeoLite2 mmdb from " + urlStr + " in " + duration + " ms." );
-            }
-        } finally {
-            try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+            asn = openReader(dataDir.resolve(ASN_MMDB));
+            city = openReader(dataDir.resolve(CITY_MMDB));
+            country = openReader(dataDir.resolve(COUNTRY_MMDB));
+        } catch (IOException e) {
+            closeQuietly(asn);
+            closeQuietly(city);
+            throw e;
         }
-    }
+        if (asn == null && city == null && country == null) return null;
 
-    private void extractMmdbFromTarStream(TarArchiveInputStream tis, Path dest, String mmdbNameHint) throws IOException, DataFetchException {
-        TarArchiveEntry entry;
-        Path tmpOut = Files.createTempFile("geolite-extract-", ".mmdb");
-        boolean found = false;
-
-        try {
-            while ((entry = tis.getNextTarEntry()) != null) {
-                if (entry.isDirectory()) continue;
-                String name = entry.getName();
-                boolean isMmdb = name.endsWith(".mmdb");
-                boolean matchesHint = name.endsWith(mmdbNameHint);
-                if (isMmdb && (matchesHint || mmdbNameHint == null)) {
-                    try (OutputStream os = Files.newOutputStream(tmpOut, StandardOpenOption.TRUNCATE_EXISTING)) {
-                        tis.transferTo(os);
-                    }
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                throw new DataFetchException("MMDB file not found in tarball (looked for: " + mmdbNameHint + ").");
-            }
-            Files.move(tmpOut, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } finally {
-            try { Files.deleteIfExists(tmpOut); } catch (Exception ignored) {}
+        long bytes = 0;
+        for (String name : new String[] {ASN_MMDB, CITY_MMDB, COUNTRY_MMDB}) {
+            Path path = dataDir.resolve(name);
+            if (Files.exists(path)) bytes += Files.size(path);
         }
+        logger.info(memoryReport(bytes, (System.nanoTime() - start) / 1_000_000));
+        return new Readers(asn, city, country, compileCountryIndex());
     }
 
-    private void httpDownload(URL url, Path dest) throws IOException, DataFetchException {
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setInstanceFollowRedirects(true);
-        conn.setRequestMethod("GET");
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(20000);
-
-        int code = conn.getResponseCode();
-        if (code >= 400) {
-            String err = readStream(conn.getErrorStream());
-            throw new DataFetchException("Failed to download " + url + " (HTTP " + code + ") – " + err);
+    /**
+     * Walks the Country database, or the City database if there is no Country database, and compiles the
+     * networks of the indexed countries into range sets.
+     * @return the index, or null if no countries are indexed or the index could not be built
+     */
+    private CountryRangeIndex compileCountryIndex() {
+        if (indexedCountries.isEmpty()) return null;
+        Path path = dataDir.resolve(COUNTRY_MMDB);
+        if (Files.notExists(path)) path = dataDir.resolve(CITY_MMDB);
+        if (Files.notExists(path)) return null;
+
+        long start = System.nanoTime();
+        try (Reader reader = new Reader(path.toFile(), Reader.FileMode.MEMORY_MAPPED, new CHMCache())) {
+            CountryRangeIndex index = CountryRangeIndex.compile(reader, indexedCountries);
+            logger.info("Compiled " + index.size() + " GeoLite2 ranges for " + indexedCountries.size()
+                    + " countries in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            return index;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Failed to compile the GeoLite2 country ranges, geo-blocking falls back to lookups: " + e.getMessage());
+            return null;
         }
+    }
 
-        try (InputStream in = conn.getInputStream();
-             OutputStream out = Files.newOutputStream(dest, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            in.transferTo(out);
-        }
+    private DatabaseReader openReader(Path path) throws IOException {
+        if (Files.notExists(path)) return null;
+        if (fileMode == GeoLite2Config.FileMode.MMAP && warmup) touchPages(path);
+        Reader.FileMode mode = fileMode == GeoLite2Config.FileMode.MEMORY ? Reader.FileMode.MEMORY : Reader.FileMode.MEMORY_MAPPED;
+        NodeCache cache = nodeCacheSize > 0 ? new CHMCache(nodeCacheSize) : NoCache.getInstance();
+        return new DatabaseReader.Builder(path.toFile()).fileMode(mode).withCache(cache).build();
     }
 
-    private static String readStream(InputStream in) throws IOException {
-        if (in == null) return "";
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(in))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            return sb.toString();
+    /**
+     * Loads every page of the file into the page cache, so the reader's own mapping of the same file
+     * does not have to read from disk on first use.
+     */
+    private static void touchPages(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).load();
         }
     }
 
+    /**
+     * Describes how much memory the databases take in the configured mode, so the mode can be picked per host.
+     */
+    private String memoryReport(long bytes, long openMillis) {
+        String size = String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+        String where = switch (fileMode) {
+            case MEMORY -> size + " on the heap";
+            case MMAP -> size + " memory-mapped outside the heap" + (warmup ? ", preloaded" : ", paged in on demand");
+        };
+        String cache = nodeCacheSize > 0 ? "node cache of up to " + nodeCacheSize + " records per database" : "no node cache";
+        return "Opened GeoLite2 databases in " + openMillis + " ms: " + where + ", " + cache + ".";
+    }
+
+    private boolean needsDownload(Path p) throws IOException {
+        if (Files.notExists(p)) return true;
+        Instant mtime = Files.getLastModifiedTime(p).toInstant();
+        return mtime.isBefore(Instant.now().minus(updateInterval));
+    }
+
     private static void closeQuietly(Closeable c) {
         if (c == null) return;
         try { c.close(); } catch (IOException ignored) {}
@@ -424,16 +442,52 @@ public final class GeoLite2Fetcher extends IpDataFetcher {
 
     @Override
     public void onShutDown() {
-        rwLock.writeLock().lock();
-        try {
-            closeQuietly(asnReader);
-            closeQuietly(cityReader);
-            closeQuietly(countryReader);
-            asnReader = null;
-            cityReader = null;
-            countryReader = null;
-        } finally {
-            rwLock.writeLock().unlock();
+        refreshExecutor.shutdownNow();
+        Readers previous = readers.getAndSet(null);
+        if (previous != null) previous.retire();
+    }
+
+    /**
+     * The open GeoLite2 readers and the country index compiled from them.
+     */
+    private static final class Readers extends RefCountedSnapshot {
+        private final DatabaseReader asn;
+        private final DatabaseReader city;
+        private final DatabaseReader country;
+        private final CountryRangeIndex countryIndex;
+
+        Readers(DatabaseReader asn, DatabaseReader city, DatabaseReader country, CountryRangeIndex countryIndex) {
+            this.asn = asn;
+            this.city = city;
+            this.country = country;
+            this.countryIndex = countryIndex;
+        }
+
+        DatabaseReader asn() {
+            return asn;
+        }
+
+        DatabaseReader city() {
+            return city;
+        }
+
+        DatabaseReader country() {
+            return country;
+        }
+
+        /**
+         * @return the compiled country ranges, or null if there are none. The index lives on the heap,
+         *         so it can be used without a reference on the snapshot.
+         */
+        CountryRangeIndex countryIndex() {
+            return countryIndex;
+        }
+
+        @Override
+        protected void close() {
+            closeQuietly(asn);
+            closeQuietly(city);
+            closeQuietly(country);
         }
     }
-}
\ No newline at end of file
+}
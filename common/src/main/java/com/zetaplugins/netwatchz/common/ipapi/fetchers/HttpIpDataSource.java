@@ -0,0 +1,91 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.ResponseParser;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Abstract class for fetching IP data from various APIs.
+ * This class provides a method to fetch data from a URL and parse the response.
+ */
+public abstract class HttpIpDataSource implements IpDataSource {
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 5_000;
+
+    protected abstract String getApiUrl();
+
+    /**
+     * APIs return everything they know about an IP, so the fields are ignored.
+     */
+    @Override
+    public IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException {
+        return loadIpData(ip);
+    }
+
+    /**
+     * Fetches IP data from the API.
+     * @param ip the IP address to fetch data for
+     * @throws DataFetchException if an error occurs while fetching the data
+     * @return the IP data, or null if the API has no data for the IP
+     */
+    protected IpData loadIpData(String ip) throws DataFetchException {
+        try {
+            URL url = new URL(getApiUrl() + ip);
+            return fetchFromApi(url, this::parseIpData);
+        } catch (Exception e) {
+            throw new DataFetchException("Failed to fetch IP data from " + getApiUrl() + ip, e);
+        }
+    }
+
+    /**
+     * Parses the JSON response to create an IpData object.
+     * @param response the body of the API response
+     * @throws IOException if the response can't be read or is not valid JSON
+     * @return an IpData object containing the parsed data, or null if the provider has no data for the IP
+     */
+    protected abstract IpData parseIpData(InputStream response) throws IOException;
+
+    /**
+     * Fetches data from the specified URL and parses the response while it is being read.
+     * @param url the URL to fetch data from
+     * @param headers optional headers to include in the request
+     * @param parser parses the response body
+     * @throws IOException if an error occurs while fetching or parsing the data
+     * @return the parsed data
+     */
+    protected <T> T fetchFromApi(URL url, Map<String, String> headers, ResponseParser<T> parser) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        try (InputStream response = connection.getInputStream()) {
+            return parser.parse(response);
+        }
+    }
+
+    /**
+     * Fetches data from the specified URL and parses the response while it is being read.
+     * @param url the URL to fetch data from
+     * @param parser parses the response body
+     * @throws IOException if an error occurs while fetching or parsing the data
+     * @return the parsed data
+     */
+    protected <T> T fetchFromApi(URL url, ResponseParser<T> parser) throws IOException {
+        return fetchFromApi(url, null, parser);
+    }
+}
@@ -1,20 +1,37 @@
 package com.zetaplugins.netwatchz.common.ipapi.fetchers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Fetches IP data from the ip-api.com service.
  */
-public final class IpApiCom extends IpDataFetcher {
+public final class IpApiCom extends HttpIpDataSource {
     private static final String API_URL = "http://ip-api.com/json/";
 
-    public IpApiCom(Cache<@NotNull String, IpData> cache) {
-        super(cache);
+    private static final JsonSelector SELECTOR;
+    private static final int STATUS, COUNTRY, COUNTRY_CODE, REGION_NAME, REGION, CITY, LAT, LON, TIMEZONE, ISP, ORG, AS, QUERY;
+
+    static {
+        JsonSelector.Builder builder = JsonSelector.builder();
+        STATUS = builder.add("status");
+        COUNTRY = builder.add("country");
+        COUNTRY_CODE = builder.add("countryCode");
+        REGION_NAME = builder.add("regionName");
+        REGION = builder.add("region");
+        CITY = builder.add("city");
+        LAT = builder.add("lat");
+        LON = builder.add("lon");
+        TIMEZONE = builder.add("timezone");
+        ISP = builder.add("isp");
+        ORG = builder.add("org");
+        AS = builder.add("as");
+        QUERY = builder.add("query");
+        SELECTOR = builder.build();
     }
 
     @Override
@@ -23,26 +40,25 @@ public final class IpApiCom extends IpDataFetcher {
     }
 
     @Override
-    protected IpData parseIpData(String jsonResponse) throws ParseException {
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
+    protected IpData parseIpData(InputStream response) throws IOException {
+        JsonValues json = SELECTOR.decode(response);
 
-        boolean success = json.get("status").equals("success");
+        boolean success = "success".equals(json.getString(STATUS));
         if (!success) return null;
 
         return new IpData(
-            (String) json.get("country"),
-            (String) json.get("countryCode"),
-            (String) json.get("regionName"),
-            (String) json.get("region"),
-            (String) json.get("city"),
-            ((Number) json.get("lat")).doubleValue(),
-            ((Number) json.get("lon")).doubleValue(),
-            (String) json.get("timezone"),
-            (String) json.get("isp"),
-            (String) json.get("org"),
-            (String) json.get("as"),
-            (String) json.get("query")
+            json.getString(COUNTRY),
+            json.getString(COUNTRY_CODE),
+            json.getString(REGION_NAME),
+            json.getString(REGION),
+            json.getString(CITY),
+            json.getDouble(LAT, 0),
+            json.getDouble(LON, 0),
+            json.getString(TIMEZONE),
+            json.getString(ISP),
+            json.getString(ORG),
+            json.getString(AS),
+            json.getString(QUERY)
         );
     }
 }
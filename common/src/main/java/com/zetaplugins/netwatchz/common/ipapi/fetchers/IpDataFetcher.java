@@ -1,149 +1,309 @@
 package com.zetaplugins.netwatchz.common.ipapi.fetchers;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.zetaplugins.netwatchz.common.AddressKey;
+import com.zetaplugins.netwatchz.common.CacheMetrics;
 import com.zetaplugins.netwatchz.common.CacheUtils;
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
+import com.zetaplugins.netwatchz.common.LatencyTracker;
+import com.zetaplugins.netwatchz.common.LookupResult;
+import com.zetaplugins.netwatchz.common.ProviderRouter;
+import com.zetaplugins.netwatchz.common.StringDictionary;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
+import com.zetaplugins.netwatchz.common.config.CsvProviderConfig;
 import com.zetaplugins.netwatchz.common.config.CustomProviderConfig;
 import com.zetaplugins.netwatchz.common.config.GeoLite2Config;
 import com.zetaplugins.netwatchz.common.config.IpInfoProviderConfig;
+import com.zetaplugins.netwatchz.common.config.MmdbProviderConfig;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.CompactIpData;
+import com.zetaplugins.netwatchz.common.ipapi.CountryMatch;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.RangeTableCompiler;
 import com.zetaplugins.netwatchz.common.DataFetchException;
 import org.jetbrains.annotations.NotNull;
-import org.json.simple.parser.ParseException;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Map;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 /**
- * Abstract class for fetching IP data from various APIs.
- * This class provides a method to fetch data from a URL and parse the response.
+ * Looks up IP data from an {@link IpDataSource} and caches the results.
+ * Only this outermost fetcher owns a cache; the providers of a chain are plain sources.
  */
-public abstract class IpDataFetcher {
-    private final Cache<@NotNull String, IpData> cache;
+public final class IpDataFetcher {
+    /** Number of recent lookups per provider the hedge delay is estimated from */
+    private static final int LATENCY_SAMPLES = 128;
+
+    private final StringDictionary dictionary = new StringDictionary();
+    private final AsyncLoadingCache<@NotNull AddressKey, CompactIpData> cache;
+    private final Cache<@NotNull AddressKey, LookupResult.Status> negativeCache = CacheUtils.createNegativeCache();
+    private final Duration ttl;
+    private final int prefixLengthV4;
+    private final int prefixLengthV6;
+    private final boolean geoOnly;
+    private final IpDataSource source;
 
-    public IpDataFetcher(Cache<@NotNull String, IpData> cache) {
-        this.cache = cache;
+    /**
+     * @param cacheSettings settings for the IP data cache
+     * @param source the source the data is looked up from
+     */
+    public IpDataFetcher(CacheConfig.CacheSettings cacheSettings, IpDataSource source) {
+        this.source = source;
+        this.ttl = cacheSettings.ttl();
+        this.prefixLengthV4 = cacheSettings.prefixLengthV4();
+        this.prefixLengthV6 = cacheSettings.prefixLengthV6();
+        this.geoOnly = cacheSettings.aggregatesByPrefix();
+        // Refreshes look up the key itself, which is the network address if entries are shared by a prefix,
+        // for the same fields the entry was looked up for
+        this.cache = CacheUtils.createIpApiCache(cacheSettings, new CacheLoader<>() {
+            @Override
+            public CompactIpData load(@NotNull AddressKey key) throws DataFetchException {
+                return loadForCache(key.toString(), IpDataFields.FULL);
+            }
+
+            @Override
+            public CompactIpData reload(@NotNull AddressKey key, @NotNull CompactIpData oldValue) throws DataFetchException {
+                return loadForCache(key.toString(), oldValue.fields());
+            }
+        });
     }
 
     /**
      * Creates an IpDataFetcher instance based on the provided configuration.
+     * The selected provider and its fallbacks are wrapped in a {@link FailoverIpDataFetcher},
+     * so even a single provider is skipped quickly while it is down, slow lookups can be hedged
+     * and the providers can be ordered by their observed health.
      * @param cfg configuration containing provider settings
+     * @param cacheSettings settings for the IP data cache
      * @param logger logger for logging fetch results
      * @return IpDataFetcher instance
      */
-    public static IpDataFetcher fromConfig(IpInfoProviderConfig cfg, Logger logger) {
-        switch (cfg.provider()) {
+    public static IpDataFetcher fromConfig(IpInfoProviderConfig cfg, CacheConfig.CacheSettings cacheSettings, Logger logger) {
+        ProviderRouter router = new ProviderRouter(cfg.routing());
+        List<FailoverIpDataFetcher.Member> members = new ArrayList<>();
+        for (IpInfoProviderConfig.Provider provider : cfg.chain()) {
+            IpDataSource source = createProvider(provider, cfg, logger);
+            if (source == null) {
+                logger.warning("IP info provider " + provider.configName() + " is not configured; leaving it out.");
+                continue;
+            }
+            members.add(createMember(provider, source, cfg, router, logger));
+        }
+        if (members.isEmpty()) {
+            IpInfoProviderConfig.Provider fallback = IpInfoProviderConfig.Provider.IP_API;
+            members.add(createMember(fallback, new IpApiCom(), cfg, router, logger));
+        }
+        return new IpDataFetcher(cacheSettings, new FailoverIpDataFetcher(members, cfg.hedging(), router));
+    }
+
+    private static FailoverIpDataFetcher.Member createMember(IpInfoProviderConfig.Provider provider, IpDataSource source,
+                                                             IpInfoProviderConfig cfg, ProviderRouter router, Logger logger) {
+        return new FailoverIpDataFetcher.Member(
+                source,
+                new CircuitBreaker(provider.configName(), cfg.circuitBreaker(), logger),
+                new LatencyTracker(LATENCY_SAMPLES),
+                router.newHealth()
+        );
+    }
+
+    private static IpDataSource createProvider(IpInfoProviderConfig.Provider provider, IpInfoProviderConfig cfg, Logger logger) {
+        switch (provider) {
             case IPWHOIS:
-                return new IpWhois(CacheUtils.createIpApiCache());
+                return new IpWhois();
             case GEOLITE2:
                 GeoLite2Config g = cfg.geoLite2();
-                if (g == null) return new IpApiCom(CacheUtils.createIpApiCache());
+                if (g == null) return null;
                 return new GeoLite2Fetcher(
                         logger,
-                        CacheUtils.createIpApiCache(),
                         g.storageDir(),
                         g.updateIntervalDays(),
                         g.asnUrl(),
                         g.cityUrl(),
-                        g.countryUrl()
+                        g.countryUrl(),
+                        g.fileMode(),
+                        g.nodeCacheSize(),
+                        g.warmup(),
+                        g.indexedCountries()
                 );
             case CUSTOM:
                 CustomProviderConfig c = cfg.custom();
-                if (c == null) return new IpApiCom(CacheUtils.createIpApiCache());
-                return new CustomIpDataFetcher(CacheUtils.createIpApiCache(), c.apiUrl(), c.headers(), c.parseFields());
+                if (c == null) return null;
+                return new CustomIpDataFetcher(c.apiUrl(), c.headers(), c.parseFields());
+            case MMDB:
+                MmdbProviderConfig m = cfg.mmdb();
+                if (m == null) return null;
+                return new MmdbIpDataFetcher(
+                        logger,
+                        m.file(),
+                        m.url(),
+                        m.updateInterval(),
+                        m.fileMode(),
+                        m.nodeCacheSize(),
+                        m.fields()
+                );
+            case CSV:
+                CsvProviderConfig csv = cfg.csv();
+                if (csv == null) return null;
+                return new CsvIpDataFetcher(logger, csv.file(),
+                        new RangeTableCompiler.Layout(csv.startColumn(), csv.endColumn(), csv.columns()));
             default:
-                return new IpApiCom(CacheUtils.createIpApiCache());
+                return new IpApiCom();
         }
     }
 
-    protected Cache<@NotNull String, IpData> getCache() {
-        return cache;
+    /**
+     * @return the source the data is looked up from, e.g. the {@link FailoverIpDataFetcher} chain
+     */
+    public IpDataSource getSource() {
+        return source;
     }
 
-    protected abstract String getApiUrl();
+    /**
+     * @return a snapshot of the statistics of the cache
+     */
+    public CacheMetrics getCacheMetrics() {
+        return CacheUtils.snapshot("ip_data", cache.synchronous());
+    }
 
     /**
      * Fetches IP data for the given IP address.
      * @param ip the IP address to fetch data for
      * @throws DataFetchException if an error occurs while fetching the data
-     * @return the IP data for the specified IP address
+     * @return the IP data for the specified IP address, or null if the provider has no data for it
      */
     public IpData fetchIpData(String ip) throws DataFetchException {
-        if (ip == null || ip.isEmpty()) {
-            throw new DataFetchException("IP address cannot be null or empty");
-        }
-
-        if (getCache().getIfPresent(ip) != null) {
-            return getCache().getIfPresent(ip);
-        }
+        return fetchIpData(ip, IpDataFields.FULL);
+    }
 
-        try {
-            URL url = new URL(getApiUrl() + ip);
-            String jsonResponse = fetchFromApi(url);
-            IpData data = parseIpData(jsonResponse);
-            if (data == null) return null;
-            getCache().put(ip, data);
-            return data;
-        } catch (Exception e) {
-            throw new DataFetchException("Failed to fetch IP data from " + getApiUrl() + ip, e);
+    /**
+     * Fetches the given fields of the IP data for the given IP address.
+     * @param ip the IP address to fetch data for
+     * @param fields the fields that are needed
+     * @throws DataFetchException if an error occurs while fetching the data
+     * @return the IP data for the specified IP address, or null if the provider has no data for it
+     */
+    public IpData fetchIpData(String ip, IpDataFields fields) throws DataFetchException {
+        LookupResult<IpData> result = lookupIpData(ip, fields);
+        if (result.status() == LookupResult.Status.FAILED) {
+            if (result.cause() instanceof DataFetchException e) throw e;
+            throw new DataFetchException("Lookup for " + ip + " failed recently, not retrying yet", result.cause());
         }
+        return result.data();
     }
 
     /**
-     * Parses the JSON response to create an IpData object.
-     * @param jsonResponse the JSON response from the API
-     * @throws ParseException if an error occurs while parsing the JSON
-     * @return an IpData object containing the parsed data
+     * Looks up IP data for the given IP address without throwing.
+     * Lookups that return no data or fail are cached for a short time, so repeated connections
+     * from the same IP don't hit the provider again. Entries past their ttl are still served
+     * (flagged as stale) while they are refreshed in the background.
+     * @param ip the IP address to look up
+     * @return the result of the lookup
      */
-    protected abstract IpData parseIpData(String jsonResponse) throws ParseException;
+    public LookupResult<IpData> lookupIpData(String ip) {
+        return lookupIpData(ip, IpDataFields.FULL);
+    }
 
     /**
-     * Fetches data from the specified URL.
-     * @param url the URL to fetch data from
-     * @param headers optional headers to include in the request
-     * @throws IOException if an error occurs while fetching the data
-     * @return the response as a String
+     * Looks up the given fields of the IP data for the given IP address without throwing.
+     * Providers that support it only look up the needed fields. A cached entry from a narrower lookup
+     * is filled in when more fields are needed.
+     * @param ip the IP address to look up
+     * @param fields the fields that are needed; the result may contain more
+     * @return the result of the lookup
      */
-    protected String fetchFromApi(URL url, Map<String, String> headers) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-        connection.setRequestMethod("GET");
+    public LookupResult<IpData> lookupIpData(String ip, IpDataFields fields) {
+        if (ip == null || ip.isEmpty()) {
+            return LookupResult.failed(new DataFetchException("IP address cannot be null or empty"));
+        }
 
-        if (headers != null) {
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                connection.setRequestProperty(header.getKey(), header.getValue());
-            }
+        AddressKey address = AddressKey.parse(ip);
+        if (address == null) {
+            return LookupResult.failed(new DataFetchException("Not a valid IP address: " + ip));
         }
+        AddressKey key = address.prefix(prefixLengthV4, prefixLengthV6);
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            StringBuilder response = new StringBuilder();
-            String line;
+        LookupResult.Status negative = negativeCache.getIfPresent(key);
+        if (negative != null) return LookupResult.unknown(negative);
 
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+        try {
+            // Loading through the cache records the load time and coalesces concurrent lookups of the same key.
+            // The first lookup of a prefix asks the provider for the connecting address rather than the network address.
+            CompactIpData compact = cache.get(key, (k, executor) -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return loadForCache(ip, fields);
+                } catch (DataFetchException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor)).join();
+            if (compact == null) {
+                negativeCache.put(key, LookupResult.Status.NOT_FOUND);
+                return LookupResult.notFound();
             }
-
-            return response.toString();
+            if (!compact.fields().covers(fields)) return fillIn(ip, key, fields);
+            IpData data = compact.toIpData(ip, dictionary);
+            return CacheUtils.isStale(cache, key, ttl) ? LookupResult.stale(data) : LookupResult.found(data);
+        } catch (CompletionException | CancellationException e) {
+            negativeCache.put(key, LookupResult.Status.FAILED);
+            return LookupResult.failed(e.getCause() != null ? e.getCause() : e);
         }
     }
 
     /**
-     * Fetches data from the specified URL.
-     * @param url the URL to fetch data from
-     * @throws IOException if an error occurs while fetching the data
-     * @return the response as a String
+     * Checks whether an IP is in one of the given countries using a precompiled range index, without a lookup.
+     * @param ip the IP address to check
+     * @param countries the country codes, e.g. the geo-blocking list
+     * @return the answer, or null if the source has no index for exactly these countries and
+     *         {@link #lookupIpData(String, IpDataFields)} is needed
      */
-    protected String fetchFromApi(URL url) throws IOException {
-        return fetchFromApi(url, null);
+    public @Nullable CountryMatch matchCountry(String ip, Collection<String> countries) {
+        return source.matchCountry(ip, countries);
     }
 
     /**
-     * Called when the application is shutting down.
-     * Can be overridden by subclasses to perform cleanup tasks.
+     * Looks up the autonomous system of an IP in a local database, without a remote call.
+     * @param ip the IP address to look up
+     * @return the autonomous system, or null if the source has no local ASN data or none for the IP
      */
-    public void onShutDown() {}
+    public @Nullable AsnInfo lookupAsn(String ip) {
+        return source.lookupAsn(ip);
+    }
+
+    /**
+     * Looks up more fields for an IP whose cached entry came from a narrower lookup and replaces the entry.
+     * A failure here is not cached negatively, since the narrower entry is still valid.
+     */
+    private LookupResult<IpData> fillIn(String ip, AddressKey key, IpDataFields fields) {
+        try {
+            CompactIpData compact = loadForCache(ip, fields);
+            if (compact == null) return LookupResult.notFound();
+            cache.put(key, CompletableFuture.completedFuture(compact));
+            return LookupResult.found(compact.toIpData(ip, dictionary));
+        } catch (DataFetchException e) {
+            return LookupResult.failed(e);
+        }
+    }
+
+    private CompactIpData loadForCache(String ip, IpDataFields fields) throws DataFetchException {
+        IpData data = source.loadIpData(ip, fields);
+        if (data == null) return null;
+        IpDataFields loaded = source.supportsPartialLookups() ? fields : IpDataFields.FULL;
+        return CompactIpData.of(geoOnly ? data.geoOnly() : data, loaded, dictionary);
+    }
+
+    /**
+     * Called when the application is shutting down, shuts down the source.
+     */
+    public void onShutDown() {
+        source.onShutDown();
+    }
 }
@@ -0,0 +1,59 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.CountryMatch;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Looks up IP data without caching it. Implemented by the providers, by HTTP APIs through {@link HttpIpDataSource},
+ * and by the {@link FailoverIpDataFetcher} chain of providers. The cache is owned by the {@link IpDataFetcher}
+ * that wraps the outermost source.
+ */
+public interface IpDataSource {
+    /**
+     * Fetches the given fields of the IP data for an IP address.
+     * Sources that can't look up fewer fields return everything they know.
+     * @param ip the IP address to fetch data for
+     * @param fields the fields that are needed
+     * @throws DataFetchException if an error occurs while fetching the data
+     * @return the IP data, or null if the source has no data for the IP
+     */
+    IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException;
+
+    /**
+     * @return true if {@link #loadIpData(String, IpDataFields)} may return only the requested fields,
+     *         false if this source always returns everything it knows
+     */
+    default boolean supportsPartialLookups() {
+        return false;
+    }
+
+    /**
+     * Checks whether an IP is in one of the given countries using a precompiled range index, without a lookup.
+     * @param ip the IP address to check
+     * @param countries the country codes, e.g. the geo-blocking list
+     * @return the answer, or null if this source has no index for exactly these countries
+     */
+    default @Nullable CountryMatch matchCountry(String ip, Collection<String> countries) {
+        return null;
+    }
+
+    /**
+     * Looks up the autonomous system of an IP in a local database, without a remote call.
+     * @param ip the IP address to look up
+     * @return the autonomous system, or null if this source has no local ASN data or none for the IP
+     */
+    default @Nullable AsnInfo lookupAsn(String ip) {
+        return null;
+    }
+
+    /**
+     * Called when the application is shutting down, to stop background tasks and close files.
+     */
+    default void onShutDown() {}
+}
@@ -1,20 +1,36 @@
 package com.zetaplugins.netwatchz.common.ipapi.fetchers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Fetches IP data from the IpWhois API.
  */
-public final class IpWhois extends IpDataFetcher {
+public final class IpWhois extends HttpIpDataSource {
     private static final String API_URL = "https://ipwhois.app/json/";
 
-    public IpWhois(Cache<@NotNull String, IpData> cache) {
-        super(cache);
+    private static final JsonSelector SELECTOR;
+    private static final int SUCCESS, COUNTRY, COUNTRY_CODE, REGION, CITY, LATITUDE, LONGITUDE, TIMEZONE, ISP, ORG, ASN, IP;
+
+    static {
+        JsonSelector.Builder builder = JsonSelector.builder();
+        SUCCESS = builder.add("success");
+        COUNTRY = builder.add("country");
+        COUNTRY_CODE = builder.add("country_code");
+        REGION = builder.add("region");
+        CITY = builder.add("city");
+        LATITUDE = builder.add("latitude");
+        LONGITUDE = builder.add("longitude");
+        TIMEZONE = builder.add("timezone");
+        ISP = builder.add("isp");
+        ORG = builder.add("org");
+        ASN = builder.add("asn");
+        IP = builder.add("ip");
+        SELECTOR = builder.build();
     }
 
     @Override
@@ -23,26 +39,25 @@ public final class IpWhois extends IpDataFetcher {
     }
 
     @Override
-    protected IpData parseIpData(String jsonResponse) throws ParseException {
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
+    protected IpData parseIpData(InputStream response) throws IOException {
+        JsonValues json = SELECTOR.decode(response);
 
-        boolean success = (Boolean) json.get("success");
+        boolean success = json.getBoolean(SUCCESS, false);
         if (!success) return null;
 
         return new IpData(
-                (String) json.get("country"),
-                (String) json.get("country_code"),
-                (String) json.get("region"),
-                (String) json.get("region"),
-                (String) json.get("city"),
-                ((Number) json.get("latitude")).doubleValue(),
-                ((Number) json.get("longitude")).doubleValue(),
-                (String) json.get("timezone"),
-                (String) json.get("isp"),
-                (String) json.get("org"),
-                (String) json.get("asn"),
-                (String) json.get("ip")
+                json.getString(COUNTRY),
+                json.getString(COUNTRY_CODE),
+                json.getString(REGION),
+                json.getString(REGION),
+                json.getString(CITY),
+                json.getDouble(LATITUDE, 0),
+                json.getDouble(LONGITUDE, 0),
+                json.getString(TIMEZONE),
+                json.getString(ISP),
+                json.getString(ORG),
+                json.getString(ASN),
+                json.getString(IP)
         );
     }
 
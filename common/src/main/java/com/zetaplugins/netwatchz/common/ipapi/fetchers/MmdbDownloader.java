@@ -0,0 +1,401 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads a single MMDB database, e.g. a GeoLite2 database, into the data directory.
+ * <ul>
+ *     <li>Requests are conditional: the ETag and Last-Modified of the previous download are sent along, and for
+ *     MaxMind URLs the published sha256 of the archive is compared first, so an unchanged database is not
+ *     downloaded again.</li>
+ *     <li>The response body is kept in a .part file while it is being read. If the download breaks off, the next
+ *     attempt asks only for the missing bytes with a Range request.</li>
+ *     <li>Archives are extracted straight from the response body, hashing the bytes on the way. The extracted
+ *     database replaces the old one only once the hash matches the published checksum.</li>
+ * </ul>
+ */
+final class MmdbDownloader {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 20000;
+    private static final int MAX_ATTEMPTS = 2;
+    private static final int TAR_MAGIC_OFFSET = 257;
+    private static final byte[] TAR_MAGIC = {'u', 's', 't', 'a', 'r'};
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last_modified";
+    private static final String SHA256 = "sha256";
+    private static final String PART_VALIDATOR = "part_validator";
+
+    private final Logger logger;
+    private final String url;
+    private final Path dest;
+    private final String mmdbName;
+    private final String entryName;
+    private final Path partFile;
+    private final Path metaFile;
+
+    /**
+     * @param logger Logger to use for messages
+     * @param url Source URL (.mmdb, .mmdb.gz or .tar.gz)
+     * @param dest Destination path for the .mmdb
+     * @param mmdbName Filename (e.g., "GeoLite2-City.mmdb") to select from the tarball
+     */
+    MmdbDownloader(Logger logger, String url, Path dest, String mmdbName) {
+        this(logger, url, dest, mmdbName, mmdbName);
+    }
+
+    /**
+     * @param logger Logger to use for messages
+     * @param url Source URL (.mmdb, .mmdb.gz or .tar.gz)
+     * @param dest Destination path for the .mmdb
+     * @param mmdbName Name of the database, used for the download state files and messages
+     * @param entryName Filename to select from the tarball, or null for the first .mmdb in it
+     */
+    MmdbDownloader(Logger logger, String url, Path dest, String mmdbName, String entryName) {
+        this.logger = logger;
+        this.url = url;
+        this.dest = dest;
+        this.mmdbName = mmdbName;
+        this.entryName = entryName;
+        this.partFile = dest.resolveSibling(mmdbName + ".part");
+        this.metaFile = dest.resolveSibling(mmdbName + ".meta");
+    }
+
+    /**
+     * Downloads the database if the upstream file changed since the last download.
+     * @return true if a new database was written to the destination
+     */
+    boolean update() throws IOException, DataFetchException {
+        Properties meta = loadMeta();
+        String expectedSha = fetchPublishedChecksum();
+        if (expectedSha != null && Files.exists(dest) && expectedSha.equalsIgnoreCase(meta.getProperty(SHA256))) {
+            markChecked();
+            return false;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return download(meta, expectedSha);
+            } catch (RangeNotSatisfiableException e) {
+                // The partial download no longer fits the upstream file; start over
+                Files.deleteIfExists(partFile);
+                meta.remove(PART_VALIDATOR);
+                if (attempt >= MAX_ATTEMPTS) throw new DataFetchException("Failed to resume download of " + mmdbName);
+            }
+        }
+    }
+
+    private boolean download(Properties meta, String expectedSha) throws IOException, DataFetchException {
+        long resumeFrom = Files.exists(partFile) ? Files.size(partFile) : 0;
+        String partValidator = meta.getProperty(PART_VALIDATOR);
+        if (partValidator == null) resumeFrom = 0;
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setInstanceFollowRedirects(true);
+        conn.setRequestMethod("GET");
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        if (resumeFrom > 0) {
+            conn.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            conn.setRequestProperty("If-Range", partValidator);
+        } else if (Files.exists(dest)) {
+            if (meta.getProperty(ETAG) != null) conn.setRequestProperty("If-None-Match", meta.getProperty(ETAG));
+            if (meta.getProperty(LAST_MODIFIED) != null) conn.setRequestProperty("If-Modified-Since", meta.getProperty(LAST_MODIFIED));
+        }
+
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            conn.disconnect();
+            markChecked();
+            return false;
+        }
+        if (code == 416) {
+            conn.disconnect();
+            throw new RangeNotSatisfiableException();
+        }
+        if (code >= 400) {
+            String err = readStream(conn.getErrorStream());
+            throw new DataFetchException("Failed to download " + mmdbName + " (HTTP " + code + ") – " + err);
+        }
+
+        boolean resumed = code == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0;
+        if (resumed && !contentRangeStartsAt(conn.getHeaderField("Content-Range"), resumeFrom)) {
+            conn.disconnect();
+            throw new RangeNotSatisfiableException();
+        }
+        if (!resumed) resumeFrom = 0;
+
+        String etag = conn.getHeaderField("ETag");
+        String lastModified = conn.getHeaderField("Last-Modified");
+        String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        if (validator != null) {
+            meta.setProperty(PART_VALIDATOR, validator);
+        } else {
+            meta.remove(PART_VALIDATOR);
+        }
+        saveMeta(meta);
+
+        logger.info((resumed ? "Resuming download of " + mmdbName + " at " + resumeFrom + " bytes" : "Downloading " + mmdbName) + " ...");
+        Instant start = Instant.now();
+        Path tmp = Files.createTempFile(dest.getParent(), "mmdb-", ".mmdb");
+        try {
+            String actualSha;
+            try (InputStream prefix = resumed ? Files.newInputStream(partFile) : InputStream.nullInputStream();
+                 OutputStream part = Files.newOutputStream(partFile, StandardOpenOption.CREATE,
+                         resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 InputStream body = conn.getInputStream()) {
+                // The prefix is read to its end before anything new is appended to the .part file
+                InputStream archive = new SequenceInputStream(prefix, new TeeInputStream(body, part));
+                MessageDigest digest = sha256();
+                DigestInputStream hashed = new DigestInputStream(archive, digest);
+                extract(new BufferedInputStream(hashed), tmp);
+                // Hash whatever follows the extracted entry, e.g. the rest of the tarball
+                hashed.transferTo(OutputStream.nullOutputStream());
+                actualSha = HexFormat.of().formatHex(digest.digest());
+            }
+
+            if (expectedSha != null && !expectedSha.equalsIgnoreCase(actualSha)) {
+                Files.deleteIfExists(partFile);
+                meta.remove(PART_VALIDATOR);
+                saveMeta(meta);
+                throw new DataFetchException("Checksum mismatch for " + mmdbName + " (expected " + expectedSha + ", got " + actualSha + ")");
+            }
+
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(partFile);
+
+            meta.remove(PART_VALIDATOR);
+            setOrRemove(meta, ETAG, etag);
+            setOrRemove(meta, LAST_MODIFIED, lastModified);
+            meta.setProperty(SHA256, actualSha);
+            saveMeta(meta);
+
+            long duration = Duration.between(start, Instant.now()).toMillis();
+            logger.info("Downloaded " + mmdbName + " in " + duration + " ms.");
+            return true;
+        } finally {
+            try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Writes the database contained in the stream to the given file. The stream is either a .tar.gz
+     * containing the database, a gzipped .mmdb (as published by DB-IP) or the raw .mmdb.
+     */
+    private void extract(BufferedInputStream in, Path out) throws IOException, DataFetchException {
+        in.mark(3);
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        in.reset();
+
+        if (b1 != 0x1f || b2 != 0x8b || b3 != 0x08) {
+            try (OutputStream os = Files.newOutputStream(out, StandardOpenOption.TRUNCATE_EXISTING)) {
+                in.transferTo(os);
+            }
+            return;
+        }
+
+        // Not closed here: closing would close the response body before it has been hashed to the end
+        BufferedInputStream unzipped = new BufferedInputStream(new GZIPInputStream(in));
+        if (!isTar(unzipped)) {
+            try (OutputStream os = Files.newOutputStream(out, StandardOpenOption.TRUNCATE_EXISTING)) {
+                unzipped.transferTo(os);
+            }
+            return;
+        }
+
+        TarArchiveInputStream tis = new TarArchiveInputStream(unzipped);
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (entry.isDirectory()) continue;
+            String name = entry.getName();
+            if (name.endsWith(".mmdb") && (entryName == null || name.endsWith(entryName))) {
+                try (OutputStream os = Files.newOutputStream(out, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    tis.transferTo(os);
+                }
+                return;
+            }
+        }
+        throw new DataFetchException("MMDB file not found in tarball (looked for: " + (entryName == null ? "*.mmdb" : entryName) + ").");
+    }
+
+    /**
+     * @return true if the stream starts with a tar header, recognized by the "ustar" magic at offset 257
+     */
+    private static boolean isTar(BufferedInputStream in) throws IOException {
+        byte[] header = new byte[TAR_MAGIC_OFFSET + TAR_MAGIC.length];
+        in.mark(header.length);
+        int read = in.readNBytes(header, 0, header.length);
+        in.reset();
+        if (read < header.length) return false;
+        return Arrays.equals(header, TAR_MAGIC_OFFSET, header.length, TAR_MAGIC, 0, TAR_MAGIC.length);
+    }
+
+    /**
+     * MaxMind publishes the sha256 of every archive next to it, under the same URL with suffix=tar.gz.sha256.
+     * @return the published checksum, or null if the URL is not a MaxMind download or the checksum is unavailable
+     */
+    private String fetchPublishedChecksum() {
+        if (!url.contains("suffix=tar.gz") || url.contains("suffix=tar.gz.sha256")) return null;
+        String checksumUrl = url.replace("suffix=tar.gz", "suffix=tar.gz.sha256");
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(checksumUrl).openConnection();
+            conn.setInstanceFollowRedirects(true);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            if (conn.getResponseCode() >= 400) {
+                conn.disconnect();
+                return null;
+            }
+            // Format: "<hex>  GeoLite2-City_20250101.tar.gz"
+            String body = readStream(conn.getInputStream()).trim();
+            String sha = body.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+            return sha.matches("[0-9a-f]{64}") ? sha : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Bumps the modification time of the database, so the next check happens one update interval later.
+     */
+    private void markChecked() throws IOException {
+        if (Files.exists(dest)) Files.setLastModifiedTime(dest, FileTime.from(Instant.now()));
+    }
+
+    private static boolean contentRangeStartsAt(String contentRange, long offset) {
+        // Format: "bytes 1000-1999/2000"
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return false;
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) return false;
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim()) == offset;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private Properties loadMeta() {
+        Properties meta = new Properties();
+        if (Files.exists(metaFile)) {
+            try (InputStream in = Files.newInputStream(metaFile)) {
+                meta.load(in);
+            } catch (IOException e) {
+                logger.warning("Failed to read " + metaFile.getFileName() + ", downloading " + mmdbName + " again: " + e.getMessage());
+                meta.clear();
+            }
+        }
+        return meta;
+    }
+
+    private void saveMeta(Properties meta) throws IOException {
+        Path tmp = Files.createTempFile(metaFile.getParent(), "mmdb-", ".meta");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                meta.store(out, "Download state of " + mmdbName);
+            }
+            Files.move(tmp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+        }
+    }
+
+    private static void setOrRemove(Properties meta, String key, String value) {
+        if (value == null) {
+            meta.remove(key);
+        } else {
+            meta.setProperty(key, value);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String readStream(InputStream in) throws IOException {
+        if (in == null) return "";
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) sb.append(line);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Thrown when a partial download cannot be resumed.
+     */
+    private static final class RangeNotSatisfiableException extends IOException {
+        RangeNotSatisfiableException() {
+            super("Range not satisfiable");
+        }
+    }
+
+    /**
+     * Copies every byte read from the stream to an output stream as well.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) copy.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) copy.write(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to end up in the copy
+            long skipped = 0;
+            byte[] buffer = new byte[8192];
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
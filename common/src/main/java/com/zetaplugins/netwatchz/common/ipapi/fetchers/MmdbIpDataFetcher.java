@@ -0,0 +1,350 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.NoCache;
+import com.maxmind.db.NodeCache;
+import com.maxmind.db.Reader;
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.IpLiteral;
+import com.zetaplugins.netwatchz.common.config.GeoLite2Config;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.ipapi.IpData;
+import com.zetaplugins.netwatchz.common.ipapi.IpDataFields;
+import com.zetaplugins.netwatchz.common.json.JsonPath;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Fetcher that reads IP data from any local MMDB database, e.g. DB-IP Lite, IPinfo Lite or a self-built database.
+ * Which record values end up in which {@link IpData} field is configured with paths, like the parse_fields
+ * of a {@link CustomIpDataFetcher}:
+ * <ul>
+ *     <li>{@code key} or {@code .key} selects a map key, e.g. {@code country.iso_code}</li>
+ *     <li>{@code [0]} selects an array element, e.g. {@code subdivisions[0].names.en}</li>
+ *     <li>{@code *} selects the first key of a map that has the rest of the path</li>
+ * </ul>
+ * Numeric ASN values are prefixed with "AS", the same as the GeoLite2 fetcher does.
+ *
+ * If a URL is configured, the database is downloaded with {@link MmdbDownloader} and updated in the background.
+ * Either way the file is checked for changes regularly, so a database replaced on disk is picked up without a
+ * restart. The open reader is swapped the same way as the GeoLite2 readers, without blocking lookups.
+ */
+public final class MmdbIpDataFetcher implements IpDataSource {
+    /** Standard field names, in the order of the {@link IpData} constructor */
+    private static final String[] FIELDS = {
+            "country", "countryCode", "regionName", "region", "city", "lat", "lon", "timezone", "isp", "org", "asn"
+    };
+    private static final int LAT = 5;
+    private static final int LON = 6;
+    private static final int ASN = 10;
+
+    /** How often the file is checked for changes */
+    private static final Duration CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private final Logger logger;
+    private final Path file;
+    private final String url;
+    private final Duration updateInterval;
+    private final GeoLite2Config.FileMode fileMode;
+    private final int nodeCacheSize;
+    /** Compiled path per entry of {@link #FIELDS}, null for unmapped fields */
+    private final JsonPath[] paths = new JsonPath[FIELDS.length];
+    private final boolean hasAsn;
+
+    private final AtomicReference<Database> database = new AtomicReference<>();
+    private final ScheduledExecutorService refreshExecutor;
+    /** Modification time of the file at the last check, only read and written on the refresh thread */
+    private FileTime seenModified;
+
+    /**
+     * @param logger Logger to use for messages
+     * @param file The database file
+     * @param url URL to download the database from (.mmdb, .mmdb.gz or .tar.gz), blank to only use the local file
+     * @param updateInterval How often to download the database again
+     * @param fileMode Whether the database is memory-mapped or read into the heap
+     * @param nodeCacheSize Maximum number of decoded records cached, 0 to disable the cache
+     * @param fields The fields to read, mapping field names to record paths
+     *               Example: Map.of("countryCode", "country.iso_code", "lat", "location.latitude")
+     * @throws IllegalArgumentException if a path in fields is malformed or no field is mapped
+     */
+    public MmdbIpDataFetcher(
+            Logger logger,
+            Path file,
+            String url,
+            Duration updateInterval,
+            GeoLite2Config.FileMode fileMode,
+            int nodeCacheSize,
+            Map<String, String> fields
+    ) {
+        this.logger = Objects.requireNonNull(logger, "logger");
+        this.file = Objects.requireNonNull(file, "file");
+        this.url = url == null ? "" : url;
+        this.updateInterval = Objects.requireNonNull(updateInterval, "updateInterval");
+        this.fileMode = Objects.requireNonNull(fileMode, "fileMode");
+        this.nodeCacheSize = Math.max(0, nodeCacheSize);
+
+        if (updateInterval.isNegative() || updateInterval.isZero()) {
+            throw new IllegalArgumentException("updateInterval must be positive");
+        }
+
+        boolean mapped = false;
+        for (int i = 0; i < FIELDS.length; i++) {
+            String path = fields == null ? null : fields.get(FIELDS[i]);
+            if (path == null || path.isBlank()) continue;
+            try {
+                paths[i] = JsonPath.parse(path);
+                mapped = true;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid mmdb fields entry for '" + FIELDS[i] + "': " + e.getMessage(), e);
+            }
+        }
+        if (!mapped) throw new IllegalArgumentException("The mmdb provider needs at least one mapped field");
+        this.hasAsn = paths[FIELDS.length - 1] != null;
+
+        // A database from an earlier run can be used right away; downloads happen in the background
+        try {
+            Database existing = openDatabase();
+            if (existing != null) database.set(existing);
+        } catch (IOException e) {
+            logger.warning("Failed to open " + file.getFileName() + ": " + e.getMessage());
+        }
+
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NetwatchZ-MMDB");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the ASN from the local data if an asn field is mapped.
+     */
+    @Override
+    public AsnInfo lookupAsn(String ip) {
+        if (!hasAsn) return null;
+        try {
+            IpData data = loadIpData(ip, IpDataFields.FULL);
+            return data == null ? null : AsnInfo.parse(data.asn(), data.org());
+        } catch (DataFetchException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public IpData loadIpData(String ip, IpDataFields fields) throws DataFetchException {
+        // Never resolve host names on the lookup path
+        InetAddress addr = IpLiteral.toInetAddress(ip);
+        if (addr == null) throw new DataFetchException("Not a valid IP address: " + ip);
+
+        Database snapshot = acquireDatabase();
+        if (snapshot == null) {
+            throw new DataFetchException(file.getFileName() + " is not available yet for " + ip);
+        }
+
+        Map<?, ?> record;
+        try {
+            record = snapshot.reader().get(addr, Map.class);
+        } catch (IOException e) {
+            throw new DataFetchException("Failed " + file.getFileName() + " lookup for " + ip, e);
+        } finally {
+            snapshot.release();
+        }
+        if (record == null) return null;
+
+        Object[] values = new Object[FIELDS.length];
+        boolean any = false;
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (paths[i] == null) continue;
+            values[i] = select(record, paths[i].segments(), 0);
+            any |= values[i] != null;
+        }
+        // A record without any of the mapped fields means the database has no data for the IP
+        if (!any) return null;
+
+        Object asn = values[ASN];
+        return new IpData(
+                asString(values[0]),
+                asString(values[1]),
+                asString(values[2]),
+                asString(values[3]),
+                asString(values[4]),
+                asDouble(values[LAT]),
+                asDouble(values[LON]),
+                asString(values[7]),
+                asString(values[8]),
+                asString(values[9]),
+                asn instanceof Number ? "AS" + asn : asString(asn),
+                ip
+        );
+    }
+
+    /**
+     * Follows the path from the given segment on through decoded maps and lists.
+     * @return the value at the end of the path, or null if the record has none
+     */
+    private static Object select(Object value, List<Object> segments, int from) {
+        for (int i = from; i < segments.size(); i++) {
+            Object segment = segments.get(i);
+            if (segment instanceof Integer index) {
+                if (!(value instanceof List<?> list) || index >= list.size()) return null;
+                value = list.get(index);
+            } else if (segment == JsonSelector.ANY_KEY) {
+                if (!(value instanceof Map<?, ?> map)) return null;
+                for (Object child : map.values()) {
+                    Object selected = select(child, segments, i + 1);
+                    if (selected != null) return selected;
+                }
+                return null;
+            } else {
+                if (!(value instanceof Map<?, ?> map)) return null;
+                value = map.get(segment);
+            }
+            if (value == null) return null;
+        }
+        return value;
+    }
+
+    private static String asString(Object value) {
+        if (value instanceof String s) return s;
+        if (value instanceof Number || value instanceof Boolean) return value.toString();
+        return null;
+    }
+
+    private static double asDouble(Object value) {
+        if (value instanceof Number n) return n.doubleValue();
+        if (value instanceof String s) {
+            try {
+                return Double.parseDouble(s.trim());
+            } catch (NumberFormatException ignored) {
+                // Not a number
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Takes a reference on the current snapshot, so its reader stays open until {@link Database#release()}.
+     * @return the current snapshot, or null if no database is open
+     */
+    private Database acquireDatabase() {
+        while (true) {
+            Database current = database.get();
+            if (current == null) return null;
+            if (current.retain()) return current;
+            // The snapshot was replaced and closed in between; try the new one
+        }
+    }
+
+    /**
+     * Downloads the database if it is missing or older than the update interval, and opens it again if the
+     * file changed. Runs on the refresh executor, never on a lookup thread.
+     */
+    private void refresh() {
+        try {
+            // The database opened by the constructor is the first one seen
+            if (seenModified == null) {
+                Database current = database.get();
+                if (current != null) seenModified = current.modified();
+            }
+
+            boolean downloaded = false;
+            if (!url.isBlank() && needsDownload()) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                String name = file.getFileName().toString();
+                downloaded = new MmdbDownloader(logger, url, file, name, null).update();
+                // An unchanged download only bumps the modification time, which is no reason to reopen
+                if (!downloaded && Files.exists(file)) seenModified = Files.getLastModifiedTime(file);
+            }
+
+            if (Files.notExists(file)) return;
+            FileTime modified = Files.getLastModifiedTime(file);
+            boolean changed = downloaded || !modified.equals(seenModified);
+            seenModified = modified;
+            if (!changed && database.get() != null) return;
+
+            Database next = openDatabase();
+            if (next == null) return;
+            Database previous = database.getAndSet(next);
+            if (previous != null) previous.retire();
+        } catch (Exception e) {
+            logger.warning("Failed to refresh " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean needsDownload() throws IOException {
+        if (Files.notExists(file)) return true;
+        Instant mtime = Files.getLastModifiedTime(file).toInstant();
+        return mtime.isBefore(Instant.now().minus(updateInterval));
+    }
+
+    /**
+     * @return the opened database, or null if the file does not exist
+     */
+    private Database openDatabase() throws IOException {
+        if (Files.notExists(file)) return null;
+        long start = System.nanoTime();
+        FileTime modified = Files.getLastModifiedTime(file);
+        Reader.FileMode mode = fileMode == GeoLite2Config.FileMode.MEMORY ? Reader.FileMode.MEMORY : Reader.FileMode.MEMORY_MAPPED;
+        NodeCache cache = nodeCacheSize > 0 ? new CHMCache(nodeCacheSize) : NoCache.getInstance();
+        Reader reader = new Reader(file.toFile(), mode, cache);
+        logger.info("Opened " + file.getFileName() + " (" + reader.getMetadata().getDatabaseType() + ") in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        return new Database(reader, modified);
+    }
+
+    @Override
+    public void onShutDown() {
+        refreshExecutor.shutdownNow();
+        Database previous = database.getAndSet(null);
+        if (previous != null) previous.retire();
+    }
+
+    /**
+     * The open reader of the database.
+     */
+    private static final class Database extends RefCountedSnapshot {
+        private final Reader reader;
+        private final FileTime modified;
+
+        Database(Reader reader, FileTime modified) {
+            this.reader = reader;
+            this.modified = modified;
+        }
+
+        Reader reader() {
+            return reader;
+        }
+
+        /**
+         * @return the modification time of the file when it was opened
+         */
+        FileTime modified() {
+            return modified;
+        }
+
+        @Override
+        protected void close() {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Nothing left to clean up
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.zetaplugins.netwatchz.common.ipapi.fetchers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable set of open database readers, reference counted so it can be replaced while lookups are using it.
+ * The count starts at one for the reference held by the fetcher itself; once that is given up by
+ * {@link #retire()} and the last lookup has released it, {@link #close()} is called.
+ */
+abstract class RefCountedSnapshot {
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * @return true if a reference was taken, false if the readers are already closed
+     */
+    final boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) return false;
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    final void release() {
+        if (references.decrementAndGet() == 0) close();
+    }
+
+    final void retire() {
+        release();
+    }
+
+    /**
+     * Closes the readers, called exactly once after the last reference was released.
+     */
+    protected abstract void close();
+}
@@ -12,6 +12,7 @@ import java.nio.file.*;
 import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,6 +24,7 @@ public final class IpListFetcher {
 
     private final ScheduledExecutorService scheduler;
     private final HttpClient httpClient;
+    private final List<Consumer<Path>> updateListeners = new CopyOnWriteArrayList<>();
 
     public IpListFetcher(Logger logger) {
         this.logger = logger;
@@ -60,6 +62,14 @@ public final class IpListFetcher {
         }
     }
 
+    /**
+     * Registers a listener that is called on the fetcher's thread after a list file was replaced with a new download.
+     * @param listener receives the path of the updated file
+     */
+    public void addUpdateListener(Consumer<Path> listener) {
+        updateListeners.add(listener);
+    }
+
     /**
      * Stops all scheduled fetches. Safe to call on plugin shutdown.
      */
@@ -90,6 +100,13 @@ public final class IpListFetcher {
 
                 var duration = System.currentTimeMillis() - start;
                 logger.log(Level.INFO, "Successfully updated IP list from " + job.url() + " to " + job.destination() + " in " + duration + " ms");
+                for (Consumer<Path> listener : updateListeners) {
+                    try {
+                        listener.accept(destination);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Failed to apply the update of " + destination, e);
+                    }
+                }
             } else {
                 logger.log(Level.WARNING, "Failed to fetch " + job.url() + ": HTTP " + response.statusCode());
             }
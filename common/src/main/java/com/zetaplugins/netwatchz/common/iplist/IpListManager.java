@@ -1,26 +1,25 @@
 package com.zetaplugins.netwatchz.common.iplist;
 
+import com.zetaplugins.netwatchz.common.IpLiteral;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Manages a list of CIDR ranges loaded from a text file and answers membership queries.
- * Format: each line is "a.b.c.d/prefix". Blank lines and lines starting with '#' are ignored.
+ * Format: each line is "a.b.c.d/prefix" or "2001:db8::/prefix"; without a prefix the line is a single address.
+ * Blank lines and lines starting with '#' are ignored.
  */
 public final class IpListManager {
     private final Path listPath;
     private final Logger logger;
     private final boolean readFileOnEachCheck;
 
-    private volatile List<Range> mergedRanges = Collections.emptyList();
+    private volatile IpRangeSet mergedRanges = IpRangeSet.EMPTY;
 
     /**
      * Create manager that loads once (and caches). You should call reload() at startup
@@ -58,44 +57,23 @@ public final class IpListManager {
      * Reload the CIDR file, parse, sort and merge ranges into memory.
      */
     public synchronized void reload() throws IOException {
-        List<Range> ranges = new ArrayList<>();
+        IpRangeSet.Builder ranges = IpRangeSet.builder();
         try (BufferedReader br = Files.newBufferedReader(listPath)) {
             String line;
             while ((line = br.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty() || line.startsWith("#")) continue;
-                Range r = cidrToRange(line);
-                ranges.add(r);
-            }
-        }
-
-        if (ranges.isEmpty()) {
-            mergedRanges = Collections.emptyList();
-            return;
-        }
-
-        ranges.sort(Comparator.comparingLong(r -> r.start));
-
-        // merge overlapping/adjacent
-        List<Range> merged = new ArrayList<>();
-        Range cur = ranges.get(0);
-        for (int i = 1; i < ranges.size(); i++) {
-            Range nxt = ranges.get(i);
-            if (nxt.start <= cur.end + 1) {
-                cur = new Range(cur.start, Math.max(cur.end, nxt.end));
-            } else {
-                merged.add(cur);
-                cur = nxt;
+                addCidr(ranges, line);
             }
         }
-        merged.add(cur);
 
-        mergedRanges = Collections.unmodifiableList(merged);
+        // sorted and merged by the range set
+        mergedRanges = ranges.build();
     }
 
     /**
-     * Check if the provided IPv4 address is inside any of the CIDR ranges.
-     * Only IPv4 dotted-decimal addresses supported (e.g. "1.2.3.4").
+     * Check if the provided IPv4 or IPv6 address is inside any of the CIDR ranges.
+     * Only address literals are supported (e.g. "1.2.3.4"); anything else is not in the list.
      *
      * If readFileOnEachCheck==true, the file will be reloaded for each call (slow).
      */
@@ -109,80 +87,34 @@ public final class IpListManager {
             }
         }
 
-        long ipVal;
-        try {
-            ipVal = ipToLong(ip);
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
-
-        List<Range> list = mergedRanges;
-        if (list.isEmpty()) return false;
-
-        // binary search by range
-        int lo = 0, hi = list.size() - 1;
-        while (lo <= hi) {
-            int mid = (lo + hi) >>> 1;
-            Range r = list.get(mid);
-            if (ipVal < r.start) {
-                hi = mid - 1;
-            } else if (ipVal > r.end) {
-                lo = mid + 1;
-            } else {
-                return true;
-            }
-        }
-        return false;
+        byte[] address = IpLiteral.parse(ip);
+        return address != null && mergedRanges.contains(address);
     }
 
     /**
-     * A range of IPs from start to end, inclusive.
-     *
-     * @param start inclusive, stored unsigned in a long
-     * @param end inclusive
-     */
-    private record Range(long start, long end) {}
-
-    /**
-     * Convert IPv4 string to unsigned long.
-     * @param ip IPv4 string like "a.b.c.d"
-     * @return unsigned long representation
-     * @throws IllegalArgumentException if invalid format
-     */
-    private static long ipToLong(String ip) {
-        String[] parts = ip.split("\\.");
-        if (parts.length != 4) throw new IllegalArgumentException("Invalid IPv4: " + ip);
-        long val = 0;
-        for (String p : parts) {
-            int b = Integer.parseInt(p);
-            if (b < 0 || b > 255) throw new IllegalArgumentException("Invalid IPv4 octet: " + p);
-            val = (val << 8) | (b & 0xFF);
-        }
-        return val & 0xFFFFFFFFL;
-    }
-
-    /**
-     * Convert CIDR string to Range.
+     * Parse a CIDR string and add its range.
+     * @param ranges the builder to add the range to
      * @param cidr CIDR string like "a.b.c.d/prefix"
-     * @return Range object
      * @throws IllegalArgumentException if invalid format
      */
-    private static Range cidrToRange(String cidr) {
-        String[] parts = cidr.split("/");
-        long base = ipToLong(parts[0].trim());
+    private static void addCidr(IpRangeSet.Builder ranges, String cidr) {
+        int slash = cidr.indexOf('/');
+        String addressPart = (slash < 0 ? cidr : cidr.substring(0, slash)).trim();
+        byte[] address = IpLiteral.parse(addressPart);
+        if (address == null) throw new IllegalArgumentException("Invalid IP address: " + addressPart);
+
         int prefix;
-        if (parts.length == 1) {// No prefix -> assume /32 (single host)
-            prefix = 32;
-        } else if (parts.length == 2) {
-            prefix = Integer.parseInt(parts[1].trim());
+        if (slash < 0) {// No prefix -> single host
+            prefix = address.length * 8;
         } else {
-            throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            try {
+                prefix = Integer.parseInt(cidr.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            }
         }
 
-        if (prefix < 0 || prefix > 32) throw new IllegalArgumentException("Invalid prefix: " + prefix);
-        long mask = prefix == 0 ? 0L : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
-        long start = base & mask;
-        long end = start | (~mask & 0xFFFFFFFFL);
-        return new Range(start, end);
+        if (prefix < 0 || prefix > address.length * 8) throw new IllegalArgumentException("Invalid prefix: " + prefix);
+        ranges.addNetwork(address, prefix);
     }
 }
\ No newline at end of file
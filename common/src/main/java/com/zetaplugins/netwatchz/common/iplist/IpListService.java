@@ -2,6 +2,7 @@ package com.zetaplugins.netwatchz.common.iplist;
 
 import com.zetaplugins.netwatchz.common.config.IpListConfig;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -13,6 +14,7 @@ import java.util.stream.Collectors;
  */
 public final class IpListService {
     private final List<IpListManager> ipListManagers;
+    private final Logger logger;
 
     /**
      * Creates an IpListService that manages multiple IpListManagers, each initialized with a path from the provided list.
@@ -20,6 +22,7 @@ public final class IpListService {
      * @param logger logger for logging messages
      */
     public IpListService(List<Path> listPaths, Logger logger) {
+        this.logger = logger;
         this.ipListManagers = listPaths.stream()
             .map(path -> {
                 try {
@@ -56,4 +59,23 @@ public final class IpListService {
         }
         return false;
     }
+
+    /**
+     * Reloads the list read from the given file, e.g. after the {@link IpListFetcher} downloaded a new version.
+     * @param listPath the path of the list file
+     * @return true if a list was reloaded, false if no list is read from the file or it could not be read
+     */
+    public boolean reload(Path listPath) {
+        for (IpListManager manager : ipListManagers) {
+            if (!manager.getListPath().normalize().equals(listPath.normalize())) continue;
+            try {
+                manager.reload();
+                return true;
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warning("Failed to reload IP list from " + listPath + ", keeping the previous version: " + e.getMessage());
+                return false;
+            }
+        }
+        return false;
+    }
 }
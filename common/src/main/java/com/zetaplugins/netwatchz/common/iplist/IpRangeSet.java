@@ -0,0 +1,215 @@
+package com.zetaplugins.netwatchz.common.iplist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable set of IPv4 and IPv6 address ranges, sorted and merged, answering membership queries with a
+ * binary search over primitive arrays.
+ * <p>
+ * IPv4 addresses are stored unsigned in a long, IPv6 addresses as two longs (high and low 64 bits) compared unsigned.
+ */
+public final class IpRangeSet {
+    public static final IpRangeSet EMPTY = new Builder().build();
+
+    private final long[] v4Starts;
+    private final long[] v4Ends;
+    private final long[] v6StartHi;
+    private final long[] v6StartLo;
+    private final long[] v6EndHi;
+    private final long[] v6EndLo;
+
+    private IpRangeSet(long[] v4Starts, long[] v4Ends, long[] v6StartHi, long[] v6StartLo, long[] v6EndHi, long[] v6EndLo) {
+        this.v4Starts = v4Starts;
+        this.v4Ends = v4Ends;
+        this.v6StartHi = v6StartHi;
+        this.v6StartLo = v6StartLo;
+        this.v6EndHi = v6EndHi;
+        this.v6EndLo = v6EndLo;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of merged ranges
+     */
+    public int size() {
+        return v4Starts.length + v6StartHi.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @param address the address in network byte order, 4 bytes for IPv4 or 16 bytes for IPv6
+     * @return true if the address is inside one of the ranges
+     */
+    public boolean contains(byte[] address) {
+        if (address.length == 4) return containsIpv4(toLong(address, 0, 4));
+        if (address.length == 16) return containsIpv6(toLong(address, 0, 8), toLong(address, 8, 8));
+        return false;
+    }
+
+    /**
+     * @param ip the IPv4 address, unsigned in a long
+     * @return true if the address is inside one of the ranges
+     */
+    public boolean containsIpv4(long ip) {
+        int lo = 0, hi = v4Starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ip < v4Starts[mid]) {
+                hi = mid - 1;
+            } else if (ip > v4Ends[mid]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param high the high 64 bits of the IPv6 address
+     * @param low the low 64 bits of the IPv6 address
+     * @return true if the address is inside one of the ranges
+     */
+    public boolean containsIpv6(long high, long low) {
+        int lo = 0, hi = v6StartHi.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(high, low, v6StartHi[mid], v6StartLo[mid]) < 0) {
+                hi = mid - 1;
+            } else if (compare(high, low, v6EndHi[mid], v6EndLo[mid]) > 0) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Collects ranges in any order; {@link #build()} sorts and merges overlapping and adjacent ranges.
+     */
+    public static final class Builder {
+        private final List<long[]> v4 = new ArrayList<>();
+        private final List<long[]> v6 = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * @param start first address of the range, unsigned in a long
+         * @param end last address of the range, inclusive
+         */
+        public Builder addIpv4(long start, long end) {
+            v4.add(new long[] {start, end});
+            return this;
+        }
+
+        /**
+         * Adds the range from start to end, inclusive, each given as high and low 64 bits.
+         */
+        public Builder addIpv6(long startHi, long startLo, long endHi, long endLo) {
+            v6.add(new long[] {startHi, startLo, endHi, endLo});
+            return this;
+        }
+
+        /**
+         * Adds a network in CIDR form.
+         * @param network the network address in network byte order, 4 or 16 bytes
+         * @param prefix the prefix length
+         * @throws IllegalArgumentException if the address length or prefix is invalid
+         */
+        public Builder addNetwork(byte[] network, int prefix) {
+            if (network.length == 4) {
+                if (prefix < 0 || prefix > 32) throw new IllegalArgumentException("Invalid prefix: " + prefix);
+                long mask = prefix == 0 ? 0L : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+                long start = toLong(network, 0, 4) & mask;
+                return addIpv4(start, start | (~mask & 0xFFFFFFFFL));
+            }
+            if (network.length == 16) {
+                if (prefix < 0 || prefix > 128) throw new IllegalArgumentException("Invalid prefix: " + prefix);
+                long maskHi = prefix == 0 ? 0L : prefix >= 64 ? -1L : -1L << (64 - prefix);
+                long maskLo = prefix <= 64 ? 0L : prefix == 128 ? -1L : -1L << (128 - prefix);
+                long startHi = toLong(network, 0, 8) & maskHi;
+                long startLo = toLong(network, 8, 8) & maskLo;
+                return addIpv6(startHi, startLo, startHi | ~maskHi, startLo | ~maskLo);
+            }
+            throw new IllegalArgumentException("Invalid address length: " + network.length);
+        }
+
+        public IpRangeSet build() {
+            v4.sort(Comparator.comparingLong(r -> r[0]));
+            long[] v4Starts = new long[v4.size()];
+            long[] v4Ends = new long[v4.size()];
+            int n4 = 0;
+            for (long[] r : v4) {
+                if (n4 > 0 && r[0] <= v4Ends[n4 - 1] + 1) {
+                    v4Ends[n4 - 1] = Math.max(v4Ends[n4 - 1], r[1]);
+                } else {
+                    v4Starts[n4] = r[0];
+                    v4Ends[n4] = r[1];
+                    n4++;
+                }
+            }
+
+            v6.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+            long[] startHi = new long[v6.size()];
+            long[] startLo = new long[v6.size()];
+            long[] endHi = new long[v6.size()];
+            long[] endLo = new long[v6.size()];
+            int n6 = 0;
+            for (long[] r : v6) {
+                if (n6 > 0 && adjacentOrOverlapping(endHi[n6 - 1], endLo[n6 - 1], r[0], r[1])) {
+                    if (compare(r[2], r[3], endHi[n6 - 1], endLo[n6 - 1]) > 0) {
+                        endHi[n6 - 1] = r[2];
+                        endLo[n6 - 1] = r[3];
+                    }
+                } else {
+                    startHi[n6] = r[0];
+                    startLo[n6] = r[1];
+                    endHi[n6] = r[2];
+                    endLo[n6] = r[3];
+                    n6++;
+                }
+            }
+
+            return new IpRangeSet(
+                    Arrays.copyOf(v4Starts, n4), Arrays.copyOf(v4Ends, n4),
+                    Arrays.copyOf(startHi, n6), Arrays.copyOf(startLo, n6),
+                    Arrays.copyOf(endHi, n6), Arrays.copyOf(endLo, n6)
+            );
+        }
+
+        /**
+         * @return true if a range ending at end can be merged with a range starting at start
+         */
+        private static boolean adjacentOrOverlapping(long endHi, long endLo, long startHi, long startLo) {
+            if (compare(startHi, startLo, endHi, endLo) <= 0) return true;
+            // end + 1, with the carry into the high bits
+            long nextLo = endLo + 1;
+            long nextHi = nextLo == 0 ? endHi + 1 : endHi;
+            if (nextLo == 0 && endHi == -1L) return true; // end is the last address
+            return startHi == nextHi && startLo == nextLo;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.zetaplugins.netwatchz.common.json;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response is not valid JSON or is missing data a provider requires.
+ */
+public class JsonParseException extends IOException {
+    public JsonParseException(String message) {
+        super(message);
+    }
+}
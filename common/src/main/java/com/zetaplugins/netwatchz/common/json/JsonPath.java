@@ -0,0 +1,120 @@
+package com.zetaplugins.netwatchz.common.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed path to a value in a JSON document, e.g. {@code location.coords[0].lat}.
+ * <ul>
+ *     <li>{@code key} or {@code .key} selects an object key</li>
+ *     <li>{@code [0]} selects an array element</li>
+ *     <li>{@code ["some.key"]} or {@code ['some.key']} selects an object key that contains dots or brackets,
+ *     or a key that is literally {@code *}</li>
+ *     <li>{@code *} selects every key of an object</li>
+ * </ul>
+ * @param segments the segments of the path, each a {@link String} key, an {@link Integer} array index or
+ *                 {@link JsonSelector#ANY_KEY}
+ */
+public record JsonPath(List<Object> segments) {
+    public JsonPath {
+        segments = List.copyOf(segments);
+        if (segments.isEmpty()) throw new IllegalArgumentException("A path needs at least one segment");
+    }
+
+    /**
+     * Parses a path.
+     * @param path the path, e.g. "data.location[0].lat"
+     * @throws IllegalArgumentException if the path is empty or malformed
+     * @return the parsed path
+     */
+    public static JsonPath parse(String path) {
+        if (path == null || path.isBlank()) throw new IllegalArgumentException("Path is empty");
+
+        List<Object> segments = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        int i = 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                if (key.isEmpty() && (i == 0 || path.charAt(i - 1) != ']')) throw invalid(path, "empty key");
+                if (!key.isEmpty()) segments.add(keySegment(key));
+                key.setLength(0);
+                i++;
+            } else if (c == '[') {
+                if (!key.isEmpty()) segments.add(keySegment(key));
+                key.setLength(0);
+                char quote = i + 1 < path.length() ? path.charAt(i + 1) : 0;
+                int end;
+                if (quote == '"' || quote == '\'') {
+                    // A quoted key may contain ']', so its closing quote is found first
+                    int close = path.indexOf(quote, i + 2);
+                    if (close < 0) throw invalid(path, "missing closing " + quote);
+                    if (close + 1 >= path.length() || path.charAt(close + 1) != ']') throw invalid(path, "missing ']'");
+                    segments.add(path.substring(i + 2, close));
+                    end = close + 1;
+                } else {
+                    end = path.indexOf(']', i);
+                    if (end < 0) throw invalid(path, "missing ']'");
+                    segments.add(parseIndex(path, path.substring(i + 1, end)));
+                }
+                i = end + 1;
+                if (i < path.length() && path.charAt(i) != '.' && path.charAt(i) != '[') {
+                    throw invalid(path, "expected '.' or '[' after ']'");
+                }
+            } else {
+                key.append(c);
+                i++;
+            }
+        }
+        if (!key.isEmpty()) {
+            segments.add(keySegment(key));
+        } else if (path.endsWith(".")) {
+            throw invalid(path, "empty key");
+        }
+        return new JsonPath(segments);
+    }
+
+    /**
+     * @return the segment of an unquoted key, where a lone {@code *} is the wildcard
+     */
+    private static Object keySegment(CharSequence key) {
+        return "*".contentEquals(key) ? JsonSelector.ANY_KEY : key.toString();
+    }
+
+    private static int parseIndex(String path, String content) {
+        try {
+            int index = Integer.parseInt(content.trim());
+            if (index < 0) throw invalid(path, "negative array index");
+            return index;
+        } catch (NumberFormatException e) {
+            throw invalid(path, "'" + content + "' is not an array index");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String path, String reason) {
+        return new IllegalArgumentException("Invalid JSON path '" + path + "': " + reason);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Object segment : segments) {
+            if (segment instanceof Integer index) {
+                builder.append('[').append(index).append(']');
+            } else if (segment == JsonSelector.ANY_KEY) {
+                if (!builder.isEmpty()) builder.append('.');
+                builder.append('*');
+            } else {
+                String key = (String) segment;
+                if (key.indexOf('.') >= 0 || key.indexOf('[') >= 0 || key.indexOf(']') >= 0 || key.equals("*")) {
+                    char quote = key.indexOf('"') >= 0 ? '\'' : '"';
+                    builder.append('[').append(quote).append(key).append(quote).append(']');
+                } else {
+                    if (!builder.isEmpty()) builder.append('.');
+                    builder.append(key);
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,489 @@
+package com.zetaplugins.netwatchz.common.json;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A precompiled set of JSON paths that can be extracted from a document in a single streaming pass.
+ * The document is read byte by byte from the stream; only the values of the selected paths are decoded,
+ * everything else is skipped without allocating.
+ * Selectors are immutable once built and can be shared between threads.
+ */
+public final class JsonSelector {
+    /**
+     * Path segment that matches every key of an object. It is not a string, so an object key that is literally "*"
+     * only matches itself.
+     */
+    public static final Object ANY_KEY = new Object() {
+        @Override
+        public String toString() {
+            return "*";
+        }
+    };
+
+    private final Node root;
+    private final int slots;
+
+    private JsonSelector(Node root, int slots) {
+        this.root = root;
+        this.slots = slots;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads a JSON document from the stream and extracts the selected values.
+     * The stream is read to its end but not closed.
+     * @param in the stream to read the document from, UTF-8 encoded
+     * @throws IOException if the stream can't be read or does not contain valid JSON
+     * @return the extracted values
+     */
+    public JsonValues decode(InputStream in) throws IOException {
+        JsonValues values = new JsonValues(slots);
+        new Decoder(in, values).readDocument(root);
+        return values;
+    }
+
+    /**
+     * @param json the JSON document
+     * @throws IOException if the document is not valid JSON
+     * @return the extracted values
+     */
+    public JsonValues decode(String json) throws IOException {
+        return decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static final class Builder {
+        private final Node root = new Node();
+        private int slots;
+
+        private Builder() {}
+
+        /**
+         * Adds a path to the selector. Adding the same path twice returns the same slot.
+         * @param keys the object keys leading to the value as strings, or {@link #ANY_KEY} to match any key
+         * @return the slot to read the value from in {@link JsonValues}
+         */
+        public int add(Object... keys) {
+            if (keys.length == 0) throw new IllegalArgumentException("A path needs at least one key");
+            Node node = root;
+            for (Object key : keys) {
+                if (key != ANY_KEY && !(key instanceof String)) throw new IllegalArgumentException("Not an object key: " + key);
+                node = node.getOrCreate(key);
+            }
+            if (node.slot < 0) node.slot = slots++;
+            return node.slot;
+        }
+
+        /**
+         * Adds a path to the selector. Adding the same path twice returns the same slot.
+         * @param path the path, which may contain object keys and array indexes
+         * @return the slot to read the value from in {@link JsonValues}
+         */
+        public int add(JsonPath path) {
+            Node node = root;
+            for (Object segment : path.segments()) {
+                node = segment instanceof Integer index ? node.getOrCreateIndex(index) : node.getOrCreate(segment);
+            }
+            if (node.slot < 0) node.slot = slots++;
+            return node.slot;
+        }
+
+        public JsonSelector build() {
+            return new JsonSelector(root, slots);
+        }
+    }
+
+    private static final class Node {
+        private int slot = -1;
+        private byte[][] keys = new byte[0][];
+        private Node[] children = new Node[0];
+        private Node anyKey;
+        private int[] indexes = new int[0];
+        private Node[] indexChildren = new Node[0];
+
+        /**
+         * @param key a string key or {@link #ANY_KEY}
+         */
+        private Node getOrCreate(Object key) {
+            if (key == ANY_KEY) {
+                if (anyKey == null) anyKey = new Node();
+                return anyKey;
+            }
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < keys.length; i++) {
+                if (Arrays.equals(keys[i], bytes)) return children[i];
+            }
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = bytes;
+            children[children.length - 1] = new Node();
+            return children[children.length - 1];
+        }
+
+        private @Nullable Node child(byte[] key, int length) {
+            for (int i = 0; i < keys.length; i++) {
+                byte[] candidate = keys[i];
+                if (candidate.length == length && Arrays.equals(candidate, 0, length, key, 0, length)) return children[i];
+            }
+            return anyKey;
+        }
+
+        private Node getOrCreateIndex(int index) {
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] == index) return indexChildren[i];
+            }
+            indexes = Arrays.copyOf(indexes, indexes.length + 1);
+            indexChildren = Arrays.copyOf(indexChildren, indexChildren.length + 1);
+            indexes[indexes.length - 1] = index;
+            indexChildren[indexChildren.length - 1] = new Node();
+            return indexChildren[indexChildren.length - 1];
+        }
+
+        private @Nullable Node indexChild(int index) {
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] == index) return indexChildren[i];
+            }
+            return null;
+        }
+
+        private boolean hasKeyChildren() {
+            return keys.length > 0 || anyKey != null;
+        }
+
+        private boolean hasIndexChildren() {
+            return indexes.length > 0;
+        }
+    }
+
+    /**
+     * Single-use recursive descent reader. Recursion only follows selected paths,
+     * skipped values are consumed iteratively, so deeply nested input can't overflow the stack.
+     */
+    private static final class Decoder {
+        private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+        private final InputStream in;
+        private final JsonValues values;
+        private final byte[] buffer = new byte[2048];
+        private int pos;
+        private int limit;
+        private long consumed;
+        private byte[] scratch = new byte[64];
+        private int scratchLength;
+
+        private Decoder(InputStream in, JsonValues values) {
+            this.in = in;
+            this.values = values;
+        }
+
+        private void readDocument(Node root) throws IOException {
+            readValue(root);
+            if (peekNonWhitespace() != -1) throw error("Unexpected data after the end of the document");
+        }
+
+        private void readValue(@Nullable Node node) throws IOException {
+            if (node == null) {
+                skipValue();
+                return;
+            }
+
+            int c = peekNonWhitespace();
+            switch (c) {
+                case '{' -> {
+                    if (node.slot >= 0) values.set(node.slot, JsonValues.Type.OBJECT, null, false);
+                    if (node.hasKeyChildren()) readObject(node);
+                    else skipValue();
+                }
+                case '[' -> {
+                    if (node.slot >= 0) values.set(node.slot, JsonValues.Type.ARRAY, null, false);
+                    if (node.hasIndexChildren()) readArray(node);
+                    else skipValue();
+                }
+                case '"' -> {
+                    pos++;
+                    if (node.slot < 0) {
+                        skipString();
+                    } else {
+                        readStringIntoScratch();
+                        values.set(node.slot, JsonValues.Type.STRING, scratchToString(), false);
+                    }
+                }
+                case 't' -> {
+                    expectLiteral("true");
+                    if (node.slot >= 0) values.set(node.slot, JsonValues.Type.BOOLEAN, null, true);
+                }
+                case 'f' -> {
+                    expectLiteral("false");
+                    if (node.slot >= 0) values.set(node.slot, JsonValues.Type.BOOLEAN, null, false);
+                }
+                case 'n' -> {
+                    expectLiteral("null");
+                    if (node.slot >= 0) values.set(node.slot, JsonValues.Type.NULL, null, false);
+                }
+                case -1 -> throw error("Unexpected end of input");
+                default -> {
+                    if (node.slot < 0) {
+                        skipNumber();
+                    } else {
+                        readNumberIntoScratch();
+                        values.set(node.slot, JsonValues.Type.NUMBER, scratchToString(), false);
+                    }
+                }
+            }
+        }
+
+        private void readObject(Node node) throws IOException {
+            pos++; // '{'
+            int c = peekNonWhitespace();
+            if (c == '}') {
+                pos++;
+                return;
+            }
+
+            while (true) {
+                if (c != '"') throw error("Expected an object key");
+                pos++;
+                readStringIntoScratch();
+                Node child = node.child(scratch, scratchLength);
+
+                if (peekNonWhitespace() != ':') throw error("Expected ':' after an object key");
+                pos++;
+                readValue(child);
+
+                c = peekNonWhitespace();
+                if (c == ',') {
+                    pos++;
+                    c = peekNonWhitespace();
+                } else if (c == '}') {
+                    pos++;
+                    return;
+                } else {
+                    throw error("Expected ',' or '}' in an object");
+                }
+            }
+        }
+
+        private void readArray(Node node) throws IOException {
+            pos++; // '['
+            int c = peekNonWhitespace();
+            if (c == ']') {
+                pos++;
+                return;
+            }
+
+            int index = 0;
+            while (true) {
+                readValue(node.indexChild(index++));
+
+                c = peekNonWhitespace();
+                if (c == ',') {
+                    pos++;
+                } else if (c == ']') {
+                    pos++;
+                    return;
+                } else {
+                    throw error("Expected ',' or ']' in an array");
+                }
+            }
+        }
+
+        private void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                int c = peekNonWhitespace();
+                switch (c) {
+                    case '{', '[' -> {
+                        pos++;
+                        depth++;
+                    }
+                    case '}', ']' -> {
+                        if (depth == 0) throw error("Unexpected closing bracket");
+                        pos++;
+                        depth--;
+                    }
+                    case ',', ':' -> {
+                        if (depth == 0) throw error("Expected a value");
+                        pos++;
+                    }
+                    case '"' -> {
+                        pos++;
+                        skipString();
+                    }
+                    case 't' -> expectLiteral("true");
+                    case 'f' -> expectLiteral("false");
+                    case 'n' -> expectLiteral("null");
+                    case -1 -> throw error("Unexpected end of input");
+                    default -> skipNumber();
+                }
+            } while (depth > 0);
+        }
+
+        private void skipString() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) throw error("Unterminated string");
+                byte b = buffer[pos++];
+                if (b == '"') return;
+                if (b == '\\') {
+                    if (pos == limit && !fill()) throw error("Unterminated string");
+                    pos++;
+                }
+            }
+        }
+
+        private void readStringIntoScratch() throws IOException {
+            scratchLength = 0;
+            // A high surrogate escape is held back until the next character shows whether it is a valid pair
+            int highSurrogate = -1;
+            while (true) {
+                if (pos == limit && !fill()) throw error("Unterminated string");
+                byte b = buffer[pos++];
+                int escaped = b == '\\' ? read() : -1;
+                if (escaped == 'u') {
+                    int unit = readHex4();
+                    if (highSurrogate >= 0 && Character.isLowSurrogate((char) unit)) {
+                        appendCodePoint(Character.toCodePoint((char) highSurrogate, (char) unit));
+                        highSurrogate = -1;
+                        continue;
+                    }
+                    // Lone surrogates can't be encoded as UTF-8, so they become replacement characters
+                    if (highSurrogate >= 0) appendCodePoint(REPLACEMENT_CHARACTER);
+                    if (Character.isHighSurrogate((char) unit)) {
+                        highSurrogate = unit;
+                    } else {
+                        highSurrogate = -1;
+                        appendCodePoint(Character.isLowSurrogate((char) unit) ? REPLACEMENT_CHARACTER : unit);
+                    }
+                    continue;
+                }
+                if (highSurrogate >= 0) {
+                    appendCodePoint(REPLACEMENT_CHARACTER);
+                    highSurrogate = -1;
+                }
+
+                if (b == '"') return;
+                if (b != '\\') {
+                    appendScratch(b);
+                    continue;
+                }
+
+                switch (escaped) {
+                    case '"', '\\', '/' -> appendScratch((byte) escaped);
+                    case 'b' -> appendScratch((byte) '\b');
+                    case 'f' -> appendScratch((byte) '\f');
+                    case 'n' -> appendScratch((byte) '\n');
+                    case 'r' -> appendScratch((byte) '\r');
+                    case 't' -> appendScratch((byte) '\t');
+                    default -> throw error("Invalid escape sequence");
+                }
+            }
+        }
+
+        private int readHex4() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0) throw error("Invalid unicode escape");
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
+
+        private void appendCodePoint(int codePoint) {
+            if (codePoint < 0x80) {
+                appendScratch((byte) codePoint);
+            } else if (codePoint < 0x800) {
+                appendScratch((byte) (0xC0 | (codePoint >> 6)));
+                appendScratch((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (codePoint < 0x10000) {
+                appendScratch((byte) (0xE0 | (codePoint >> 12)));
+                appendScratch((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                appendScratch((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                appendScratch((byte) (0xF0 | (codePoint >> 18)));
+                appendScratch((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                appendScratch((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                appendScratch((byte) (0x80 | (codePoint & 0x3F)));
+            }
+        }
+
+        private void readNumberIntoScratch() throws IOException {
+            scratchLength = 0;
+            int c;
+            while ((c = peek()) != -1 && isNumberChar(c)) {
+                appendScratch((byte) c);
+                pos++;
+            }
+            if (scratchLength == 0) throw error("Unexpected character");
+        }
+
+        private void skipNumber() throws IOException {
+            int length = 0;
+            int c;
+            while ((c = peek()) != -1 && isNumberChar(c)) {
+                pos++;
+                length++;
+            }
+            if (length == 0) throw error("Unexpected character");
+        }
+
+        private static boolean isNumberChar(int c) {
+            return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+        }
+
+        private void expectLiteral(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (read() != literal.charAt(i)) throw error("Invalid literal, expected " + literal);
+            }
+        }
+
+        private void appendScratch(byte b) {
+            if (scratchLength == scratch.length) scratch = Arrays.copyOf(scratch, scratchLength * 2);
+            scratch[scratchLength++] = b;
+        }
+
+        private String scratchToString() {
+            return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+        }
+
+        private int peekNonWhitespace() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+                pos++;
+            }
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return buffer[pos] & 0xFF;
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c != -1) pos++;
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            consumed += limit;
+            pos = 0;
+            limit = 0;
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) return false;
+            limit = read;
+            return true;
+        }
+
+        private JsonParseException error(String message) {
+            return new JsonParseException(message + " at byte " + (consumed + pos));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.zetaplugins.netwatchz.common.json;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * The values extracted by a {@link JsonSelector}, indexed by the slots the selector returned when its paths were added.
+ * Slots that were not present in the document read as absent; a slot of -1 is always absent.
+ */
+public final class JsonValues {
+    public enum Type {
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        OBJECT,
+        ARRAY
+    }
+
+    private final Type[] types;
+    private final String[] texts;
+    private final boolean[] booleans;
+
+    JsonValues(int slots) {
+        this.types = new Type[slots];
+        this.texts = new String[slots];
+        this.booleans = new boolean[slots];
+    }
+
+    void set(int slot, Type type, @Nullable String text, boolean bool) {
+        types[slot] = type;
+        texts[slot] = text;
+        booleans[slot] = bool;
+    }
+
+    /**
+     * @param slot the slot
+     * @return the type of the value, or null if the path was not present in the document
+     */
+    public @Nullable Type type(int slot) {
+        return slot < 0 ? null : types[slot];
+    }
+
+    /**
+     * @param slot the slot
+     * @return true if the path was present in the document and its value is not null
+     */
+    public boolean has(int slot) {
+        Type type = type(slot);
+        return type != null && type != Type.NULL;
+    }
+
+    /**
+     * @param slot the slot
+     * @return the value as a string (numbers and booleans in their JSON form), or null if it is absent,
+     *         null, an object or an array
+     */
+    public @Nullable String getString(int slot) {
+        Type type = type(slot);
+        if (type == null) return null;
+        return switch (type) {
+            case STRING, NUMBER -> texts[slot];
+            case BOOLEAN -> String.valueOf(booleans[slot]);
+            default -> null;
+        };
+    }
+
+    /**
+     * Reads the value as a double. Numbers and strings containing a number are accepted.
+     * @param slot the slot
+     * @param def the value to return if the value is absent or can't be read as a number
+     * @return the value as a double
+     */
+    public double getDouble(int slot, double def) {
+        Type type = type(slot);
+        if (type != Type.NUMBER && type != Type.STRING) return def;
+        try {
+            return Double.parseDouble(texts[slot].trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Reads the value as a boolean. Besides JSON booleans, numbers (0 is false, everything else true)
+     * and the strings "true", "false", "yes", "no", "1" and "0" are accepted.
+     * @param slot the slot
+     * @param def the value to return if the value is absent or can't be read as a boolean
+     * @return the value as a boolean
+     */
+    public boolean getBoolean(int slot, boolean def) {
+        Type type = type(slot);
+        if (type == null) return def;
+        return switch (type) {
+            case BOOLEAN -> booleans[slot];
+            case NUMBER -> {
+                double number = getDouble(slot, Double.NaN);
+                yield Double.isNaN(number) ? def : number != 0;
+            }
+            case STRING -> switch (texts[slot].trim().toLowerCase(Locale.ROOT)) {
+                case "true", "yes", "1" -> true;
+                case "false", "no", "0" -> false;
+                default -> def;
+            };
+            default -> def;
+        };
+    }
+}
@@ -0,0 +1,245 @@
+package com.zetaplugins.netwatchz.common.vpnblock;
+
+import com.zetaplugins.netwatchz.common.config.AsnPrecheckConfig;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
+import com.zetaplugins.netwatchz.common.iplist.IpListFetchJob;
+import com.zetaplugins.netwatchz.common.iplist.IpListFetcher;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Classifies IPs as hosting or residential by the autonomous system they belong to, so clear cases
+ * need no call to a VPN info provider.
+ *
+ * The rules are checked in this order, the first match wins: configured residential ASNs, configured hosting
+ * ASNs, ASNs from hosting list files, ASNs from residential list files, hosting keywords in the organization
+ * name and residential keywords in the organization name. List files are checked for changes every minute;
+ * list files with a URL are downloaded by an {@link IpListFetcher}.
+ */
+public final class AsnClassifier {
+    /** How often the list files are checked for changes */
+    private static final Duration CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    public enum Verdict {
+        /** The AS is a hosting or datacenter network */
+        HOSTING,
+        /** The AS is a residential or mobile ISP */
+        RESIDENTIAL,
+        /** No rule matched, or the ASN is not known */
+        UNKNOWN
+    }
+
+    /**
+     * Counts of the verdicts since startup
+     * @param hosting IPs classified as hosting
+     * @param residential IPs classified as residential
+     * @param unknown IPs left to the VPN info provider
+     */
+    public record Stats(long hosting, long residential, long unknown) {
+        /**
+         * @return the share (0.0 - 1.0) of IPs that were settled without a VPN info provider
+         */
+        public double settledRate() {
+            long total = hosting + residential + unknown;
+            return total == 0 ? 0 : (double) (hosting + residential) / total;
+        }
+    }
+
+    private final AsnPrecheckConfig config;
+    private final Logger logger;
+    private final long[] hostingAsns;
+    private final long[] residentialAsns;
+
+    private volatile long[] listedHosting = new long[0];
+    private volatile long[] listedResidential = new long[0];
+    /** Parsed AS numbers and modification time per list file, only touched by the refresh thread */
+    private final Map<Path, long[]> listContents = new HashMap<>();
+    private final Map<Path, Long> listModified = new HashMap<>();
+
+    private final ScheduledExecutorService refreshExecutor;
+    private final IpListFetcher fetcher;
+
+    private final LongAdder hostingCount = new LongAdder();
+    private final LongAdder residentialCount = new LongAdder();
+    private final LongAdder unknownCount = new LongAdder();
+
+    /**
+     * Creates the classifier, loads the list files that exist and starts downloading the lists with a URL.
+     * @param config the ASN precheck configuration
+     * @param logger logger for list updates
+     */
+    public AsnClassifier(AsnPrecheckConfig config, Logger logger) {
+        this.config = config;
+        this.logger = logger;
+        this.hostingAsns = toSortedArray(config.hostingAsns());
+        this.residentialAsns = toSortedArray(config.residentialAsns());
+
+        refreshLists();
+
+        List<IpListFetchJob> jobs = config.lists().stream()
+                .filter(list -> !list.url().isBlank())
+                .map(list -> new IpListFetchJob(list.url(), list.file(), list.updateInterval()))
+                .toList();
+        this.fetcher = jobs.isEmpty() ? null : new IpListFetcher(logger);
+
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NetwatchZ-ASN");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The first downloads block, so they run here instead of on the thread that creates the classifier
+        if (fetcher != null) refreshExecutor.execute(() -> fetcher.start(jobs));
+        refreshExecutor.scheduleWithFixedDelay(this::refreshLists,
+                CHECK_INTERVAL.toMillis(), CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Classifies an autonomous system.
+     * @param asn the AS of the IP, or null if it is not known
+     * @return the verdict
+     */
+    public Verdict classify(@Nullable AsnInfo asn) {
+        Verdict verdict = asn == null ? Verdict.UNKNOWN : match(asn);
+        switch (verdict) {
+            case HOSTING -> hostingCount.increment();
+            case RESIDENTIAL -> residentialCount.increment();
+            default -> unknownCount.increment();
+        }
+        return verdict;
+    }
+
+    private Verdict match(AsnInfo asn) {
+        long number = asn.number();
+        if (Arrays.binarySearch(residentialAsns, number) >= 0) return Verdict.RESIDENTIAL;
+        if (Arrays.binarySearch(hostingAsns, number) >= 0) return Verdict.HOSTING;
+        if (Arrays.binarySearch(listedHosting, number) >= 0) return Verdict.HOSTING;
+        if (Arrays.binarySearch(listedResidential, number) >= 0) return Verdict.RESIDENTIAL;
+
+        String organization = asn.organization();
+        if (organization == null || organization.isEmpty()) return Verdict.UNKNOWN;
+        String name = organization.toLowerCase(Locale.ROOT);
+        for (String keyword : config.hostingKeywords()) {
+            if (name.contains(keyword)) return Verdict.HOSTING;
+        }
+        for (String keyword : config.residentialKeywords()) {
+            if (name.contains(keyword)) return Verdict.RESIDENTIAL;
+        }
+        return Verdict.UNKNOWN;
+    }
+
+    /**
+     * @return the counts of the verdicts since startup
+     */
+    public Stats getStats() {
+        return new Stats(hostingCount.sum(), residentialCount.sum(), unknownCount.sum());
+    }
+
+    /**
+     * Stops checking and downloading the list files.
+     */
+    public void stop() {
+        refreshExecutor.shutdownNow();
+        if (fetcher != null) fetcher.stop();
+    }
+
+    /**
+     * Reads the list files that changed since they were last read and rebuilds the listed ASN sets.
+     */
+    private synchronized void refreshLists() {
+        boolean changed = false;
+        for (AsnPrecheckConfig.AsnList list : config.lists()) {
+            Path file = list.file();
+            try {
+                if (Files.notExists(file)) continue;
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                Long seen = listModified.get(file);
+                if (seen != null && seen == modified) continue;
+
+                long[] asns = readList(file);
+                listContents.put(file, asns);
+                listModified.put(file, modified);
+                changed = true;
+                logger.info("Loaded " + asns.length + " ASNs from " + file.getFileName());
+            } catch (IOException e) {
+                logger.warning("Failed to read ASN list " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+        if (!changed) return;
+
+        LongCollector hosting = new LongCollector();
+        LongCollector residential = new LongCollector();
+        for (AsnPrecheckConfig.AsnList list : config.lists()) {
+            long[] asns = listContents.get(list.file());
+            if (asns != null) (list.hosting() ? hosting : residential).addAll(asns);
+        }
+        listedHosting = hosting.toSortedArray();
+        listedResidential = residential.toSortedArray();
+    }
+
+    /**
+     * Reads the AS numbers of a list file: the first column of every line, so CSV files with the
+     * ASN in the first column work too. Lines that don't start with an AS number, like headers, are skipped.
+     */
+    private static long[] readList(Path file) throws IOException {
+        LongCollector asns = new LongCollector();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int end = 0;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))
+                        && line.charAt(end) != ',' && line.charAt(end) != ';') {
+                    end++;
+                }
+                String token = line.substring(0, end).replace("\"", "");
+                AsnInfo asn = AsnInfo.parse(token, null);
+                if (asn != null) asns.add(asn.number());
+            }
+        }
+        return asns.toSortedArray();
+    }
+
+    private static long[] toSortedArray(Collection<Long> values) {
+        long[] array = values.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(array);
+        return array;
+    }
+
+    /** Growable array of longs, to avoid boxing lists with tens of thousands of ASNs */
+    private static final class LongCollector {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(long[] other) {
+            for (long value : other) add(value);
+        }
+
+        long[] toSortedArray() {
+            long[] array = Arrays.copyOf(values, size);
+            Arrays.sort(array);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.ipapi.fetchers.IpDataFetcher;
+import com.zetaplugins.netwatchz.common.vpnblock.AsnClassifier;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+
+/**
+ * Classifies IPs by their autonomous system from a local database before asking a VPN info provider.
+ * IPs of known hosting networks are reported as hosting (and optionally as VPN), IPs of known residential
+ * networks as clean; only IPs the {@link AsnClassifier} can't settle are sent to the wrapped source.
+ * A decorator over a {@link VpnInfoSource}, so the results are cached once, by the {@link VpnInfoProvider} around it.
+ */
+public final class AsnPrecheckVpnInfoProvider implements VpnInfoSource {
+    private static final VpnInfoData RESIDENTIAL = new VpnInfoData(false, false, false, false, false);
+
+    private final VpnInfoSource delegate;
+    private final IpDataFetcher asnSource;
+    private final AsnClassifier classifier;
+    private final VpnInfoData hosting;
+
+    /**
+     * @param delegate the source asked for IPs the classifier can't settle
+     * @param asnSource the IP data fetcher whose local database is used to look up ASNs
+     * @param classifier the classifier
+     * @param reportHostingAsVpn whether IPs of hosting networks are reported as VPN, not only as hosting
+     */
+    public AsnPrecheckVpnInfoProvider(VpnInfoSource delegate, IpDataFetcher asnSource, AsnClassifier classifier,
+                                      boolean reportHostingAsVpn) {
+        this.delegate = delegate;
+        this.asnSource = asnSource;
+        this.classifier = classifier;
+        this.hosting = new VpnInfoData(reportHostingAsVpn, false, false, false, true);
+    }
+
+    /**
+     * @return the source asked for IPs the classifier can't settle
+     */
+    public VpnInfoSource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the counts of the classifier verdicts since startup
+     */
+    public AsnClassifier.Stats getStats() {
+        return classifier.getStats();
+    }
+
+    @Override
+    public VpnInfoData loadVpnData(String ip, LookupPriority priority) throws DataFetchException {
+        return switch (classifier.classify(asnSource.lookupAsn(ip))) {
+            case HOSTING -> hosting;
+            case RESIDENTIAL -> RESIDENTIAL;
+            default -> delegate.loadVpnData(ip, priority);
+        };
+    }
+
+    @Override
+    public void onShutDown() {
+        classifier.stop();
+        delegate.onShutDown();
+    }
+}
@@ -0,0 +1,21 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link VpnInfoSource} that can also look up several IPs with one request.
+ * Wrap it in a {@link BatchingVpnInfoSource} to send concurrent lookups as one request.
+ */
+public interface BatchVpnInfoSource extends VpnInfoSource {
+    /**
+     * Fetches VPN data for several IPs with one request.
+     * @param ips the IP addresses to fetch data for, without duplicates
+     * @throws DataFetchException if an error occurs while fetching the data
+     * @return the VPN data by IP; an IP that is left out fails its lookup, so it is not cached as having no data
+     */
+    Map<String, VpnInfoData> loadVpnDataBatch(List<String> ips) throws DataFetchException;
+}
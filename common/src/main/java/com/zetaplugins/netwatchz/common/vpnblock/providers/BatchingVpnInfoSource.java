@@ -0,0 +1,56 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.RequestBatcher;
+import com.zetaplugins.netwatchz.common.config.BatchingConfig;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Collects the lookups that arrive within a short window and sends them to a {@link BatchVpnInfoSource} as one request.
+ */
+public final class BatchingVpnInfoSource implements VpnInfoSource {
+    private final BatchVpnInfoSource delegate;
+    private final RequestBatcher<String, VpnInfoData> batcher;
+
+    /**
+     * @param delegate the source that looks up the batches
+     * @param batching the window and the maximum size of a batch
+     */
+    public BatchingVpnInfoSource(BatchVpnInfoSource delegate, BatchingConfig batching) {
+        this.delegate = delegate;
+        this.batcher = new RequestBatcher<>(batching.window(), batching.maxBatchSize(), delegate::loadVpnDataBatch);
+    }
+
+    /**
+     * @return the source that looks up the batches
+     */
+    public BatchVpnInfoSource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Every lookup of a batch is sent in the same request, so the priority is ignored.
+     */
+    @Override
+    public VpnInfoData loadVpnData(String ip, LookupPriority priority) throws DataFetchException {
+        return batcher.load(ip);
+    }
+
+    /**
+     * Looks up an IP as part of the next batch.
+     * @param ip the IP address to fetch data for
+     * @param listener told whether this lookup sent the request of its batch and how it went, or null
+     * @throws DataFetchException if the request of the batch failed or had no data for the IP
+     * @return the VPN data
+     */
+    public VpnInfoData loadVpnData(String ip, @Nullable RequestBatcher.BatchListener listener) throws DataFetchException {
+        return batcher.load(ip, listener);
+    }
+
+    @Override
+    public void onShutDown() {
+        delegate.onShutDown();
+    }
+}
@@ -1,27 +1,46 @@
 package com.zetaplugins.netwatchz.common.vpnblock.providers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.zetaplugins.netwatchz.common.DataFetchException;
-import com.zetaplugins.netwatchz.common.ipapi.IpData;
 import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonPath;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Map;
 
-public final class CustomVpnInfoProvider extends VpnInfoProvider {
+public final class CustomVpnInfoProvider extends HttpVpnInfoSource {
     private final String apiUrl;
     private final Map<String, String> headers;
     private final Map<String, String> parseFields;
+    private final JsonSelector selector;
+    private final int vpn, proxy, tor, relay, hosting;
 
-    public CustomVpnInfoProvider(Cache<@NotNull String, VpnInfoData> cache, String url, Map<String, String> headers, Map<String, String> parseFields) {
-        super(cache);
+    public CustomVpnInfoProvider(String url, Map<String, String> headers, Map<String, String> parseFields) {
         this.apiUrl = url;
         this.headers = headers;
         this.parseFields = parseFields;
+
+        // Each configured path is compiled once instead of being split on every response
+        JsonSelector.Builder builder = JsonSelector.builder();
+        this.vpn = addField(builder, "vpn");
+        this.proxy = addField(builder, "proxy");
+        this.tor = addField(builder, "tor");
+        this.relay = addField(builder, "relay");
+        this.hosting = addField(builder, "hosting");
+        this.selector = builder.build();
+    }
+
+    private int addField(JsonSelector.Builder builder, String field) {
+        String path = parseFields == null ? null : parseFields.get(field);
+        if (path == null || path.isBlank()) return -1;
+        try {
+            return builder.add(JsonPath.parse(path));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid parse_fields entry for '" + field + "': " + e.getMessage(), e);
+        }
     }
 
     @Override
@@ -30,65 +49,26 @@ public final class CustomVpnInfoProvider extends VpnInfoProvider {
     }
 
     @Override
-    public VpnInfoData fetchVpnData(String ip) throws DataFetchException {
-        if (ip == null || ip.isEmpty()) {
-            throw new DataFetchException("IP address cannot be null or empty");
-        }
-
-        if (getCache().getIfPresent(ip) != null) {
-            return getCache().getIfPresent(ip);
-        }
-
+    protected VpnInfoData loadVpnData(String ip) throws DataFetchException {
         try {
             String formattedUrl = getApiUrl().contains("%ip%") ? getApiUrl().replace("%ip%", ip) : getApiUrl() + ip;
             URL url = new URL(formattedUrl);
-            String jsonResponse = fetchFromApi(url, headers);
-            VpnInfoData data = parseVpnData(jsonResponse);
-            getCache().put(ip, data);
-            return data;
+            return fetchFromApi(url, headers, this::parseVpnData);
         } catch (Exception e) {
             throw new DataFetchException("Failed to fetch IP data from " + getApiUrl() + ip, e);
         }
     }
 
     @Override
-    protected VpnInfoData parseVpnData(String jsonResponse) throws ParseException {
-        if (jsonResponse == null || jsonResponse.isEmpty()) {
-            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Empty JSON response");
-        }
-
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
-
-        boolean vpn = getNestedBoolean(json, parseFields.get("vpn"));
-        boolean proxy = getNestedBoolean(json, parseFields.get("proxy"));
-        boolean tor = getNestedBoolean(json, parseFields.get("tor"));
-        boolean relay = getNestedBoolean(json, parseFields.get("relay"));
-        boolean hosting = getNestedBoolean(json, parseFields.get("hosting"));
-
-        return new VpnInfoData(vpn, proxy, tor, relay, hosting);
-    }
-
-    private boolean getNestedBoolean(JSONObject json, String keyPath) {
-        if (keyPath == null || keyPath.isEmpty()) return false;
-
-        String[] keys = keyPath.split("\\.");
-        JSONObject current = json;
-        Object value = null;
-
-        for (int i = 0; i < keys.length; i++) {
-            String key = keys[i];
-            value = current.get(key);
-
-            if (value == null) return false;
-
-            if (i < keys.length - 1) {
-                if (!(value instanceof JSONObject)) return false;
-                current = (JSONObject) value;
-            }
-        }
-
-        if (value instanceof Boolean) return (Boolean) value;
-        return false;
+    protected VpnInfoData parseVpnData(InputStream response) throws IOException {
+        JsonValues json = selector.decode(response);
+
+        return new VpnInfoData(
+                json.getBoolean(vpn, false),
+                json.getBoolean(proxy, false),
+                json.getBoolean(tor, false),
+                json.getBoolean(relay, false),
+                json.getBoolean(hosting, false)
+        );
     }
 }
@@ -0,0 +1,131 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.ProviderHealth;
+import com.zetaplugins.netwatchz.common.ProviderRouter;
+import com.zetaplugins.netwatchz.common.QuotaExceededException;
+import com.zetaplugins.netwatchz.common.QuotaTracker;
+import com.zetaplugins.netwatchz.common.RequestBatcher;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Asks a chain of VPN info providers, moving on to the next provider if one fails or has no data.
+ * Every provider sits behind a {@link CircuitBreaker}, and providers with a daily limit behind a {@link QuotaTracker}.
+ * The providers are asked in the configured order, or, with adaptive routing, best health score first.
+ * For a {@link BatchingVpnInfoSource}, the breaker and health count each batch request once, not every lookup in it.
+ */
+public final class FailoverVpnInfoProvider implements VpnInfoSource {
+    /**
+     * A provider of the chain together with its circuit breaker and health
+     * @param source the provider
+     * @param breaker the circuit breaker guarding the provider
+     * @param health moving averages of latency and error rate, used for adaptive routing
+     * @param quota the daily request budget of the provider, or null if it has no limit
+     */
+    public record Member(VpnInfoSource source, CircuitBreaker breaker, ProviderHealth health,
+                         @Nullable QuotaTracker quota) {}
+
+    private final List<Member> members;
+    private final ProviderRouter router;
+
+    public FailoverVpnInfoProvider(List<Member> members, ProviderRouter router) {
+        if (members.isEmpty()) throw new IllegalArgumentException("The provider chain needs at least one provider");
+        this.members = List.copyOf(members);
+        this.router = router;
+    }
+
+    /**
+     * @return the providers of the chain, in their configured order
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    @Override
+    public VpnInfoData loadVpnData(String ip, LookupPriority priority) throws DataFetchException {
+        boolean answered = false;
+        DataFetchException lastFailure = null;
+        List<String> skipped = new ArrayList<>();
+        List<String> overBudget = new ArrayList<>();
+
+        for (Member member : router.order(members, Member::health)) {
+            CircuitBreaker breaker = member.breaker();
+            if (!breaker.tryAcquire()) {
+                skipped.add(breaker.getName());
+                continue;
+            }
+            if (member.quota() != null && !member.quota().tryAcquire(priority)) {
+                breaker.release();
+                overBudget.add(breaker.getName());
+                continue;
+            }
+
+            boolean batched = member.source() instanceof BatchingVpnInfoSource;
+            long start = System.nanoTime();
+            try {
+                VpnInfoData data;
+                if (member.source() instanceof BatchingVpnInfoSource batching) {
+                    data = batching.loadVpnData(ip, new BatchOutcome(member));
+                } else {
+                    data = member.source().loadVpnData(ip, priority);
+                    record(member, System.nanoTime() - start, false);
+                }
+                if (data != null) return data;
+                answered = true;
+            } catch (RuntimeException e) {
+                if (!batched) record(member, System.nanoTime() - start, true);
+                lastFailure = e instanceof DataFetchException d ? d
+                        : new DataFetchException("Provider " + breaker.getName() + " failed for " + ip, e);
+            }
+        }
+
+        // One provider answered that it has no data, which is an answer rather than a failure
+        if (answered) return null;
+        if (lastFailure != null) throw lastFailure;
+        if (skipped.isEmpty()) {
+            throw new QuotaExceededException("No VPN info provider has budget left for " + ip + " ("
+                    + priority.name().toLowerCase(Locale.ROOT) + "), over budget: " + String.join(", ", overBudget));
+        }
+        throw new DataFetchException("All VPN info providers are unavailable, skipped " + String.join(", ", skipped)
+                + (overBudget.isEmpty() ? "" : ", over budget: " + String.join(", ", overBudget)));
+    }
+
+    private static void record(Member member, long elapsedNanos, boolean failed) {
+        if (failed) {
+            member.breaker().onFailure(elapsedNanos);
+        } else {
+            member.breaker().onSuccess(elapsedNanos);
+        }
+        member.health().record(elapsedNanos, failed);
+    }
+
+    /**
+     * Records the request of a batch on the breaker and health of its provider, and gives back the breaker call of
+     * every lookup that only joined the batch.
+     */
+    private record BatchOutcome(Member member) implements RequestBatcher.BatchListener {
+        @Override
+        public void onSent(long elapsedNanos, boolean failed) {
+            record(member, elapsedNanos, failed);
+        }
+
+        @Override
+        public void onJoined() {
+            member.breaker().release();
+        }
+    }
+
+    @Override
+    public void onShutDown() {
+        for (Member member : members) {
+            if (member.quota() != null) member.quota().save();
+        }
+    }
+}
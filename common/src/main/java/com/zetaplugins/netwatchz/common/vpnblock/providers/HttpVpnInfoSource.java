@@ -0,0 +1,120 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.ResponseParser;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Abstract class for fetching VPN data from various APIs.
+ * This class provides methods to fetch data from a URL and parse the response.
+ */
+public abstract class HttpVpnInfoSource implements VpnInfoSource {
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 5_000;
+
+    protected abstract String getApiUrl();
+
+    /**
+     * APIs without a request budget answer every lookup the same way, so the priority is ignored.
+     */
+    @Override
+    public VpnInfoData loadVpnData(String ip, LookupPriority priority) throws DataFetchException {
+        return loadVpnData(ip);
+    }
+
+    /**
+     * Fetches VPN data from the API.
+     * @param ip the IP address to fetch data for
+     * @throws DataFetchException if an error occurs while fetching the data
+     * @return the VPN data, or null if the provider has no data for the IP
+     */
+    protected VpnInfoData loadVpnData(String ip) throws DataFetchException {
+        try {
+            URL url = new URL(getApiUrl().replace("%ip%", ip));
+            return fetchFromApi(url, this::parseVpnData);
+        } catch (Exception e) {
+            throw new DataFetchException("Failed to fetch VPN data", e);
+        }
+    }
+
+    /**
+     * Parses the VPN data from the JSON response.
+     * @param response the body of the API response
+     * @throws IOException if the response can't be read or is not valid JSON
+     * @return the parsed VPN data
+     */
+    protected abstract VpnInfoData parseVpnData(InputStream response) throws IOException;
+
+    /**
+     * Fetches data from the specified URL with optional headers and parses the response while it is being read.
+     * @param url the URL to fetch data from
+     * @param headers optional headers to include in the request
+     * @param parser parses the response body
+     * @throws IOException if an error occurs while fetching or parsing the data
+     * @return the parsed data
+     */
+    protected <T> T fetchFromApi(URL url, Map<String, String> headers, ResponseParser<T> parser) throws IOException {
+        return request(url, headers, null, parser);
+    }
+
+    /**
+     * Posts a form to the specified URL and parses the response while it is being read.
+     * @param url the URL to post to
+     * @param form the url-encoded form body, e.g. "ips=1.1.1.1,8.8.8.8"
+     * @param parser parses the response body
+     * @throws IOException if an error occurs while fetching or parsing the data
+     * @return the parsed data
+     */
+    protected <T> T postToApi(URL url, String form, ResponseParser<T> parser) throws IOException {
+        return request(url, Map.of("Content-Type", "application/x-www-form-urlencoded"), form, parser);
+    }
+
+    private <T> T request(URL url, Map<String, String> headers, String body, ResponseParser<T> parser) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(body == null ? "GET" : "POST");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int statusCode = connection.getResponseCode();
+        if (statusCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Failed to fetch data from " + url + ". HTTP status code: " + statusCode);
+        }
+
+        try (InputStream response = connection.getInputStream()) {
+            return parser.parse(response);
+        }
+    }
+
+    /**
+     * Fetches data from the specified URL without additional headers and parses the response while it is being read.
+     * @param url the URL to fetch data from
+     * @param parser parses the response body
+     * @throws IOException if an error occurs while fetching or parsing the data
+     * @return the parsed data
+     */
+    protected <T> T fetchFromApi(URL url, ResponseParser<T> parser) throws IOException {
+        return fetchFromApi(url, null, parser);
+    }
+}
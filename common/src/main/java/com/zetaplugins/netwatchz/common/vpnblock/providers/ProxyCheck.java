@@ -1,17 +1,38 @@
 package com.zetaplugins.netwatchz.common.vpnblock.providers;
 
-import com.github.benmanes.caffeine.cache.Cache;
+import com.zetaplugins.netwatchz.common.DataFetchException;
 import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonParseException;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class ProxyCheck extends HttpVpnInfoSource implements BatchVpnInfoSource {
+    // The response is keyed by the queried IP next to fields like "status", so match the detections under any key
+    private static final JsonSelector SELECTOR;
+    private static final int DETECTIONS, VPN, PROXY, TOR, HOSTING;
+
+    static {
+        JsonSelector.Builder builder = JsonSelector.builder();
+        DETECTIONS = builder.add(JsonSelector.ANY_KEY, "detections");
+        VPN = builder.add(JsonSelector.ANY_KEY, "detections", "vpn");
+        PROXY = builder.add(JsonSelector.ANY_KEY, "detections", "proxy");
+        TOR = builder.add(JsonSelector.ANY_KEY, "detections", "tor");
+        HOSTING = builder.add(JsonSelector.ANY_KEY, "detections", "hosting");
+        SELECTOR = builder.build();
+    }
 
-public final class ProxyCheck extends VpnInfoProvider {
     private final String apiKey;
 
-    public ProxyCheck(Cache<@NotNull String, VpnInfoData> cache, String apiKey) {
-        super(cache);
+    public ProxyCheck(String apiKey) {
         this.apiKey = apiKey;
     }
 
@@ -20,21 +41,69 @@ public final class ProxyCheck extends VpnInfoProvider {
         return "https://proxycheck.io/v3/%ip%?key=" + apiKey;
     }
 
+    /**
+     * Posts all IPs of the batch in one request. The response has one object per IP, keyed by the IP as sent.
+     */
+    @Override
+    public Map<String, VpnInfoData> loadVpnDataBatch(List<String> ips) throws DataFetchException {
+        JsonSelector.Builder builder = JsonSelector.builder();
+        int status = builder.add("status");
+        int message = builder.add("message");
+        int[][] slots = new int[ips.size()][];
+        for (int i = 0; i < ips.size(); i++) {
+            String ip = ips.get(i);
+            slots[i] = new int[]{
+                    builder.add(ip, "detections"),
+                    builder.add(ip, "detections", "vpn"),
+                    builder.add(ip, "detections", "proxy"),
+                    builder.add(ip, "detections", "tor"),
+                    builder.add(ip, "detections", "hosting")
+            };
+        }
+        JsonSelector selector = builder.build();
+
+        JsonValues json;
+        try {
+            URL url = new URL("https://proxycheck.io/v3/?key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8));
+            json = postToApi(url, "ips=" + URLEncoder.encode(String.join(",", ips), StandardCharsets.UTF_8), selector::decode);
+        } catch (Exception e) {
+            throw new DataFetchException("Failed to fetch VPN data for " + ips.size() + " IPs", e);
+        }
+
+        Map<String, VpnInfoData> result = new HashMap<>();
+        for (int i = 0; i < ips.size(); i++) {
+            int[] ip = slots[i];
+            if (json.type(ip[0]) != JsonValues.Type.OBJECT) continue;
+            result.put(ips.get(i), new VpnInfoData(
+                    json.getBoolean(ip[1], false),
+                    json.getBoolean(ip[2], false),
+                    json.getBoolean(ip[3], false),
+                    false,
+                    json.getBoolean(ip[4], false)
+            ));
+        }
+        // A rejected request (bad key, rate limit) has no per-IP objects, only a status and a message
+        if (result.isEmpty() && !"ok".equals(json.getString(status))) {
+            throw new DataFetchException("proxycheck.io rejected the request: " + json.getString(status)
+                    + (json.has(message) ? " (" + json.getString(message) + ")" : ""));
+        }
+        return result;
+    }
+
     @Override
-    protected VpnInfoData parseVpnData(String jsonResponse) throws ParseException {
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
+    protected VpnInfoData parseVpnData(InputStream response) throws IOException {
+        JsonValues json = SELECTOR.decode(response);
 
-        String ipKey = (String) json.keySet().iterator().next();
-        JSONObject ipData = (JSONObject) json.get(ipKey);
-        JSONObject detections = (JSONObject) ipData.get("detections");
+        if (json.type(DETECTIONS) != JsonValues.Type.OBJECT) {
+            throw new JsonParseException("Missing 'detections' object");
+        }
 
         return new VpnInfoData(
-                (Boolean) detections.get("vpn"),
-                (Boolean) detections.get("proxy"),
-                (Boolean) detections.get("tor"),
+                json.getBoolean(VPN, false),
+                json.getBoolean(PROXY, false),
+                json.getBoolean(TOR, false),
                 false,
-                (Boolean) detections.get("hosting")
+                json.getBoolean(HOSTING, false)
         );
     }
 }
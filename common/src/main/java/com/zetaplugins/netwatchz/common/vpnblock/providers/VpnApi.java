@@ -1,17 +1,31 @@
 package com.zetaplugins.netwatchz.common.vpnblock.providers;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
-import org.jetbrains.annotations.NotNull;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.zetaplugins.netwatchz.common.json.JsonParseException;
+import com.zetaplugins.netwatchz.common.json.JsonSelector;
+import com.zetaplugins.netwatchz.common.json.JsonValues;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class VpnApi extends HttpVpnInfoSource {
+    private static final JsonSelector SELECTOR;
+    private static final int MESSAGE, SECURITY, VPN, PROXY, TOR, RELAY;
+
+    static {
+        JsonSelector.Builder builder = JsonSelector.builder();
+        MESSAGE = builder.add("message");
+        SECURITY = builder.add("security");
+        VPN = builder.add("security", "vpn");
+        PROXY = builder.add("security", "proxy");
+        TOR = builder.add("security", "tor");
+        RELAY = builder.add("security", "relay");
+        SELECTOR = builder.build();
+    }
 
-public final class VpnApi extends VpnInfoProvider {
     private final String apiKey;
 
-    public VpnApi(Cache<@NotNull String, VpnInfoData> cache, String apiKey) {
-        super(cache);
+    public VpnApi(String apiKey) {
         this.apiKey = apiKey;
     }
 
@@ -21,25 +35,23 @@ public final class VpnApi extends VpnInfoProvider {
     }
 
     @Override
-    protected VpnInfoData parseVpnData(String jsonResponse) throws ParseException, IllegalArgumentException {
-        JSONParser parser = new JSONParser();
-        JSONObject json = (JSONObject) parser.parse(jsonResponse);
+    protected VpnInfoData parseVpnData(InputStream response) throws IOException, IllegalArgumentException {
+        JsonValues json = SELECTOR.decode(response);
 
-        if (json.containsKey("message")) {
-            String message = (String) json.get("message");
+        if (json.has(MESSAGE)) {
+            String message = json.getString(MESSAGE);
             throw new IllegalArgumentException("API returned an error message: " + message);
         }
 
-        JSONObject security = (JSONObject) json.get("security");
-        if (security == null) {
-            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Missing 'security' object");
+        if (json.type(SECURITY) != JsonValues.Type.OBJECT) {
+            throw new JsonParseException("Missing 'security' object");
         }
 
         return new VpnInfoData(
-                (Boolean) security.get("vpn"),
-                (Boolean) security.get("proxy"),
-                (Boolean) security.get("tor"),
-                (Boolean) security.get("relay"),
+                json.getBoolean(VPN, false),
+                json.getBoolean(PROXY, false),
+                json.getBoolean(TOR, false),
+                json.getBoolean(RELAY, false),
                 false
         );
     }
@@ -1,128 +1,225 @@
 package com.zetaplugins.netwatchz.common.vpnblock.providers;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.zetaplugins.netwatchz.common.AddressKey;
+import com.zetaplugins.netwatchz.common.CacheMetrics;
 import com.zetaplugins.netwatchz.common.CacheUtils;
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
 import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.LookupResult;
+import com.zetaplugins.netwatchz.common.ProviderRouter;
+import com.zetaplugins.netwatchz.common.QuotaExceededException;
+import com.zetaplugins.netwatchz.common.QuotaTracker;
+import com.zetaplugins.netwatchz.common.config.AsnPrecheckConfig;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
 import com.zetaplugins.netwatchz.common.config.CustomProviderConfig;
 import com.zetaplugins.netwatchz.common.config.VpnBlockConfig;
+import com.zetaplugins.netwatchz.common.ipapi.fetchers.IpDataFetcher;
+import com.zetaplugins.netwatchz.common.vpnblock.AsnClassifier;
 import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
 import org.jetbrains.annotations.NotNull;
-import org.json.simple.parser.ParseException;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Looks up VPN data from a {@link VpnInfoSource} and caches the results. Only this outermost provider owns a cache;
+ * the providers of a chain are plain sources.
+ */
+public final class VpnInfoProvider {
+    private final AsyncLoadingCache<@NotNull AddressKey, VpnInfoData> cache;
+    private final Cache<@NotNull AddressKey, LookupResult.Status> negativeCache = CacheUtils.createNegativeCache();
+    private final Duration ttl;
+    private final VpnInfoSource source;
 
-public abstract class VpnInfoProvider {
-    private final Cache<@NotNull String, VpnInfoData> cache;
+    /**
+     * @param cacheSettings settings for the VPN info cache
+     * @param source the source asked for IPs that are not cached
+     */
+    public VpnInfoProvider(CacheConfig.CacheSettings cacheSettings, VpnInfoSource source) {
+        this.source = source;
+        // VPN verdicts belong to single exit addresses, so this cache is always keyed per address
+        this.cache = CacheUtils.createVpnInfoCache(cacheSettings, new CacheLoader<>() {
+            @Override
+            public VpnInfoData load(@NotNull AddressKey key) {
+                return source.loadVpnData(key.toString(), LookupPriority.FIRST_SEEN);
+            }
 
-    public VpnInfoProvider(Cache<@NotNull String, VpnInfoData> cache) {
-        this.cache = cache;
+            @Override
+            public CompletableFuture<VpnInfoData> asyncReload(@NotNull AddressKey key, @NotNull VpnInfoData oldValue,
+                                                              @NotNull Executor executor) {
+                CompletableFuture<VpnInfoData> reload = new CompletableFuture<>();
+                executor.execute(() -> {
+                    try {
+                        reload.complete(source.loadVpnData(key.toString(), LookupPriority.REVALIDATION));
+                    } catch (QuotaExceededException e) {
+                        // A cancelled refresh keeps the old value and, unlike a failed one, is not logged
+                        reload.cancel(false);
+                    } catch (Throwable e) {
+                        reload.completeExceptionally(e);
+                    }
+                });
+                return reload;
+            }
+        });
+        this.ttl = cacheSettings.ttl();
     }
 
     /**
      * Creates a VpnInfoProvider instance based on the provided configuration.
+     * The selected provider and its fallbacks are wrapped in a {@link FailoverVpnInfoProvider},
+     * so a provider that is down is skipped quickly and the providers can be ordered by their observed health.
+     * @param cfg the VPN block configuration
+     * @param cacheSettings settings for the VPN info cache
+     * @param logger logger for provider health changes
+     * @return a VpnInfoProvider instance
+     */
+    public static VpnInfoProvider fromConfig(VpnBlockConfig cfg, CacheConfig.CacheSettings cacheSettings, Logger logger) {
+        return new VpnInfoProvider(cacheSettings, createChain(cfg, logger));
+    }
+
+    /**
+     * Creates a VpnInfoProvider instance based on the provided configuration, like
+     * {@link #fromConfig(VpnBlockConfig, CacheConfig.CacheSettings, Logger)}. If the ASN precheck is enabled,
+     * the provider chain is wrapped in an {@link AsnPrecheckVpnInfoProvider} that looks up ASNs with the given fetcher.
+     * Either way, the provider returned is the only cache.
      * @param cfg the VPN block configuration
+     * @param cacheSettings settings for the VPN info cache
+     * @param logger logger for provider health changes and ASN list updates
+     * @param asnSource the IP data fetcher whose local database is used to look up ASNs
      * @return a VpnInfoProvider instance
      */
-    public static VpnInfoProvider fromConfig(VpnBlockConfig cfg) {
-        switch (cfg.provider()) {
+    public static VpnInfoProvider fromConfig(VpnBlockConfig cfg, CacheConfig.CacheSettings cacheSettings, Logger logger,
+                                             IpDataFetcher asnSource) {
+        VpnInfoSource source = createChain(cfg, logger);
+        AsnPrecheckConfig precheck = cfg.asnPrecheck();
+        if (precheck.enabled() && asnSource != null) {
+            source = new AsnPrecheckVpnInfoProvider(source, asnSource, new AsnClassifier(precheck, logger),
+                    precheck.reportHostingAsVpn());
+        }
+        return new VpnInfoProvider(cacheSettings, source);
+    }
+
+    private static FailoverVpnInfoProvider createChain(VpnBlockConfig cfg, Logger logger) {
+        ProviderRouter router = new ProviderRouter(cfg.routing());
+        List<FailoverVpnInfoProvider.Member> members = new ArrayList<>();
+        for (VpnBlockConfig.Provider provider : cfg.chain()) {
+            VpnInfoSource source = createProvider(provider, cfg);
+            if (source == null) {
+                logger.warning("VPN info provider " + provider.configName() + " is not configured; leaving it out.");
+                continue;
+            }
+            int dailyLimit = cfg.quota().limitFor(provider);
+            members.add(new FailoverVpnInfoProvider.Member(
+                    source,
+                    new CircuitBreaker(provider.configName(), cfg.circuitBreaker(), logger),
+                    router.newHealth(),
+                    dailyLimit > 0 ? new QuotaTracker(provider.configName(), dailyLimit, cfg.quota(), logger) : null
+            ));
+        }
+        if (members.isEmpty()) {
+            VpnBlockConfig.Provider fallback = VpnBlockConfig.Provider.VPNAPI;
+            members.add(new FailoverVpnInfoProvider.Member(
+                    new VpnApi(cfg.apiKeyFor(fallback)),
+                    new CircuitBreaker(fallback.configName(), cfg.circuitBreaker(), logger),
+                    router.newHealth(),
+                    null
+            ));
+        }
+        return new FailoverVpnInfoProvider(members, router);
+    }
+
+    private static VpnInfoSource createProvider(VpnBlockConfig.Provider provider, VpnBlockConfig cfg) {
+        switch (provider) {
             case PROXYCHECK:
-                return new ProxyCheck(CacheUtils.createVpnInfoCache(), cfg.apiKey());
+                ProxyCheck proxyCheck = new ProxyCheck(cfg.apiKeyFor(provider));
+                return cfg.batching().enabled() ? new BatchingVpnInfoSource(proxyCheck, cfg.batching()) : proxyCheck;
             case CUSTOM:
                 CustomProviderConfig c = cfg.customProviderConfig();
-                if (c == null) return new VpnApi(CacheUtils.createVpnInfoCache(), cfg.apiKey());
-                return new CustomVpnInfoProvider(CacheUtils.createVpnInfoCache(), c.apiUrl(), c.headers(), c.parseFields());
+                if (c == null) return null;
+                return new CustomVpnInfoProvider(c.apiUrl(), c.headers(), c.parseFields());
             default:
-                return new VpnApi(CacheUtils.createVpnInfoCache(), cfg.apiKey());
+                return new VpnApi(cfg.apiKeyFor(provider));
         }
     }
 
-    protected Cache<@NotNull String, VpnInfoData> getCache() {
-        return cache;
+    /**
+     * @return the source asked for IPs that are not cached
+     */
+    public VpnInfoSource getSource() {
+        return source;
     }
 
-    protected abstract String getApiUrl();
+    /**
+     * @return a snapshot of the statistics of the cache
+     */
+    public CacheMetrics getCacheMetrics() {
+        return CacheUtils.snapshot("vpn_info", cache.synchronous());
+    }
 
     /**
      * Fetches VPN data for the given IP address.
      * @param ip the IP address to fetch data for
      * @throws DataFetchException if an error occurs while fetching the data
-     * @return the VPN data for the specified IP address
+     * @return the VPN data for the specified IP address, or null if the provider has no data for it
      */
     public VpnInfoData fetchVpnData(String ip) throws DataFetchException {
-        if (ip == null || ip.isEmpty()) {
-            throw new DataFetchException("IP address cannot be null or empty");
-        }
-
-        if (getCache().getIfPresent(ip) != null) {
-            return getCache().getIfPresent(ip);
-        }
-
-        try {
-            URL url = new URL(getApiUrl().replace("%ip%", ip));
-            String jsonResponse = fetchFromApi(url);
-            VpnInfoData data = parseVpnData(jsonResponse);
-            if (data == null) return null;
-            getCache().put(ip, data);
-            return data;
-        } catch (Exception e) {
-            throw new DataFetchException("Failed to fetch VPN data", e);
+        LookupResult<VpnInfoData> result = lookupVpnData(ip);
+        if (result.status() == LookupResult.Status.FAILED) {
+            if (result.cause() instanceof DataFetchException e) throw e;
+            throw new DataFetchException("Lookup for " + ip + " failed recently, not retrying yet", result.cause());
         }
+        return result.data();
     }
 
     /**
-     * Parses the VPN data from the JSON response.
-     * @param jsonResponse the JSON response from the API
-     * @throws ParseException if an error occurs while parsing the JSON
-     * @return the parsed VPN data
+     * Looks up VPN data for the given IP address without throwing.
+     * Lookups that return no data or fail are cached for a short time, so repeated connections
+     * from the same IP don't hit the provider again. Entries past their ttl are still served
+     * (flagged as stale) while they are refreshed in the background.
+     * @param ip the IP address to look up
+     * @return the result of the lookup
      */
-    protected abstract VpnInfoData parseVpnData(String jsonResponse) throws ParseException;
-
-    /**
-     * Fetches data from the specified URL with optional headers.
-     * @param url the URL to fetch data from
-     * @param headers optional headers to include in the request
-     * @throws IOException if an error occurs while fetching the data
-     * @return the response as a String
-     */
-    protected String fetchFromApi(URL url, Map<String, String> headers) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-
-        if (headers != null) {
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                connection.setRequestProperty(header.getKey(), header.getValue());
-            }
+    public LookupResult<VpnInfoData> lookupVpnData(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return LookupResult.failed(new DataFetchException("IP address cannot be null or empty"));
         }
 
-        int statusCode = connection.getResponseCode();
-        if (statusCode != HttpURLConnection.HTTP_OK) {
-            throw new IOException("Failed to fetch data from " + url + ". HTTP status code: " + statusCode);
+        AddressKey key = AddressKey.parse(ip);
+        if (key == null) {
+            return LookupResult.failed(new DataFetchException("Not a valid IP address: " + ip));
         }
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            StringBuilder response = new StringBuilder();
-            String line;
+        LookupResult.Status negative = negativeCache.getIfPresent(key);
+        if (negative != null) return LookupResult.unknown(negative);
 
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+        try {
+            // Loading through the cache records the load time and coalesces concurrent lookups of the same IP
+            VpnInfoData data = cache.get(key).join();
+            if (data == null) {
+                negativeCache.put(key, LookupResult.Status.NOT_FOUND);
+                return LookupResult.notFound();
             }
-
-            return response.toString();
+            return CacheUtils.isStale(cache, key, ttl) ? LookupResult.stale(data) : LookupResult.found(data);
+        } catch (CompletionException | CancellationException e) {
+            negativeCache.put(key, LookupResult.Status.FAILED);
+            return LookupResult.failed(e.getCause() != null ? e.getCause() : e);
         }
     }
 
     /**
-     * Fetches data from the specified URL without additional headers.
-     * @param url the URL to fetch data from
-     * @throws IOException if an error occurs while fetching the data
-     * @return the response as a String
+     * Called when the application is shutting down.
      */
-    protected String fetchFromApi(URL url) throws IOException {
-        return fetchFromApi(url, null);
+    public void onShutDown() {
+        source.onShutDown();
     }
 }
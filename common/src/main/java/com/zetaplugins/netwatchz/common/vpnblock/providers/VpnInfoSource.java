@@ -0,0 +1,27 @@
+package com.zetaplugins.netwatchz.common.vpnblock.providers;
+
+import com.zetaplugins.netwatchz.common.DataFetchException;
+import com.zetaplugins.netwatchz.common.LookupPriority;
+import com.zetaplugins.netwatchz.common.vpnblock.VpnInfoData;
+
+/**
+ * Looks up VPN data without caching it. Implemented by the providers, by HTTP APIs through {@link HttpVpnInfoSource},
+ * and by the {@link FailoverVpnInfoProvider} chain of providers. The cache is owned by the {@link VpnInfoProvider}
+ * that wraps the outermost source.
+ */
+public interface VpnInfoSource {
+    /**
+     * Fetches VPN data for the given IP address. Sources with a request budget use the priority to decide
+     * whether the request is worth it; others ignore it.
+     * @param ip the IP address to fetch data for
+     * @param priority why the data is fetched
+     * @throws DataFetchException if an error occurs while fetching the data, or the request was skipped
+     * @return the VPN data, or null if the source has no data for the IP
+     */
+    VpnInfoData loadVpnData(String ip, LookupPriority priority) throws DataFetchException;
+
+    /**
+     * Called when the application is shutting down, to stop background tasks and save state.
+     */
+    default void onShutDown() {}
+}
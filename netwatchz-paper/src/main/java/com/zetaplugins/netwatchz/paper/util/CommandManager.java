@@ -2,6 +2,7 @@ package com.zetaplugins.netwatchz.paper.util;
 
 import com.zetaplugins.netwatchz.paper.NetwatchZPaper;
 import com.zetaplugins.netwatchz.paper.commands.IpInfoCommand;
+import com.zetaplugins.netwatchz.paper.commands.StatsCommand;
 import com.zetaplugins.zetacore.debug.command.DebugCommandHandler;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.PluginCommand;
@@ -24,6 +25,9 @@ public final class CommandManager {
         var ipInfoCommand = new IpInfoCommand(plugin);
         registerCommand("ipinfo", ipInfoCommand, ipInfoCommand);
 
+        var statsCommand = new StatsCommand(plugin);
+        registerCommand("nwzstats", statsCommand, statsCommand);
+
         Map<String, String> configsMap = new HashMap<>();
         configsMap.put("config.yml", plugin.getConfig().saveToString());
         DebugCommandHandler debugCommandHandler = new DebugCommandHandler(
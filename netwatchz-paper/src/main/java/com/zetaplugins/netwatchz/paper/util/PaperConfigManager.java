@@ -1,6 +1,7 @@
 package com.zetaplugins.netwatchz.paper.util;
 
 import com.zetaplugins.netwatchz.common.config.*;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
 import com.zetaplugins.netwatchz.common.iplist.IpListFetchJob;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -22,16 +23,36 @@ public final class PaperConfigManager extends ConfigManager {
 
     @Override
     public IpInfoProviderConfig loadIpInfoProviderConfig() {
-        String raw = cfg.getString("ip_info_provider.provider", "ip-api").trim().toLowerCase(Locale.ROOT);
-        IpInfoProviderConfig.Provider p = switch (raw) {
-            case "ipwhois" -> IpInfoProviderConfig.Provider.IPWHOIS;
-            case "geolite2" -> IpInfoProviderConfig.Provider.GEOLITE2;
-            case "custom" -> IpInfoProviderConfig.Provider.CUSTOM;
-            default -> IpInfoProviderConfig.Provider.IP_API;
-        };
+        String raw = cfg.getString("ip_info_provider.provider", "ip-api");
+        IpInfoProviderConfig.Provider p = IpInfoProviderConfig.Provider.fromString(raw);
+        if (p == null) {
+            plugin.getLogger().warning("Unknown IP info provider '" + raw + "'; using ip-api.");
+            p = IpInfoProviderConfig.Provider.IP_API;
+        }
+
+        List<IpInfoProviderConfig.Provider> fallbacks = new ArrayList<>();
+        for (String name : cfg.getStringList("ip_info_provider.fallback_providers")) {
+            IpInfoProviderConfig.Provider fallback = IpInfoProviderConfig.Provider.fromString(name);
+            if (fallback == null) {
+                plugin.getLogger().warning("Unknown fallback IP info provider '" + name + "'; ignoring.");
+                continue;
+            }
+            fallbacks.add(fallback);
+        }
+
+        CircuitBreakerConfig breaker = loadCircuitBreakerConfig("ip_info_provider.circuit_breaker");
+
+        HedgingConfig hedgingDef = HedgingConfig.DISABLED;
+        HedgingConfig hedging = new HedgingConfig(
+                cfg.getBoolean("ip_info_provider.hedging.enabled", hedgingDef.enabled()),
+                Duration.ofMillis(cfg.getLong("ip_info_provider.hedging.delay_ms", 0)),
+                cfg.getInt("ip_info_provider.hedging.percentile", (int) Math.round(hedgingDef.percentile() * 100)) / 100.0,
+                Duration.ofMillis(cfg.getLong("ip_info_provider.hedging.min_delay_ms", hedgingDef.minDelay().toMillis())),
+                Duration.ofMillis(cfg.getLong("ip_info_provider.hedging.max_delay_ms", hedgingDef.maxDelay().toMillis()))
+        );
 
         GeoLite2Config geo = null;
-        if (p == IpInfoProviderConfig.Provider.GEOLITE2) {
+        if (p == IpInfoProviderConfig.Provider.GEOLITE2 || fallbacks.contains(IpInfoProviderConfig.Provider.GEOLITE2)) {
             String asnUrl = cfg.getString("ip_info_provider.geolite2.asn_url", "");
             String cityUrl = cfg.getString("ip_info_provider.geolite2.city_url", "");
             String countryUrl = cfg.getString("ip_info_provider.geolite2.country_url", "");
@@ -49,11 +70,15 @@ public final class PaperConfigManager extends ConfigManager {
                 plugin.getLogger().warning("Invalid GeoLite2 Country URL; ignoring.");
                 countryUrl = "";
             }
-            geo = new GeoLite2Config(asnUrl, cityUrl, countryUrl, storage, Duration.ofDays(7));
+            geo = new GeoLite2Config(asnUrl, cityUrl, countryUrl, storage, Duration.ofDays(7),
+                    GeoLite2Config.FileMode.fromString(cfg.getString("ip_info_provider.geolite2.file_mode", "mmap")),
+                    cfg.getInt("ip_info_provider.geolite2.node_cache_size", GeoLite2Config.DEFAULT_NODE_CACHE_SIZE),
+                    cfg.getBoolean("ip_info_provider.geolite2.warmup", true),
+                    cfg.getBoolean("geo_blocking.enabled", true) ? cfg.getStringList("geo_blocking.countries") : List.of());
         }
 
         CustomProviderConfig custom = null;
-        if (p == IpInfoProviderConfig.Provider.CUSTOM) {
+        if (p == IpInfoProviderConfig.Provider.CUSTOM || fallbacks.contains(IpInfoProviderConfig.Provider.CUSTOM)) {
             String apiUrl = cfg.getString("ip_info_provider.custom.url", "http://ip-api.com/json/%ip%");
             ConfigurationSection sec = cfg.getConfigurationSection("ip_info_provider.custom.headers");
             Map<String,String> headers = sec == null ? Map.of() :
@@ -64,7 +89,60 @@ public final class PaperConfigManager extends ConfigManager {
             custom = new CustomProviderConfig(apiUrl, headers, parseFields);
         }
 
-        return new IpInfoProviderConfig(p, geo, custom);
+        MmdbProviderConfig mmdb = null;
+        if (p == IpInfoProviderConfig.Provider.MMDB || fallbacks.contains(IpInfoProviderConfig.Provider.MMDB)) {
+            String url = cfg.getString("ip_info_provider.mmdb.url", "");
+            if (!url.isBlank() && !isValidUrl(url)) {
+                plugin.getLogger().warning("Invalid MMDB URL; ignoring.");
+                url = "";
+            }
+            Path file = plugin.getDataFolder().toPath().resolve("mmdb")
+                    .resolve(cfg.getString("ip_info_provider.mmdb.file", "dbip-city-lite.mmdb"));
+            ConfigurationSection fieldsSec = cfg.getConfigurationSection("ip_info_provider.mmdb.fields");
+            Map<String,String> fields = fieldsSec == null ? Map.of() :
+                    fieldsSec.getKeys(false).stream().collect(Collectors.toMap(k -> k, k -> fieldsSec.getString(k, "")));
+            mmdb = new MmdbProviderConfig(file, url, Duration.ofDays(7),
+                    GeoLite2Config.FileMode.fromString(cfg.getString("ip_info_provider.mmdb.file_mode", "mmap")),
+                    cfg.getInt("ip_info_provider.mmdb.node_cache_size", GeoLite2Config.DEFAULT_NODE_CACHE_SIZE),
+                    fields);
+        }
+
+        CsvProviderConfig csv = null;
+        if (p == IpInfoProviderConfig.Provider.CSV || fallbacks.contains(IpInfoProviderConfig.Provider.CSV)) {
+            Path file = plugin.getDataFolder().toPath().resolve("csv")
+                    .resolve(cfg.getString("ip_info_provider.csv.file", "IP2LOCATION-LITE-DB11.CSV"));
+            ConfigurationSection columnsSec = cfg.getConfigurationSection("ip_info_provider.csv.columns");
+            Map<String,Integer> columns = columnsSec == null ? Map.of() :
+                    columnsSec.getKeys(false).stream().collect(Collectors.toMap(k -> k, k -> columnsSec.getInt(k, 0)));
+            csv = new CsvProviderConfig(file,
+                    cfg.getInt("ip_info_provider.csv.start_column", 1),
+                    cfg.getInt("ip_info_provider.csv.end_column", 2),
+                    columns);
+        }
+
+        return new IpInfoProviderConfig(p, fallbacks, breaker, hedging, loadRoutingConfig("ip_info_provider.routing"), geo, custom, mmdb, csv);
+    }
+
+    private CircuitBreakerConfig loadCircuitBreakerConfig(String path) {
+        CircuitBreakerConfig def = CircuitBreakerConfig.DEFAULT;
+        return new CircuitBreakerConfig(
+                cfg.getInt(path + ".window_size", def.windowSize()),
+                cfg.getInt(path + ".minimum_calls", def.minimumCalls()),
+                cfg.getInt(path + ".failure_rate_percent", (int) Math.round(def.failureRate() * 100)) / 100.0,
+                Duration.ofMillis(cfg.getLong(path + ".slow_call_ms", def.slowCallThreshold().toMillis())),
+                cfg.getInt(path + ".slow_call_rate_percent", (int) Math.round(def.slowCallRate() * 100)) / 100.0,
+                Duration.ofSeconds(cfg.getLong(path + ".open_seconds", def.openDuration().toSeconds())),
+                cfg.getInt(path + ".half_open_probes", def.halfOpenProbes())
+        );
+    }
+
+    private RoutingConfig loadRoutingConfig(String path) {
+        RoutingConfig def = RoutingConfig.ORDERED;
+        return new RoutingConfig(
+                RoutingConfig.Mode.fromString(cfg.getString(path + ".mode", "ordered")),
+                cfg.getInt(path + ".smoothing_percent", (int) Math.round(def.smoothing() * 100)) / 100.0,
+                cfg.getInt(path + ".exploration_percent", (int) Math.round(def.exploration() * 100)) / 100.0
+        );
     }
 
     @Override
@@ -105,19 +183,36 @@ public final class PaperConfigManager extends ConfigManager {
         boolean enabled = cfg.getBoolean("vpn_block.enabled", false);
         String apiKey = cfg.getString("vpn_block.api_key", "").trim();
 
-        String raw = cfg.getString("vpn_block.provider", "vpnapi").trim().toLowerCase(Locale.ROOT);
-        VpnBlockConfig.Provider p = switch (raw) {
-            case "custom" -> VpnBlockConfig.Provider.CUSTOM;
-            case "proxycheck" -> VpnBlockConfig.Provider.PROXYCHECK;
-            default -> VpnBlockConfig.Provider.VPNAPI;
-        };
+        String raw = cfg.getString("vpn_block.provider", "vpnapi");
+        VpnBlockConfig.Provider p = VpnBlockConfig.Provider.fromString(raw);
+        if (p == null) {
+            plugin.getLogger().warning("Unknown VPN info provider '" + raw + "'; using vpnapi.");
+            p = VpnBlockConfig.Provider.VPNAPI;
+        }
+
+        List<VpnBlockConfig.Provider> fallbacks = new ArrayList<>();
+        for (String name : cfg.getStringList("vpn_block.fallback_providers")) {
+            VpnBlockConfig.Provider fallback = VpnBlockConfig.Provider.fromString(name);
+            if (fallback == null) {
+                plugin.getLogger().warning("Unknown fallback VPN info provider '" + name + "'; ignoring.");
+                continue;
+            }
+            fallbacks.add(fallback);
+        }
+
+        Map<VpnBlockConfig.Provider, String> apiKeys = new EnumMap<>(VpnBlockConfig.Provider.class);
+        for (VpnBlockConfig.Provider provider : VpnBlockConfig.Provider.values()) {
+            String key = cfg.getString("vpn_block.api_keys." + provider.configName(), "").trim();
+            if (!key.isBlank()) apiKeys.put(provider, key);
+        }
 
         CustomProviderConfig custom = null;
-        if (p == VpnBlockConfig.Provider.CUSTOM) {
+        if (p == VpnBlockConfig.Provider.CUSTOM || fallbacks.contains(VpnBlockConfig.Provider.CUSTOM)) {
             String apiUrl = cfg.getString("vpn_block.custom.url", "");
             if (apiUrl.isBlank() || !isValidUrl(apiUrl)) {
-                plugin.getLogger().warning("Invalid VPN Block custom URL; defaulting to VPNAPI.");
-                p = VpnBlockConfig.Provider.VPNAPI;
+                plugin.getLogger().warning("Invalid VPN Block custom URL; leaving the custom provider out.");
+                if (p == VpnBlockConfig.Provider.CUSTOM) p = VpnBlockConfig.Provider.VPNAPI;
+                fallbacks.remove(VpnBlockConfig.Provider.CUSTOM);
             } else {
                 ConfigurationSection sec = cfg.getConfigurationSection("vpn_block.custom.headers");
                 Map<String,String> headers = sec == null ? Map.of() :
@@ -129,6 +224,139 @@ public final class PaperConfigManager extends ConfigManager {
             }
         }
 
-        return new VpnBlockConfig(enabled, p, apiKey, custom);
+        return new VpnBlockConfig(enabled, p, apiKey, custom, fallbacks, apiKeys,
+                loadCircuitBreakerConfig("vpn_block.circuit_breaker"), loadRoutingConfig("vpn_block.routing"),
+                loadAsnPrecheckConfig(),
+                new BatchingConfig(
+                        cfg.getBoolean("vpn_block.batching.enabled", BatchingConfig.DEFAULT.enabled()),
+                        Duration.ofMillis(cfg.getLong("vpn_block.batching.window_ms", BatchingConfig.DEFAULT.window().toMillis())),
+                        cfg.getInt("vpn_block.batching.max_size", BatchingConfig.DEFAULT.maxBatchSize())
+                ),
+                loadQuotaConfig());
+    }
+
+    private QuotaConfig loadQuotaConfig() {
+        QuotaConfig def = QuotaConfig.UNLIMITED;
+        Map<VpnBlockConfig.Provider, Integer> limits = new EnumMap<>(VpnBlockConfig.Provider.class);
+        for (VpnBlockConfig.Provider provider : VpnBlockConfig.Provider.values()) {
+            int limit = cfg.getInt("vpn_block.quota.daily_limits." + provider.configName(), 0);
+            if (limit > 0) limits.put(provider, limit);
+        }
+        return new QuotaConfig(
+                limits,
+                cfg.getInt("vpn_block.quota.burst_percent", (int) Math.round(def.burst() * 100)) / 100.0,
+                cfg.getInt("vpn_block.quota.revalidation_reserve_percent", (int) Math.round(def.revalidationReserve() * 100)) / 100.0,
+                plugin.getDataFolder().toPath().resolve("quota")
+        );
+    }
+
+    private AsnPrecheckConfig loadAsnPrecheckConfig() {
+        if (!cfg.getBoolean("vpn_block.asn_precheck.enabled", false)) return AsnPrecheckConfig.DISABLED;
+
+        Path listsDir = plugin.getDataFolder().toPath().resolve("asnLists");
+        List<AsnPrecheckConfig.AsnList> lists = new ArrayList<>();
+        ConfigurationSection listsSection = cfg.getConfigurationSection("vpn_block.asn_precheck.lists");
+        if (listsSection != null) {
+            for (String key : listsSection.getKeys(false)) {
+                String path = "vpn_block.asn_precheck.lists." + key;
+                String url = cfg.getString(path + ".url", "").trim();
+                String filename = cfg.getString(path + ".filename", "").trim();
+                String type = cfg.getString(path + ".type", "hosting").trim();
+                int intervalHours = Math.max(1, cfg.getInt(path + ".update_interval_hours", 24));
+                if (filename.isEmpty() || (!url.isEmpty() && !isValidUrl(url))) {
+                    plugin.getLogger().warning("Invalid ASN list '" + key + "', missing filename or invalid url");
+                    continue;
+                }
+                lists.add(new AsnPrecheckConfig.AsnList(listsDir.resolve(filename), url,
+                        Duration.ofHours(intervalHours), !type.equalsIgnoreCase("residential")));
+            }
+        }
+
+        return new AsnPrecheckConfig(
+                true,
+                parseAsns(cfg.getStringList("vpn_block.asn_precheck.hosting_asns")),
+                parseAsns(cfg.getStringList("vpn_block.asn_precheck.residential_asns")),
+                cfg.getStringList("vpn_block.asn_precheck.hosting_keywords"),
+                cfg.getStringList("vpn_block.asn_precheck.residential_keywords"),
+                cfg.getString("vpn_block.asn_precheck.report_hosting_as", "is_hosting").trim().equalsIgnoreCase("is_vpn"),
+                lists
+        );
+    }
+
+    private Set<Long> parseAsns(List<String> raw) {
+        Set<Long> asns = new HashSet<>();
+        for (String value : raw) {
+            AsnInfo asn = AsnInfo.parse(value, null);
+            if (asn == null) {
+                plugin.getLogger().warning("Invalid AS number '" + value + "'; ignoring.");
+                continue;
+            }
+            asns.add(asn.number());
+        }
+        return asns;
+    }
+
+    @Override
+    public ConnectionCheckConfig loadConnectionCheckConfig() {
+        return new ConnectionCheckConfig(
+                Duration.ofMillis(cfg.getLong("connection_check.deadline_ms", ConnectionCheckConfig.DEFAULT.deadline().toMillis())),
+                cfg.getInt("connection_check.max_concurrent_lookups", ConnectionCheckConfig.DEFAULT.maxConcurrentLookups())
+        );
+    }
+
+    @Override
+    public String getString(String path, String def) {
+        return cfg.getString(path, def);
+    }
+
+    @Override
+    public List<String> getStringList(String path) {
+        return cfg.getStringList(path);
+    }
+
+    @Override
+    public boolean getBoolean(String path, boolean def) {
+        return cfg.getBoolean(path, def);
+    }
+
+    @Override
+    public CacheConfig loadCacheConfig() {
+        return new CacheConfig(
+                loadCacheSettings("cache.ip_data"),
+                loadCacheSettings("cache.vpn_info"),
+                loadVerdictSettings("cache.verdicts")
+        );
+    }
+
+    private CacheConfig.VerdictSettings loadVerdictSettings(String path) {
+        CacheConfig.VerdictSettings def = CacheConfig.VerdictSettings.DEFAULT;
+        return new CacheConfig.VerdictSettings(
+                cfg.getBoolean(path + ".enabled", def.enabled()),
+                cfg.getLong(path + ".max_size", def.maxSize()),
+                Duration.ofMinutes(cfg.getLong(path + ".ttl_minutes", def.ttl().toMinutes())),
+                cfg.getBoolean(path + ".record_stats", def.recordStats())
+        );
+    }
+
+    private CacheConfig.CacheSettings loadCacheSettings(String path) {
+        CacheConfig.CacheSettings def = CacheConfig.CacheSettings.DEFAULT;
+        long maxSize = cfg.getLong(path + ".max_size", def.maxSize());
+        long maxMemoryMb = cfg.getLong(path + ".max_memory_mb", 0);
+        long ttlMinutes = cfg.getLong(path + ".ttl_minutes", def.ttl().toMinutes());
+        long refreshAheadPercent = cfg.getLong(path + ".refresh_ahead_percent", Math.round(def.refreshAhead() * 100));
+        long maxStaleMinutes = cfg.getLong(path + ".max_stale_minutes", def.maxStale().toMinutes());
+        int prefixLengthV4 = cfg.getInt(path + ".prefix_length_v4", def.prefixLengthV4());
+        int prefixLengthV6 = cfg.getInt(path + ".prefix_length_v6", def.prefixLengthV6());
+        boolean recordStats = cfg.getBoolean(path + ".record_stats", def.recordStats());
+        return new CacheConfig.CacheSettings(
+                maxSize,
+                maxMemoryMb * 1024 * 1024,
+                Duration.ofMinutes(ttlMinutes),
+                refreshAheadPercent / 100.0,
+                Duration.ofMinutes(maxStaleMinutes),
+                prefixLengthV4,
+                prefixLengthV6,
+                recordStats
+        );
     }
 }
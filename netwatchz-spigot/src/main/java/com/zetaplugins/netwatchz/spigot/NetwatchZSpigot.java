@@ -1,5 +1,8 @@
 package com.zetaplugins.netwatchz.spigot;
 
+import com.zetaplugins.netwatchz.common.NetwatchzServices;
+import com.zetaplugins.netwatchz.common.check.ConnectionCheckPipeline;
+import com.zetaplugins.netwatchz.common.check.VerdictCache;
 import com.zetaplugins.netwatchz.common.config.*;
 import com.zetaplugins.netwatchz.common.ipapi.fetchers.*;
 import com.zetaplugins.netwatchz.common.iplist.IpListFetcher;
@@ -8,6 +11,7 @@ import com.zetaplugins.netwatchz.common.vpnblock.providers.VpnInfoProvider;
 import com.zetaplugins.netwatchz.spigot.util.*;
 import com.zetaplugins.zetacore.ZetaCorePlugin;
 import com.zetaplugins.zetacore.services.LocalizationService;
+import org.bukkit.Bukkit;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
@@ -19,6 +23,8 @@ public final class NetwatchZSpigot extends ZetaCorePlugin {
     private IpListService ipListService;
     private IpListFetcher ipListFetcher;
     private VpnInfoProvider vpnInfoProvider;
+    private ConnectionCheckPipeline<String> checkPipeline;
+    private long reportedEvictions = 0;
 
     @Override
     public void onEnable() {
@@ -31,17 +37,30 @@ public final class NetwatchZSpigot extends ZetaCorePlugin {
         IpInfoProviderConfig ipInfoCfg = configManager.loadIpInfoProviderConfig();
         IpListConfig ipListCfg = configManager.loadIpListConfig();
         VpnBlockConfig vpnBlockCfg = configManager.loadVpnBlockConfig();
+        CacheConfig cacheCfg = configManager.loadCacheConfig();
 
-        ipDataFetcher = IpDataFetcher.fromConfig(ipInfoCfg, getLogger());
+        ipDataFetcher = IpDataFetcher.fromConfig(ipInfoCfg, cacheCfg.ipData(), getLogger());
         ipListFetcher = IpListFetcher.fromConfig(ipListCfg, getLogger());
         ipListService = IpListService.fromConfig(ipListCfg, getLogger());
-        vpnInfoProvider = VpnInfoProvider.fromConfig(vpnBlockCfg);
+        vpnInfoProvider = VpnInfoProvider.fromConfig(vpnBlockCfg, cacheCfg.vpnInfo(), getLogger(), ipDataFetcher);
         localizationService = new LocalizationService(this, new ArrayList<>() {{
             add("en-US");
             add("de-DE");
         }});
         messageService = new SpigotMessageService(localizationService);
 
+        checkPipeline = ConnectionCheckPipeline.create(
+                configManager,
+                new NetwatchzServices(ipDataFetcher, ipListService, ipListFetcher, vpnInfoProvider),
+                new VerdictCache<>(cacheCfg.verdicts()),
+                (key, fallback) -> messageService.getAndFormatMsg(false, key, fallback),
+                command -> Bukkit.getScheduler().runTask(this, () -> Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command)),
+                getLogger()
+        );
+        ipListFetcher.addUpdateListener(path -> {
+            if (ipListService.reload(path)) checkPipeline.getVerdictCache().invalidateAll();
+        });
+
         new EventManager(this).registerListeners();
         new CommandManager(this).registerCommands();
 
@@ -66,6 +85,10 @@ public final class NetwatchZSpigot extends ZetaCorePlugin {
         return vpnInfoProvider;
     }
 
+    public ConnectionCheckPipeline<String> getCheckPipeline() {
+        return checkPipeline;
+    }
+
     public LocalizationService getLocalizationService() {
         return localizationService;
     }
@@ -77,6 +100,8 @@ public final class NetwatchZSpigot extends ZetaCorePlugin {
     @Override
     public void onDisable() {
         if (ipDataFetcher != null) ipDataFetcher.onShutDown();
+        if (vpnInfoProvider != null) vpnInfoProvider.onShutDown();
+        if (checkPipeline != null) checkPipeline.onShutDown();
         getLogger().info("NetwatchZ-Spigot has been disabled!");
     }
 
@@ -92,5 +117,16 @@ public final class NetwatchZSpigot extends ZetaCorePlugin {
         metrics.addCustomChart(new Metrics.SimplePie("ip_info_provider", () -> getConfig().getString("ip_info_provider.provider")));
         metrics.addCustomChart(new Metrics.SimplePie("geo_blocking_enabled", () -> getConfig().getBoolean("geo_blocking.enabled") ? "true" : "false"));
         metrics.addCustomChart(new Metrics.SimplePie("ip_list_enabled", () -> getConfig().getBoolean("ip_list.enabled") ? "true" : "false"));
+        metrics.addCustomChart(new Metrics.SimplePie("ip_cache_hit_rate", () -> ipDataFetcher.getCacheMetrics().hitRateBucket()));
+        metrics.addCustomChart(new Metrics.SimplePie("ip_cache_load_time", () -> ipDataFetcher.getCacheMetrics().loadTimeBucket()));
+        metrics.addCustomChart(new Metrics.SimplePie("vpn_cache_hit_rate", () -> vpnInfoProvider.getCacheMetrics().hitRateBucket()));
+        metrics.addCustomChart(new Metrics.SingleLineChart("cache_evictions", this::getEvictionsSinceLastReport));
+    }
+
+    private int getEvictionsSinceLastReport() {
+        long total = ipDataFetcher.getCacheMetrics().evictionCount() + vpnInfoProvider.getCacheMetrics().evictionCount();
+        long delta = total - reportedEvictions;
+        reportedEvictions = total;
+        return (int) Math.min(Integer.MAX_VALUE, delta);
     }
 }
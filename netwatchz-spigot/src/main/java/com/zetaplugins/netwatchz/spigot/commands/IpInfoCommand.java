@@ -1,5 +1,6 @@
 package com.zetaplugins.netwatchz.spigot.commands;
 
+import com.zetaplugins.netwatchz.common.LookupResult;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
 import com.zetaplugins.netwatchz.spigot.NetwatchZSpigot;
 import com.zetaplugins.netwatchz.spigot.util.SpigotMessageService;
@@ -46,8 +47,8 @@ public class IpInfoCommand implements CommandExecutor, TabCompleter {
 
         String playerIp = player.getAddress() != null ? NetwatchZSpigot.getIpFromInetAdress(player.getAddress().getAddress()) : "Unknown IP";
 
-        IpData ipData = plugin.getIpDataFetcher().fetchIpData(playerIp);
-        if (ipData == null) {
+        LookupResult<IpData> result = plugin.getIpDataFetcher().lookupIpData(playerIp);
+        if (!result.isKnown()) {
             sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
                     false,
                     "ip_data_fetch_error",
@@ -57,6 +58,7 @@ public class IpInfoCommand implements CommandExecutor, TabCompleter {
             return false;
         }
 
+        IpData ipData = result.data();
         sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
                 false,
                 "ip_info",
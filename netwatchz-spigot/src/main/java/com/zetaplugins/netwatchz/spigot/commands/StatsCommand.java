@@ -0,0 +1,151 @@
+package com.zetaplugins.netwatchz.spigot.commands;
+
+import com.zetaplugins.netwatchz.common.CacheMetrics;
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
+import com.zetaplugins.netwatchz.common.ProviderHealth;
+import com.zetaplugins.netwatchz.common.QuotaTracker;
+import com.zetaplugins.netwatchz.common.check.StageStats;
+import com.zetaplugins.netwatchz.common.ipapi.HedgingStats;
+import com.zetaplugins.netwatchz.common.ipapi.fetchers.FailoverIpDataFetcher;
+import com.zetaplugins.netwatchz.common.vpnblock.AsnClassifier;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.AsnPrecheckVpnInfoProvider;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.FailoverVpnInfoProvider;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.VpnInfoSource;
+import com.zetaplugins.netwatchz.spigot.NetwatchZSpigot;
+import com.zetaplugins.netwatchz.spigot.util.SpigotMessageService;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows the size, hit rate, evictions and load times of the lookup caches.
+ */
+public class StatsCommand implements CommandExecutor, TabCompleter {
+    private final NetwatchZSpigot plugin;
+
+    public StatsCommand(NetwatchZSpigot plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
+        sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                false,
+                "cache_stats_header",
+                "<br>&8--- <gradient:#FF80AB:#D81B60>&lCache Statistics </gradient>&r&8---<br>"
+        ));
+
+        List<CacheMetrics> caches = List.of(
+                plugin.getIpDataFetcher().getCacheMetrics(),
+                plugin.getVpnInfoProvider().getCacheMetrics(),
+                plugin.getCheckPipeline().getVerdictCache().getMetrics()
+        );
+        for (CacheMetrics metrics : caches) {
+            sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                    false,
+                    "cache_stats_entry",
+                    "<#FF80AB>%cache%: &7%size% entries, %hit_rate% hit rate, %evictions% evictions, %load_time% avg. load time",
+                    new SpigotMessageService.Replaceable<>("%cache%", metrics.name()),
+                    new SpigotMessageService.Replaceable<>("%size%", metrics.size()),
+                    new SpigotMessageService.Replaceable<>("%hit_rate%", metrics.statsEnabled() ? String.format(Locale.ROOT, "%.1f%%", metrics.hitRate() * 100) : "-"),
+                    new SpigotMessageService.Replaceable<>("%evictions%", metrics.statsEnabled() ? String.valueOf(metrics.evictionCount()) : "-"),
+                    new SpigotMessageService.Replaceable<>("%load_time%", metrics.statsEnabled() ? String.format(Locale.ROOT, "%.1f ms", metrics.averageLoadMillis()) : "-")
+            ));
+        }
+
+        for (StageStats stage : plugin.getCheckPipeline().getStageStats()) {
+            sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                    false,
+                    "stage_stats_entry",
+                    "<#FF80AB>Check %stage%: &7%runs% runs, %denials% denied, %timeouts% timed out, %time% avg. time",
+                    new SpigotMessageService.Replaceable<>("%stage%", stage.name()),
+                    new SpigotMessageService.Replaceable<>("%runs%", stage.runs()),
+                    new SpigotMessageService.Replaceable<>("%denials%", stage.denials()),
+                    new SpigotMessageService.Replaceable<>("%timeouts%", stage.timeouts()),
+                    new SpigotMessageService.Replaceable<>("%time%", stage.runs() > 0 ? String.format(Locale.ROOT, "%.2f ms", stage.averageMillis()) : "-")
+            ));
+        }
+
+        if (plugin.getIpDataFetcher().getSource() instanceof FailoverIpDataFetcher failover && failover.isHedgingEnabled()) {
+            HedgingStats hedging = failover.getHedgingStats();
+            sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                    false,
+                    "hedging_stats_entry",
+                    "<#FF80AB>Hedging: &7%hedged% of %lookups% lookups hedged (%hedge_rate%), %hedge_wins% won by the hedge (%win_rate%)",
+                    new SpigotMessageService.Replaceable<>("%lookups%", hedging.lookups()),
+                    new SpigotMessageService.Replaceable<>("%hedged%", hedging.hedged()),
+                    new SpigotMessageService.Replaceable<>("%hedge_rate%", String.format(Locale.ROOT, "%.1f%%", hedging.hedgeRate() * 100)),
+                    new SpigotMessageService.Replaceable<>("%hedge_wins%", hedging.hedgeWins()),
+                    new SpigotMessageService.Replaceable<>("%win_rate%", String.format(Locale.ROOT, "%.1f%%", hedging.winRate() * 100))
+            ));
+        }
+
+        if (plugin.getIpDataFetcher().getSource() instanceof FailoverIpDataFetcher failover) {
+            for (FailoverIpDataFetcher.Member member : failover.getMembers()) {
+                sendProviderStats(sender, "ip_data", member.breaker(), member.health());
+            }
+        }
+        VpnInfoSource vpnInfoSource = plugin.getVpnInfoProvider().getSource();
+        if (vpnInfoSource instanceof AsnPrecheckVpnInfoProvider precheck) {
+            AsnClassifier.Stats asn = precheck.getStats();
+            long settled = asn.hosting() + asn.residential();
+            sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                    false,
+                    "asn_precheck_stats_entry",
+                    "<#FF80AB>ASN precheck: &7%settled% of %lookups% IPs settled locally (%settled_rate%), %hosting% hosting, %residential% residential",
+                    new SpigotMessageService.Replaceable<>("%lookups%", settled + asn.unknown()),
+                    new SpigotMessageService.Replaceable<>("%settled%", settled),
+                    new SpigotMessageService.Replaceable<>("%settled_rate%", String.format(Locale.ROOT, "%.1f%%", asn.settledRate() * 100)),
+                    new SpigotMessageService.Replaceable<>("%hosting%", asn.hosting()),
+                    new SpigotMessageService.Replaceable<>("%residential%", asn.residential())
+            ));
+            vpnInfoSource = precheck.getDelegate();
+        }
+        if (vpnInfoSource instanceof FailoverVpnInfoProvider failover) {
+            for (FailoverVpnInfoProvider.Member member : failover.getMembers()) {
+                sendProviderStats(sender, "vpn_info", member.breaker(), member.health());
+                if (member.quota() != null) sendQuotaStats(sender, member.quota());
+            }
+        }
+        return true;
+    }
+
+    private void sendQuotaStats(CommandSender sender, QuotaTracker quota) {
+        QuotaTracker.Stats stats = quota.getStats();
+        sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                false,
+                "quota_stats_entry",
+                "<#FF80AB>%provider% budget: &7%used% of %limit% requests used today, %deferred% refreshes deferred, %rejected% new IPs over budget",
+                new SpigotMessageService.Replaceable<>("%provider%", quota.getName()),
+                new SpigotMessageService.Replaceable<>("%used%", stats.used()),
+                new SpigotMessageService.Replaceable<>("%limit%", stats.limit()),
+                new SpigotMessageService.Replaceable<>("%deferred%", stats.deferred()),
+                new SpigotMessageService.Replaceable<>("%rejected%", stats.rejected())
+        ));
+    }
+
+    private void sendProviderStats(CommandSender sender, String layer, CircuitBreaker breaker, ProviderHealth health) {
+        boolean measured = health.samples() > 0;
+        sender.sendMessage(plugin.getMessageService().getAndFormatMsg(
+                false,
+                "provider_stats_entry",
+                "<#FF80AB>%layer% provider %provider%: &7%latency% avg. latency, %error_rate% errors, %state%",
+                new SpigotMessageService.Replaceable<>("%layer%", layer),
+                new SpigotMessageService.Replaceable<>("%provider%", breaker.getName()),
+                new SpigotMessageService.Replaceable<>("%latency%", measured ? String.format(Locale.ROOT, "%.1f ms", health.latencyMillis()) : "-"),
+                new SpigotMessageService.Replaceable<>("%error_rate%", measured ? String.format(Locale.ROOT, "%.1f%%", health.errorRate() * 100) : "-"),
+                new SpigotMessageService.Replaceable<>("%state%", breaker.getState().name().toLowerCase(Locale.ROOT))
+        ));
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, String[] args) {
+        return List.of();
+    }
+}
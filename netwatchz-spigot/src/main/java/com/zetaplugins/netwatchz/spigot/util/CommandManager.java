@@ -2,6 +2,7 @@ package com.zetaplugins.netwatchz.spigot.util;
 
 import com.zetaplugins.netwatchz.spigot.commands.DebugCommand;
 import com.zetaplugins.netwatchz.spigot.commands.IpInfoCommand;
+import com.zetaplugins.netwatchz.spigot.commands.StatsCommand;
 import com.zetaplugins.netwatchz.spigot.NetwatchZSpigot;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.PluginCommand;
@@ -21,6 +22,9 @@ public final class CommandManager {
         var ipInfoCommand = new IpInfoCommand(plugin);
         registerCommand("ipinfo", ipInfoCommand, ipInfoCommand);
 
+        var statsCommand = new StatsCommand(plugin);
+        registerCommand("nwzstats", statsCommand, statsCommand);
+
         var debugCommand = new DebugCommand(plugin);
         registerCommand("nwzdebug", debugCommand, debugCommand);
     }
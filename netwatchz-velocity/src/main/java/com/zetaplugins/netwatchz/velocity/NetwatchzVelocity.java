@@ -2,11 +2,15 @@ package com.zetaplugins.netwatchz.velocity;
 
 import com.google.inject.Inject;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.zetaplugins.netwatchz.common.NetwatchzServices;
+import com.zetaplugins.netwatchz.common.check.ConnectionCheckPipeline;
+import com.zetaplugins.netwatchz.common.check.VerdictCache;
+import com.zetaplugins.netwatchz.common.config.CacheConfig;
 import com.zetaplugins.netwatchz.common.config.ConfigManager;
 import com.zetaplugins.netwatchz.common.config.IpInfoProviderConfig;
 import com.zetaplugins.netwatchz.common.config.IpListConfig;
@@ -16,8 +20,10 @@ import com.zetaplugins.netwatchz.common.iplist.IpListFetcher;
 import com.zetaplugins.netwatchz.common.iplist.IpListService;
 import com.zetaplugins.netwatchz.common.vpnblock.providers.VpnInfoProvider;
 import com.zetaplugins.netwatchz.velocity.commands.IpInfoCommand;
+import com.zetaplugins.netwatchz.velocity.commands.StatsCommand;
 import com.zetaplugins.netwatchz.velocity.listeners.PlayerLoginListener;
 import com.zetaplugins.netwatchz.velocity.util.*;
+import net.kyori.adventure.text.Component;
 import org.slf4j.Logger;
 
 import java.nio.file.Path;
@@ -38,6 +44,10 @@ public class NetwatchzVelocity {
     @Inject @DataDirectory private Path dataDirectory;
     @Inject private Metrics.Factory metricsFactory;
 
+    private NetwatchzServices services;
+    private ConnectionCheckPipeline<Component> checkPipeline;
+    private long reportedEvictions = 0;
+
     @Subscribe
     public void onProxyInitialization(ProxyInitializeEvent event) {
         new ConfigInitializer(logger, dataDirectory).initializeDefaultConfig();
@@ -54,33 +64,67 @@ public class NetwatchzVelocity {
         IpInfoProviderConfig ipInfoCfg = configManager.loadIpInfoProviderConfig();
         IpListConfig ipListCfg = configManager.loadIpListConfig();
         VpnBlockConfig vpnBlockCfg = configManager.loadVpnBlockConfig();
+        CacheConfig cacheCfg = configManager.loadCacheConfig();
 
-        var ipDataFetcher = IpDataFetcher.fromConfig(ipInfoCfg, new JulFromSlf4j("NetwatchZLogger", logger));
+        var ipDataFetcher = IpDataFetcher.fromConfig(ipInfoCfg, cacheCfg.ipData(), new JulFromSlf4j("NetwatchZLogger", logger));
         var ipListFetcher = IpListFetcher.fromConfig(ipListCfg, new JulFromSlf4j("NetwatchZLogger", logger));
         var ipListService = IpListService.fromConfig(ipListCfg, new JulFromSlf4j("NetwatchZLogger", logger));
-        var vpnInfoProvider = VpnInfoProvider.fromConfig(vpnBlockCfg);
-
-        var services = new NetwatchzServices(ipDataFetcher, ipListService, ipListFetcher, vpnInfoProvider);
+        var vpnInfoProvider = VpnInfoProvider.fromConfig(vpnBlockCfg, cacheCfg.vpnInfo(), new JulFromSlf4j("NetwatchZLogger", logger), ipDataFetcher);
+
+        services = new NetwatchzServices(ipDataFetcher, ipListService, ipListFetcher, vpnInfoProvider);
+        checkPipeline = ConnectionCheckPipeline.create(
+                configManager,
+                services,
+                new VerdictCache<>(cacheCfg.verdicts()),
+                (key, fallback) -> messageSevice.getAndFormatMsg(false, key, fallback),
+                command -> server.getScheduler().buildTask(this, () ->
+                        server.getCommandManager().executeAsync(server.getConsoleCommandSource(), command)
+                ).schedule(),
+                new JulFromSlf4j("NetwatchZLogger", logger)
+        );
+        ipListFetcher.addUpdateListener(path -> {
+            if (ipListService.reload(path)) checkPipeline.getVerdictCache().invalidateAll();
+        });
 
         server.getEventManager().register(
                 this,
-                new PlayerLoginListener(server, services, configManager, logger, messageSevice)
+                new PlayerLoginListener(checkPipeline)
         );
 
         server.getCommandManager().register("ipinfo", new IpInfoCommand(server, services, messageSevice));
+        server.getCommandManager().register("nwzstats", new StatsCommand(services, checkPipeline, messageSevice));
 
-        initializeBStats(configManager);
+        initializeBStats(configManager, services);
 
         logger.info("NetwatchZ has been initialized!");
     }
 
-    private void initializeBStats(VelocityConfigManager cfg) {
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        if (services == null) return;
+        services.ipDataFetcher().onShutDown();
+        services.vpnInfoProvider().onShutDown();
+        if (checkPipeline != null) checkPipeline.onShutDown();
+    }
+
+    private void initializeBStats(VelocityConfigManager cfg, NetwatchzServices services) {
         int pluginId = 27407;
         Metrics metrics = metricsFactory.make(this, pluginId);
 
         metrics.addCustomChart(new Metrics.SimplePie("ip_info_provider", () -> cfg.getString("ip_info_provider.provider", "ip-api")));
         metrics.addCustomChart(new Metrics.SimplePie("geo_blocking_enabled", () -> cfg.getBoolean("geo_blocking.enabled", false) ? "true" : "false"));
         metrics.addCustomChart(new Metrics.SimplePie("ip_list_enabled", () -> cfg.getBoolean("ip_list.enabled", true) ? "true" : "false"));
+        metrics.addCustomChart(new Metrics.SimplePie("ip_cache_hit_rate", () -> services.ipDataFetcher().getCacheMetrics().hitRateBucket()));
+        metrics.addCustomChart(new Metrics.SimplePie("ip_cache_load_time", () -> services.ipDataFetcher().getCacheMetrics().loadTimeBucket()));
+        metrics.addCustomChart(new Metrics.SimplePie("vpn_cache_hit_rate", () -> services.vpnInfoProvider().getCacheMetrics().hitRateBucket()));
+        metrics.addCustomChart(new Metrics.SingleLineChart("cache_evictions", () -> getEvictionsSinceLastReport(services)));
+    }
+
+    private int getEvictionsSinceLastReport(NetwatchzServices services) {
+        long total = services.ipDataFetcher().getCacheMetrics().evictionCount() + services.vpnInfoProvider().getCacheMetrics().evictionCount();
+        long delta = total - reportedEvictions;
+        reportedEvictions = total;
+        return (int) Math.min(Integer.MAX_VALUE, delta);
     }
 
 }
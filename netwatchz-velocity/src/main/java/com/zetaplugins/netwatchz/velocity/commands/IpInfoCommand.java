@@ -4,6 +4,7 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
+import com.zetaplugins.netwatchz.common.LookupResult;
 import com.zetaplugins.netwatchz.common.NetwatchzServices;
 import com.zetaplugins.netwatchz.common.ipapi.IpData;
 import com.zetaplugins.netwatchz.velocity.util.VelocityMessageService;
@@ -50,9 +51,9 @@ public class IpInfoCommand implements SimpleCommand {
 
         String playerIp = player.getRemoteAddress().getAddress().getHostAddress();
 //        String playerIp = "89.36.76.135"; // For testing purposes only
-        IpData ipData = services.ipDataFetcher().fetchIpData(playerIp);
+        LookupResult<IpData> result = services.ipDataFetcher().lookupIpData(playerIp);
 
-        if (ipData == null) {
+        if (!result.isKnown()) {
             sender.sendMessage(messageService.getAndFormatMsg(
                     false,
                     "ip_data_fetch_error",
@@ -62,6 +63,7 @@ public class IpInfoCommand implements SimpleCommand {
             return;
         }
 
+        IpData ipData = result.data();
         sender.sendMessage(messageService.getAndFormatMsg(
                 false,
                 "ip_info",
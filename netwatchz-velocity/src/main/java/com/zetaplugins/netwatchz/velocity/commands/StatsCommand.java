@@ -0,0 +1,155 @@
+package com.zetaplugins.netwatchz.velocity.commands;
+
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import com.zetaplugins.netwatchz.common.CacheMetrics;
+import com.zetaplugins.netwatchz.common.CircuitBreaker;
+import com.zetaplugins.netwatchz.common.ProviderHealth;
+import com.zetaplugins.netwatchz.common.QuotaTracker;
+import com.zetaplugins.netwatchz.common.check.ConnectionCheckPipeline;
+import com.zetaplugins.netwatchz.common.check.StageStats;
+import com.zetaplugins.netwatchz.common.ipapi.HedgingStats;
+import com.zetaplugins.netwatchz.common.ipapi.fetchers.FailoverIpDataFetcher;
+import com.zetaplugins.netwatchz.common.vpnblock.AsnClassifier;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.AsnPrecheckVpnInfoProvider;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.FailoverVpnInfoProvider;
+import com.zetaplugins.netwatchz.common.vpnblock.providers.VpnInfoSource;
+import com.zetaplugins.netwatchz.common.NetwatchzServices;
+import com.zetaplugins.netwatchz.velocity.util.VelocityMessageService;
+import net.kyori.adventure.text.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows the size, hit rate, evictions and load times of the lookup caches.
+ */
+public class StatsCommand implements SimpleCommand {
+
+    private final NetwatchzServices services;
+    private final ConnectionCheckPipeline<Component> checkPipeline;
+    private final VelocityMessageService messageService;
+
+    public StatsCommand(NetwatchzServices services, ConnectionCheckPipeline<Component> checkPipeline, VelocityMessageService messageService) {
+        this.services = services;
+        this.checkPipeline = checkPipeline;
+        this.messageService = messageService;
+    }
+
+    @Override
+    public void execute(Invocation invocation) {
+        CommandSource sender = invocation.source();
+
+        sender.sendMessage(messageService.getAndFormatMsg(
+                false,
+                "cache_stats_header",
+                "<br>&8--- <gradient:#FF80AB:#D81B60>&lCache Statistics </gradient>&r&8---<br>"
+        ));
+
+        List<CacheMetrics> caches = List.of(
+                services.ipDataFetcher().getCacheMetrics(),
+                services.vpnInfoProvider().getCacheMetrics(),
+                checkPipeline.getVerdictCache().getMetrics()
+        );
+        for (CacheMetrics metrics : caches) {
+            sender.sendMessage(messageService.getAndFormatMsg(
+                    false,
+                    "cache_stats_entry",
+                    "<#FF80AB>%cache%: &7%size% entries, %hit_rate% hit rate, %evictions% evictions, %load_time% avg. load time",
+                    new VelocityMessageService.Replaceable<>("%cache%", metrics.name()),
+                    new VelocityMessageService.Replaceable<>("%size%", metrics.size()),
+                    new VelocityMessageService.Replaceable<>("%hit_rate%", metrics.statsEnabled() ? String.format(Locale.ROOT, "%.1f%%", metrics.hitRate() * 100) : "-"),
+                    new VelocityMessageService.Replaceable<>("%evictions%", metrics.statsEnabled() ? String.valueOf(metrics.evictionCount()) : "-"),
+                    new VelocityMessageService.Replaceable<>("%load_time%", metrics.statsEnabled() ? String.format(Locale.ROOT, "%.1f ms", metrics.averageLoadMillis()) : "-")
+            ));
+        }
+
+        for (StageStats stage : checkPipeline.getStageStats()) {
+            sender.sendMessage(messageService.getAndFormatMsg(
+                    false,
+                    "stage_stats_entry",
+                    "<#FF80AB>Check %stage%: &7%runs% runs, %denials% denied, %timeouts% timed out, %time% avg. time",
+                    new VelocityMessageService.Replaceable<>("%stage%", stage.name()),
+                    new VelocityMessageService.Replaceable<>("%runs%", stage.runs()),
+                    new VelocityMessageService.Replaceable<>("%denials%", stage.denials()),
+                    new VelocityMessageService.Replaceable<>("%timeouts%", stage.timeouts()),
+                    new VelocityMessageService.Replaceable<>("%time%", stage.runs() > 0 ? String.format(Locale.ROOT, "%.2f ms", stage.averageMillis()) : "-")
+            ));
+        }
+
+        if (services.ipDataFetcher().getSource() instanceof FailoverIpDataFetcher failover && failover.isHedgingEnabled()) {
+            HedgingStats hedging = failover.getHedgingStats();
+            sender.sendMessage(messageService.getAndFormatMsg(
+                    false,
+                    "hedging_stats_entry",
+                    "<#FF80AB>Hedging: &7%hedged% of %lookups% lookups hedged (%hedge_rate%), %hedge_wins% won by the hedge (%win_rate%)",
+                    new VelocityMessageService.Replaceable<>("%lookups%", hedging.lookups()),
+                    new VelocityMessageService.Replaceable<>("%hedged%", hedging.hedged()),
+                    new VelocityMessageService.Replaceable<>("%hedge_rate%", String.format(Locale.ROOT, "%.1f%%", hedging.hedgeRate() * 100)),
+                    new VelocityMessageService.Replaceable<>("%hedge_wins%", hedging.hedgeWins()),
+                    new VelocityMessageService.Replaceable<>("%win_rate%", String.format(Locale.ROOT, "%.1f%%", hedging.winRate() * 100))
+            ));
+        }
+
+        if (services.ipDataFetcher().getSource() instanceof FailoverIpDataFetcher failover) {
+            for (FailoverIpDataFetcher.Member member : failover.getMembers()) {
+                sendProviderStats(sender, "ip_data", member.breaker(), member.health());
+            }
+        }
+        VpnInfoSource vpnInfoSource = services.vpnInfoProvider().getSource();
+        if (vpnInfoSource instanceof AsnPrecheckVpnInfoProvider precheck) {
+            AsnClassifier.Stats asn = precheck.getStats();
+            long settled = asn.hosting() + asn.residential();
+            sender.sendMessage(messageService.getAndFormatMsg(
+                    false,
+                    "asn_precheck_stats_entry",
+                    "<#FF80AB>ASN precheck: &7%settled% of %lookups% IPs settled locally (%settled_rate%), %hosting% hosting, %residential% residential",
+                    new VelocityMessageService.Replaceable<>("%lookups%", settled + asn.unknown()),
+                    new VelocityMessageService.Replaceable<>("%settled%", settled),
+                    new VelocityMessageService.Replaceable<>("%settled_rate%", String.format(Locale.ROOT, "%.1f%%", asn.settledRate() * 100)),
+                    new VelocityMessageService.Replaceable<>("%hosting%", asn.hosting()),
+                    new VelocityMessageService.Replaceable<>("%residential%", asn.residential())
+            ));
+            vpnInfoSource = precheck.getDelegate();
+        }
+        if (vpnInfoSource instanceof FailoverVpnInfoProvider failover) {
+            for (FailoverVpnInfoProvider.Member member : failover.getMembers()) {
+                sendProviderStats(sender, "vpn_info", member.breaker(), member.health());
+                if (member.quota() != null) sendQuotaStats(sender, member.quota());
+            }
+        }
+    }
+
+    private void sendQuotaStats(CommandSource sender, QuotaTracker quota) {
+        QuotaTracker.Stats stats = quota.getStats();
+        sender.sendMessage(messageService.getAndFormatMsg(
+                false,
+                "quota_stats_entry",
+                "<#FF80AB>%provider% budget: &7%used% of %limit% requests used today, %deferred% refreshes deferred, %rejected% new IPs over budget",
+                new VelocityMessageService.Replaceable<>("%provider%", quota.getName()),
+                new VelocityMessageService.Replaceable<>("%used%", stats.used()),
+                new VelocityMessageService.Replaceable<>("%limit%", stats.limit()),
+                new VelocityMessageService.Replaceable<>("%deferred%", stats.deferred()),
+                new VelocityMessageService.Replaceable<>("%rejected%", stats.rejected())
+        ));
+    }
+
+    private void sendProviderStats(CommandSource sender, String layer, CircuitBreaker breaker, ProviderHealth health) {
+        boolean measured = health.samples() > 0;
+        sender.sendMessage(messageService.getAndFormatMsg(
+                false,
+                "provider_stats_entry",
+                "<#FF80AB>%layer% provider %provider%: &7%latency% avg. latency, %error_rate% errors, %state%",
+                new VelocityMessageService.Replaceable<>("%layer%", layer),
+                new VelocityMessageService.Replaceable<>("%provider%", breaker.getName()),
+                new VelocityMessageService.Replaceable<>("%latency%", measured ? String.format(Locale.ROOT, "%.1f ms", health.latencyMillis()) : "-"),
+                new VelocityMessageService.Replaceable<>("%error_rate%", measured ? String.format(Locale.ROOT, "%.1f%%", health.errorRate() * 100) : "-"),
+                new VelocityMessageService.Replaceable<>("%state%", breaker.getState().name().toLowerCase(Locale.ROOT))
+        ));
+    }
+
+    @Override
+    public boolean hasPermission(Invocation invocation) {
+        return invocation.source().hasPermission("netwatchz.stats");
+    }
+}
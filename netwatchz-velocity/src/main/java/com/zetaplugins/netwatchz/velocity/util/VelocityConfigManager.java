@@ -1,6 +1,7 @@
 package com.zetaplugins.netwatchz.velocity.util;
 
 import com.zetaplugins.netwatchz.common.config.*;
+import com.zetaplugins.netwatchz.common.ipapi.AsnInfo;
 import com.zetaplugins.netwatchz.common.iplist.IpListFetchJob;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 
@@ -51,6 +52,7 @@ public class VelocityConfigManager extends ConfigManager {
      * @param def the default value to return if the path is not found or an error occurs
      * @return the string value from the configuration, or the default value
      */
+    @Override
     public String getString(String path, String def) {
         try {
             return rootNode.node((Object[]) path.split("\\.")).getString(def);
@@ -64,6 +66,7 @@ public class VelocityConfigManager extends ConfigManager {
      * @param path the configuration path (dot-separated)
      * @return the list of strings from the configuration, or an empty list
      */
+    @Override
     public List<String> getStringList(String path) {
         try {
             return rootNode.node((Object[]) path.split("\\.")).getList(String.class, List.of());
@@ -78,6 +81,7 @@ public class VelocityConfigManager extends ConfigManager {
      * @param def the default value to return if the path is not found or an error occurs
      * @return the boolean value from the configuration, or the default value
      */
+    @Override
     public boolean getBoolean(String path, boolean def) {
         try {
             return rootNode.node((Object[]) path.split("\\.")).getBoolean(def);
@@ -106,16 +110,36 @@ public class VelocityConfigManager extends ConfigManager {
 
     @Override
     public IpInfoProviderConfig loadIpInfoProviderConfig() {
-        String raw = getString("ip_info_provider.provider", "ip-api").trim().toLowerCase(Locale.ROOT);
-        IpInfoProviderConfig.Provider p = switch (raw) {
-            case "ipwhois" -> IpInfoProviderConfig.Provider.IPWHOIS;
-            case "geolite2" -> IpInfoProviderConfig.Provider.GEOLITE2;
-            case "custom" -> IpInfoProviderConfig.Provider.CUSTOM;
-            default -> IpInfoProviderConfig.Provider.IP_API;
-        };
+        String raw = getString("ip_info_provider.provider", "ip-api");
+        IpInfoProviderConfig.Provider p = IpInfoProviderConfig.Provider.fromString(raw);
+        if (p == null) {
+            logger.warn("Unknown IP info provider '" + raw + "'; using ip-api.");
+            p = IpInfoProviderConfig.Provider.IP_API;
+        }
+
+        List<IpInfoProviderConfig.Provider> fallbacks = new ArrayList<>();
+        for (String name : getStringList("ip_info_provider.fallback_providers")) {
+            IpInfoProviderConfig.Provider fallback = IpInfoProviderConfig.Provider.fromString(name);
+            if (fallback == null) {
+                logger.warn("Unknown fallback IP info provider '" + name + "'; ignoring.");
+                continue;
+            }
+            fallbacks.add(fallback);
+        }
+
+        CircuitBreakerConfig breaker = loadCircuitBreakerConfig("ip_info_provider.circuit_breaker");
+
+        HedgingConfig hedgingDef = HedgingConfig.DISABLED;
+        HedgingConfig hedging = new HedgingConfig(
+                getBoolean("ip_info_provider.hedging.enabled", hedgingDef.enabled()),
+                Duration.ofMillis(getInt("ip_info_provider.hedging.delay_ms", 0)),
+                getInt("ip_info_provider.hedging.percentile", (int) Math.round(hedgingDef.percentile() * 100)) / 100.0,
+                Duration.ofMillis(getInt("ip_info_provider.hedging.min_delay_ms", (int) hedgingDef.minDelay().toMillis())),
+                Duration.ofMillis(getInt("ip_info_provider.hedging.max_delay_ms", (int) hedgingDef.maxDelay().toMillis()))
+        );
 
         GeoLite2Config geo = null;
-        if (p == IpInfoProviderConfig.Provider.GEOLITE2) {
+        if (p == IpInfoProviderConfig.Provider.GEOLITE2 || fallbacks.contains(IpInfoProviderConfig.Provider.GEOLITE2)) {
             String asnUrl = getString("ip_info_provider.geolite2.asn_url", "");
             String cityUrl = getString("ip_info_provider.geolite2.city_url", "");
             String countryUrl = getString("ip_info_provider.geolite2.country_url", "");
@@ -133,11 +157,15 @@ public class VelocityConfigManager extends ConfigManager {
                 logger.warn("Invalid GeoLite2 Country URL; ignoring.");
                 countryUrl = "";
             }
-            geo = new GeoLite2Config(asnUrl, cityUrl, countryUrl, storage, Duration.ofDays(7));
+            geo = new GeoLite2Config(asnUrl, cityUrl, countryUrl, storage, Duration.ofDays(7),
+                    GeoLite2Config.FileMode.fromString(getString("ip_info_provider.geolite2.file_mode", "mmap")),
+                    getInt("ip_info_provider.geolite2.node_cache_size", GeoLite2Config.DEFAULT_NODE_CACHE_SIZE),
+                    getBoolean("ip_info_provider.geolite2.warmup", true),
+                    getBoolean("geo_blocking.enabled", true) ? getStringList("geo_blocking.countries") : List.of());
         }
 
         CustomProviderConfig custom = null;
-        if (p == IpInfoProviderConfig.Provider.CUSTOM) {
+        if (p == IpInfoProviderConfig.Provider.CUSTOM || fallbacks.contains(IpInfoProviderConfig.Provider.CUSTOM)) {
             String apiUrl = getString("ip_info_provider.custom.url", "http://ip-api.com/json/%ip%");
             ConfigurationNode headersNode = getNode("ip_info_provider.custom.headers");
             Map<String, String> headers = new HashMap<>();
@@ -150,7 +178,58 @@ public class VelocityConfigManager extends ConfigManager {
             custom = new CustomProviderConfig(apiUrl, headers, parseFields);
         }
 
-        return new IpInfoProviderConfig(p, geo, custom);
+        MmdbProviderConfig mmdb = null;
+        if (p == IpInfoProviderConfig.Provider.MMDB || fallbacks.contains(IpInfoProviderConfig.Provider.MMDB)) {
+            String url = getString("ip_info_provider.mmdb.url", "");
+            if (!url.isBlank() && !isValidUrl(url)) {
+                logger.warn("Invalid MMDB URL; ignoring.");
+                url = "";
+            }
+            Path file = dataDirectory.resolve("mmdb").resolve(getString("ip_info_provider.mmdb.file", "dbip-city-lite.mmdb"));
+            ConfigurationNode fieldsNode = getNode("ip_info_provider.mmdb.fields");
+            Map<String, String> fields = new HashMap<>();
+            fieldsNode.childrenMap().forEach((k, v) -> fields.put(k.toString(), v.getString("")));
+            mmdb = new MmdbProviderConfig(file, url, Duration.ofDays(7),
+                    GeoLite2Config.FileMode.fromString(getString("ip_info_provider.mmdb.file_mode", "mmap")),
+                    getInt("ip_info_provider.mmdb.node_cache_size", GeoLite2Config.DEFAULT_NODE_CACHE_SIZE),
+                    fields);
+        }
+
+        CsvProviderConfig csv = null;
+        if (p == IpInfoProviderConfig.Provider.CSV || fallbacks.contains(IpInfoProviderConfig.Provider.CSV)) {
+            Path file = dataDirectory.resolve("csv").resolve(getString("ip_info_provider.csv.file", "IP2LOCATION-LITE-DB11.CSV"));
+            ConfigurationNode columnsNode = getNode("ip_info_provider.csv.columns");
+            Map<String, Integer> columns = new HashMap<>();
+            columnsNode.childrenMap().forEach((k, v) -> columns.put(k.toString(), v.getInt(0)));
+            csv = new CsvProviderConfig(file,
+                    getInt("ip_info_provider.csv.start_column", 1),
+                    getInt("ip_info_provider.csv.end_column", 2),
+                    columns);
+        }
+
+        return new IpInfoProviderConfig(p, fallbacks, breaker, hedging, loadRoutingConfig("ip_info_provider.routing"), geo, custom, mmdb, csv);
+    }
+
+    private CircuitBreakerConfig loadCircuitBreakerConfig(String path) {
+        CircuitBreakerConfig def = CircuitBreakerConfig.DEFAULT;
+        return new CircuitBreakerConfig(
+                getInt(path + ".window_size", def.windowSize()),
+                getInt(path + ".minimum_calls", def.minimumCalls()),
+                getInt(path + ".failure_rate_percent", (int) Math.round(def.failureRate() * 100)) / 100.0,
+                Duration.ofMillis(getInt(path + ".slow_call_ms", (int) def.slowCallThreshold().toMillis())),
+                getInt(path + ".slow_call_rate_percent", (int) Math.round(def.slowCallRate() * 100)) / 100.0,
+                Duration.ofSeconds(getInt(path + ".open_seconds", (int) def.openDuration().toSeconds())),
+                getInt(path + ".half_open_probes", def.halfOpenProbes())
+        );
+    }
+
+    private RoutingConfig loadRoutingConfig(String path) {
+        RoutingConfig def = RoutingConfig.ORDERED;
+        return new RoutingConfig(
+                RoutingConfig.Mode.fromString(getString(path + ".mode", "ordered")),
+                getInt(path + ".smoothing_percent", (int) Math.round(def.smoothing() * 100)) / 100.0,
+                getInt(path + ".exploration_percent", (int) Math.round(def.exploration() * 100)) / 100.0
+        );
     }
 
     @Override
@@ -191,22 +270,39 @@ public class VelocityConfigManager extends ConfigManager {
 
     @Override
     public VpnBlockConfig loadVpnBlockConfig() {
-        boolean enabled = rootNode.node("vpn_block.enabled").getBoolean(false);
+        boolean enabled = getBoolean("vpn_block.enabled", false);
         String apiKey = getString("vpn_block.api_key", "").trim();
 
-        String raw = getString("vpn_block.provider", "vpnapi").trim().toLowerCase(Locale.ROOT);
-        VpnBlockConfig.Provider p = switch (raw) {
-            case "custom" -> VpnBlockConfig.Provider.CUSTOM;
-            case "proxycheck" -> VpnBlockConfig.Provider.PROXYCHECK;
-            default -> VpnBlockConfig.Provider.VPNAPI;
-        };
+        String raw = getString("vpn_block.provider", "vpnapi");
+        VpnBlockConfig.Provider p = VpnBlockConfig.Provider.fromString(raw);
+        if (p == null) {
+            logger.warn("Unknown VPN info provider '" + raw + "'; using vpnapi.");
+            p = VpnBlockConfig.Provider.VPNAPI;
+        }
+
+        List<VpnBlockConfig.Provider> fallbacks = new ArrayList<>();
+        for (String name : getStringList("vpn_block.fallback_providers")) {
+            VpnBlockConfig.Provider fallback = VpnBlockConfig.Provider.fromString(name);
+            if (fallback == null) {
+                logger.warn("Unknown fallback VPN info provider '" + name + "'; ignoring.");
+                continue;
+            }
+            fallbacks.add(fallback);
+        }
+
+        Map<VpnBlockConfig.Provider, String> apiKeys = new EnumMap<>(VpnBlockConfig.Provider.class);
+        for (VpnBlockConfig.Provider provider : VpnBlockConfig.Provider.values()) {
+            String key = getString("vpn_block.api_keys." + provider.configName(), "").trim();
+            if (!key.isBlank()) apiKeys.put(provider, key);
+        }
 
         CustomProviderConfig custom = null;
-        if (p == VpnBlockConfig.Provider.CUSTOM) {
+        if (p == VpnBlockConfig.Provider.CUSTOM || fallbacks.contains(VpnBlockConfig.Provider.CUSTOM)) {
             String apiUrl = getString("vpn_block.custom.url", "");
             if (apiUrl.isBlank() || !isValidUrl(apiUrl)) {
-                logger.warn("Invalid VPN Block custom URL; defaulting to VPNAPI.");
-                p = VpnBlockConfig.Provider.VPNAPI;
+                logger.warn("Invalid VPN Block custom URL; leaving the custom provider out.");
+                if (p == VpnBlockConfig.Provider.CUSTOM) p = VpnBlockConfig.Provider.VPNAPI;
+                fallbacks.remove(VpnBlockConfig.Provider.CUSTOM);
             } else {
                 ConfigurationNode headersNode = getNode("vpn_block.custom.headers");
                 Map<String, String> headers = new HashMap<>();
@@ -220,6 +316,122 @@ public class VelocityConfigManager extends ConfigManager {
             }
         }
 
-        return new VpnBlockConfig(enabled, p, apiKey, custom);
+        return new VpnBlockConfig(enabled, p, apiKey, custom, fallbacks, apiKeys,
+                loadCircuitBreakerConfig("vpn_block.circuit_breaker"), loadRoutingConfig("vpn_block.routing"),
+                loadAsnPrecheckConfig(),
+                new BatchingConfig(
+                        getBoolean("vpn_block.batching.enabled", BatchingConfig.DEFAULT.enabled()),
+                        Duration.ofMillis(getInt("vpn_block.batching.window_ms", (int) BatchingConfig.DEFAULT.window().toMillis())),
+                        getInt("vpn_block.batching.max_size", BatchingConfig.DEFAULT.maxBatchSize())
+                ),
+                loadQuotaConfig());
+    }
+
+    private QuotaConfig loadQuotaConfig() {
+        QuotaConfig def = QuotaConfig.UNLIMITED;
+        Map<VpnBlockConfig.Provider, Integer> limits = new EnumMap<>(VpnBlockConfig.Provider.class);
+        for (VpnBlockConfig.Provider provider : VpnBlockConfig.Provider.values()) {
+            int limit = getInt("vpn_block.quota.daily_limits." + provider.configName(), 0);
+            if (limit > 0) limits.put(provider, limit);
+        }
+        return new QuotaConfig(
+                limits,
+                getInt("vpn_block.quota.burst_percent", (int) Math.round(def.burst() * 100)) / 100.0,
+                getInt("vpn_block.quota.revalidation_reserve_percent", (int) Math.round(def.revalidationReserve() * 100)) / 100.0,
+                dataDirectory.resolve("quota")
+        );
+    }
+
+    private AsnPrecheckConfig loadAsnPrecheckConfig() {
+        if (!getBoolean("vpn_block.asn_precheck.enabled", false)) return AsnPrecheckConfig.DISABLED;
+
+        Path listsDir = dataDirectory.resolve("asnLists");
+        List<AsnPrecheckConfig.AsnList> lists = new ArrayList<>();
+        ConfigurationNode listsNode = getNode("vpn_block.asn_precheck.lists");
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : listsNode.childrenMap().entrySet()) {
+            ConfigurationNode listNode = entry.getValue();
+            String url = listNode.node("url").getString("").trim();
+            String filename = listNode.node("filename").getString("").trim();
+            String type = listNode.node("type").getString("hosting").trim();
+            int intervalHours = Math.max(1, listNode.node("update_interval_hours").getInt(24));
+            if (filename.isEmpty() || (!url.isEmpty() && !isValidUrl(url))) {
+                logger.warn("Invalid ASN list '{}', missing filename or invalid url", entry.getKey());
+                continue;
+            }
+            lists.add(new AsnPrecheckConfig.AsnList(listsDir.resolve(filename), url,
+                    Duration.ofHours(intervalHours), !type.equalsIgnoreCase("residential")));
+        }
+
+        return new AsnPrecheckConfig(
+                true,
+                parseAsns(getStringList("vpn_block.asn_precheck.hosting_asns")),
+                parseAsns(getStringList("vpn_block.asn_precheck.residential_asns")),
+                getStringList("vpn_block.asn_precheck.hosting_keywords"),
+                getStringList("vpn_block.asn_precheck.residential_keywords"),
+                getString("vpn_block.asn_precheck.report_hosting_as", "is_hosting").trim().equalsIgnoreCase("is_vpn"),
+                lists
+        );
+    }
+
+    private Set<Long> parseAsns(List<String> raw) {
+        Set<Long> asns = new HashSet<>();
+        for (String value : raw) {
+            AsnInfo asn = AsnInfo.parse(value, null);
+            if (asn == null) {
+                logger.warn("Invalid AS number '" + value + "'; ignoring.");
+                continue;
+            }
+            asns.add(asn.number());
+        }
+        return asns;
+    }
+
+    @Override
+    public ConnectionCheckConfig loadConnectionCheckConfig() {
+        return new ConnectionCheckConfig(
+                Duration.ofMillis(getInt("connection_check.deadline_ms", (int) ConnectionCheckConfig.DEFAULT.deadline().toMillis())),
+                getInt("connection_check.max_concurrent_lookups", ConnectionCheckConfig.DEFAULT.maxConcurrentLookups())
+        );
+    }
+
+    @Override
+    public CacheConfig loadCacheConfig() {
+        return new CacheConfig(
+                loadCacheSettings("cache.ip_data"),
+                loadCacheSettings("cache.vpn_info"),
+                loadVerdictSettings("cache.verdicts")
+        );
+    }
+
+    private CacheConfig.VerdictSettings loadVerdictSettings(String path) {
+        CacheConfig.VerdictSettings def = CacheConfig.VerdictSettings.DEFAULT;
+        return new CacheConfig.VerdictSettings(
+                getBoolean(path + ".enabled", def.enabled()),
+                getInt(path + ".max_size", (int) def.maxSize()),
+                Duration.ofMinutes(getInt(path + ".ttl_minutes", (int) def.ttl().toMinutes())),
+                getBoolean(path + ".record_stats", def.recordStats())
+        );
+    }
+
+    private CacheConfig.CacheSettings loadCacheSettings(String path) {
+        CacheConfig.CacheSettings def = CacheConfig.CacheSettings.DEFAULT;
+        long maxSize = getInt(path + ".max_size", (int) def.maxSize());
+        long maxMemoryMb = getInt(path + ".max_memory_mb", 0);
+        long ttlMinutes = getInt(path + ".ttl_minutes", (int) def.ttl().toMinutes());
+        long refreshAheadPercent = getInt(path + ".refresh_ahead_percent", (int) Math.round(def.refreshAhead() * 100));
+        long maxStaleMinutes = getInt(path + ".max_stale_minutes", (int) def.maxStale().toMinutes());
+        int prefixLengthV4 = getInt(path + ".prefix_length_v4", def.prefixLengthV4());
+        int prefixLengthV6 = getInt(path + ".prefix_length_v6", def.prefixLengthV6());
+        boolean recordStats = getBoolean(path + ".record_stats", def.recordStats());
+        return new CacheConfig.CacheSettings(
+                maxSize,
+                maxMemoryMb * 1024 * 1024,
+                Duration.ofMinutes(ttlMinutes),
+                refreshAheadPercent / 100.0,
+                Duration.ofMinutes(maxStaleMinutes),
+                prefixLengthV4,
+                prefixLengthV6,
+                recordStats
+        );
     }
-}
\ No newline at end of file
+}